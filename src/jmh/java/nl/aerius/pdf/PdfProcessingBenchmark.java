@@ -0,0 +1,115 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.AreaBreak;
+import com.itextpdf.layout.element.Paragraph;
+
+/**
+ * Measures {@link PdfProcessingHandle#process()} with each of the built-in processors, for documents of different lengths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfProcessingBenchmark {
+
+  private static final String FONT = StandardFonts.HELVETICA;
+
+  @Param({"1", "50", "500", "5000"})
+  private int pages;
+
+  @Param({"documentTitle", "documentSubtitle", "pageNumbers", "frontPage", "metaData"})
+  private String processor;
+
+  private byte[] source;
+  private Path frontPage;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    source = createDocument(pages);
+    frontPage = Files.createTempFile("benchmark-front-page", ".pdf");
+    Files.write(frontPage, createDocument(1));
+    FontCache.warmUp(FONT);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(frontPage);
+  }
+
+  @Benchmark
+  public void process() {
+    final PdfProcessingHandle handle = PdfProcessingHandle.create(source)
+        .target(OutputStream.nullOutputStream())
+        .font(FONT);
+
+    switch (processor) {
+    case "documentTitle" -> handle.documentTitle("Benchmark document title");
+    case "documentSubtitle" -> handle.documentSubtitle("Benchmark document subtitle");
+    case "pageNumbers" -> handle.pageNumbers();
+    case "frontPage" -> handle.frontPage(frontPage.toString());
+    case "metaData" -> handle.metaData(Map.of("Reference", "BENCHMARK-1", "Project", "Benchmark"));
+    default -> throw new IllegalArgumentException("Unknown processor: " + processor);
+    }
+
+    handle.process();
+  }
+
+  private static byte[] createDocument(final int pages) {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final PdfDocument pdfDoc = new PdfDocument(new PdfWriter(bos));
+        final Document document = new Document(pdfDoc, PageSize.A4)) {
+      for (int i = 0; i < pages; i++) {
+        if (i > 0) {
+          document.add(new AreaBreak());
+        }
+        document.add(new Paragraph("Page " + (i + 1) + " of a document exported for benchmarking."));
+      }
+    }
+    return bos.toByteArray();
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link NetworkFailureTracker} ingesting the network events of a page with many requests, of which some fail.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkFailureTrackerBenchmark {
+
+  private static final String REFERER = "http://localhost/report";
+
+  @Param({"10000", "50000"})
+  private int requests;
+
+  /**
+   * One in this many requests results in an HTTP error, and one in this many (other) requests fails on the network level.
+   */
+  @Param({"100"})
+  private int failureInterval;
+
+  private String[] requestIds;
+  private String[] urls;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    requestIds = new String[requests];
+    urls = new String[requests];
+    for (int i = 0; i < requests; i++) {
+      requestIds[i] = "1000." + i;
+      urls[i] = "http://localhost/tiles/" + (i % 20) + "/" + i + ".png";
+    }
+  }
+
+  @Benchmark
+  public List<NetworkFailure> ingest() {
+    final NetworkFailureTracker tracker = new NetworkFailureTracker();
+    for (int i = 0; i < requests; i++) {
+      final String requestId = requestIds[i];
+      tracker.onRequest(requestId, urls[i], "GET", REFERER);
+
+      if (i % failureInterval == failureInterval / 2) {
+        tracker.onLoadingFailed(requestId, "net::ERR_CONNECTION_RESET", "Image", false);
+      } else {
+        tracker.onResponse(requestId, i % failureInterval == 0 ? 404 : 200);
+        tracker.onLoadingFinished(requestId);
+      }
+    }
+    return tracker.getFailures(requestId -> CompletableFuture.completedFuture(null));
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.metrics;
+
+import java.time.Duration;
+
+/**
+ * Listener for the duration and size of each phase of an export, for example to feed a monitoring system.
+ *
+ * Only phases that complete are reported. Implementations are called on the exporting threads, possibly concurrently, and should return
+ * quickly.
+ *
+ * @see HistogramExportMetrics for an in-memory implementation
+ */
+@FunctionalInterface
+public interface ExportMetrics {
+  /**
+   * Metrics that are discarded.
+   */
+  ExportMetrics NONE = (phase, duration, bytes) -> {};
+
+  /**
+   * @param phase the phase that completed
+   * @param duration the time the phase took
+   * @param bytes the number of bytes produced by the phase, or 0 if the phase does not produce output
+   */
+  void onPhase(ExportPhase phase, Duration duration, long bytes);
+
+  /**
+   * Reports the phase that started at the given {@link System#nanoTime()}, and ended now.
+   */
+  default void onPhase(final ExportPhase phase, final long startNanos, final long bytes) {
+    onPhase(phase, Duration.ofNanos(System.nanoTime() - startNanos), bytes);
+  }
+}
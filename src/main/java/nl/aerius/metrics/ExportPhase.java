@@ -0,0 +1,56 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.metrics;
+
+/**
+ * The phases of an export, as reported to {@link ExportMetrics}.
+ */
+public enum ExportPhase {
+  /**
+   * Waiting for a free slot on a Chrome host, or for a healthy host in a cluster.
+   */
+  ACQUIRE,
+  /**
+   * Connecting to Chrome and creating a page, or borrowing one from a pool.
+   */
+  OPEN_PAGE,
+  /**
+   * Navigating to the page to export, until its frames are loaded.
+   */
+  NAVIGATE,
+  /**
+   * Waiting for the page to signal it is complete.
+   */
+  WAIT_FOR_COMPLETE,
+  /**
+   * Rendering the page to PDF or an image in Chrome. The byte size is that of the rendered output.
+   */
+  RENDER,
+  /**
+   * Transferring the rendered PDF from Chrome: reading the stream in chunks, or decoding the base64 payload. The byte size is that of the
+   * decoded document.
+   */
+  TRANSFER,
+  /**
+   * Writing the export result to disk.
+   */
+  SAVE,
+  /**
+   * Post-processing a PDF document. The byte size is that of the processed document.
+   */
+  POST_PROCESS;
+}
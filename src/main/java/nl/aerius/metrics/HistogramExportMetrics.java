@@ -0,0 +1,142 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.metrics;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ExportMetrics} that keeps a histogram of the durations of each phase in memory.
+ *
+ * Durations are counted in buckets that double in size, starting at 1 millisecond, so percentiles are accurate to within a factor of
+ * two. Recording is lock free.
+ *
+ * <pre>
+ * HistogramExportMetrics metrics = new HistogramExportMetrics();
+ * ExportJob.create(url).metrics(metrics).print();
+ *
+ * metrics.statistics(ExportPhase.RENDER).p99();
+ * </pre>
+ */
+public class HistogramExportMetrics implements ExportMetrics {
+
+  // Bucket i counts durations up to 2^i milliseconds, the last bucket counts everything longer
+  private static final int BUCKETS = 24;
+
+  /**
+   * Statistics of a single phase.
+   *
+   * @param count number of times the phase completed
+   * @param total total time spent in the phase
+   * @param max longest duration of the phase
+   * @param bytes total number of bytes produced by the phase
+   * @param p50 median duration, as the upper bound of its bucket
+   * @param p95 95th percentile duration, as the upper bound of its bucket
+   * @param p99 99th percentile duration, as the upper bound of its bucket
+   */
+  public record PhaseStatistics(long count, Duration total, Duration max, long bytes, Duration p50, Duration p95, Duration p99) {
+
+    /**
+     * @return the average duration of the phase
+     */
+    public Duration mean() {
+      return count == 0 ? Duration.ZERO : total.dividedBy(count);
+    }
+  }
+
+  private static final class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private void add(final long nanos, final long size) {
+      final long millis = Math.max(0, (nanos + 999_999) / 1_000_000);
+      final int bucket = Math.min(BUCKETS - 1, millis <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(millis - 1));
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      totalNanos.add(nanos);
+      bytes.add(size);
+      maxNanos.accumulate(nanos);
+    }
+
+    private PhaseStatistics statistics() {
+      final long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets.get(i);
+        total += counts[i];
+      }
+      final Duration max = Duration.ofNanos(maxNanos.get());
+      return new PhaseStatistics(total, Duration.ofNanos(totalNanos.sum()), max, bytes.sum(),
+          percentile(counts, total, 0.50, max), percentile(counts, total, 0.95, max), percentile(counts, total, 0.99, max));
+    }
+
+    private static Duration percentile(final long[] counts, final long total, final double percentile, final Duration max) {
+      final long rank = (long) Math.ceil(percentile * total);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank && seen > 0) {
+          // The upper bound of the bucket, but never more than the longest duration seen
+          final Duration bound = i == counts.length - 1 ? max : Duration.ofMillis(1L << i);
+          return bound.compareTo(max) > 0 ? max : bound;
+        }
+      }
+      return Duration.ZERO;
+    }
+  }
+
+  private final Map<ExportPhase, Histogram> histograms = new EnumMap<>(ExportPhase.class);
+
+  public HistogramExportMetrics() {
+    for (final ExportPhase phase : ExportPhase.values()) {
+      histograms.put(phase, new Histogram());
+    }
+  }
+
+  @Override
+  public void onPhase(final ExportPhase phase, final Duration duration, final long bytes) {
+    histograms.get(phase).add(duration.toNanos(), bytes);
+  }
+
+  /**
+   * @return the statistics of the given phase, recorded up to now
+   */
+  public PhaseStatistics statistics(final ExportPhase phase) {
+    return histograms.get(phase).statistics();
+  }
+
+  /**
+   * @return the statistics of all phases that completed at least once
+   */
+  public Map<ExportPhase, PhaseStatistics> statistics() {
+    final Map<ExportPhase, PhaseStatistics> statistics = new EnumMap<>(ExportPhase.class);
+    histograms.forEach((phase, histogram) -> {
+      final PhaseStatistics phaseStatistics = histogram.statistics();
+      if (phaseStatistics.count() > 0) {
+        statistics.put(phase, phaseStatistics);
+      }
+    });
+    return statistics;
+  }
+}
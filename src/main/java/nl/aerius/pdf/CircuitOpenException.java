@@ -0,0 +1,36 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+/**
+ * Exception thrown when exports to a Chrome host are refused because its circuit is open, after too many failures in a row.
+ */
+public class CircuitOpenException extends ChromeUnavailableException {
+  private static final long serialVersionUID = 1L;
+
+  public CircuitOpenException() {
+    super();
+  }
+
+  public CircuitOpenException(final String message) {
+    super(message);
+  }
+
+  public CircuitOpenException(final String message, final Throwable cause) {
+    super(message, cause);
+  }
+}
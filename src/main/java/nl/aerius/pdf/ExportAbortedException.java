@@ -0,0 +1,49 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+import nl.aerius.metrics.ExportPhase;
+
+/**
+ * Exception thrown when an export is aborted because it exceeded its deadline, or because it was cancelled.
+ */
+public class ExportAbortedException extends TimeoutException {
+  private static final long serialVersionUID = 1L;
+
+  private final ExportPhase phase;
+  private final boolean cancelled;
+
+  public ExportAbortedException(final String message, final ExportPhase phase, final boolean cancelled, final Throwable cause) {
+    super(message, cause);
+    this.phase = phase;
+    this.cancelled = cancelled;
+  }
+
+  /**
+   * @return the phase the export was in when it was aborted
+   */
+  public ExportPhase phase() {
+    return phase;
+  }
+
+  /**
+   * @return whether the export was cancelled, rather than exceeding its deadline
+   */
+  public boolean cancelled() {
+    return cancelled;
+  }
+}
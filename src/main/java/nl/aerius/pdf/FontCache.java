@@ -0,0 +1,103 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.font.PdfFontFactory.EmbeddingStrategy;
+
+/**
+ * Process-wide cache of parsed fonts, keyed by font name.
+ *
+ * Reading and parsing a font (a CJK font is many megabytes) is done once per font. Each processed document gets its own {@link PdfFont}
+ * created from the cached font program, which only holds the glyphs used in that document.
+ *
+ * A font name is either one of the standard PDF fonts (such as Helvetica), which are not embedded, or the name of a font resource on the
+ * classpath, which is embedded as a subset.
+ */
+public final class FontCache {
+  private static final Logger LOG = LoggerFactory.getLogger(FontCache.class);
+
+  private static final Map<String, FontProgram> PROGRAMS = new ConcurrentHashMap<>();
+
+  private FontCache() {}
+
+  /**
+   * Loads the given fonts into the cache, so the first documents processed do not pay for parsing them.
+   */
+  public static void warmUp(final String... fonts) {
+    for (final String font : fonts) {
+      program(font);
+    }
+  }
+
+  /**
+   * Creates a font for use in a single document.
+   */
+  public static PdfFont createFont(final String font) {
+    if (StandardFonts.isStandardFont(font)) {
+      return PdfFontFactory.createFont(program(font), PdfEncodings.WINANSI, EmbeddingStrategy.PREFER_NOT_EMBEDDED);
+    }
+    return PdfFontFactory.createFont(program(font), PdfEncodings.IDENTITY_H, EmbeddingStrategy.PREFER_EMBEDDED);
+  }
+
+  /**
+   * @return the parsed font program for the given font, loading it if needed
+   */
+  public static FontProgram program(final String font) {
+    return PROGRAMS.computeIfAbsent(font, FontCache::load);
+  }
+
+  /**
+   * Removes all fonts from the cache.
+   */
+  public static void clear() {
+    PROGRAMS.clear();
+  }
+
+  private static FontProgram load(final String font) {
+    try {
+      if (StandardFonts.isStandardFont(font)) {
+        return FontProgramFactory.createFont(font);
+      }
+
+      try (final InputStream is = FontCache.class.getClassLoader().getResourceAsStream(font)) {
+        if (is == null) {
+          throw new IllegalArgumentException("Font not found on classpath: " + font);
+        }
+        LOG.debug("Loading font into cache: {}", font);
+        return FontProgramFactory.createFont(is.readAllBytes(), false);
+      }
+    } catch (final IOException e) {
+      LOG.info("Could not fetch font while processing PDF.", e);
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.kernel.geom.Matrix;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfNumber;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.canvas.parser.EventType;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfCanvasProcessor;
+import com.itextpdf.kernel.pdf.canvas.parser.data.IEventData;
+import com.itextpdf.kernel.pdf.canvas.parser.data.ImageRenderInfo;
+import com.itextpdf.kernel.pdf.canvas.parser.listener.IEventListener;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+
+/**
+ * Downsamples the raster images in a document that are embedded at a higher resolution than they are displayed at, and recompresses
+ * them as JPEG.
+ *
+ * The resolution of an image is determined by the largest size it is drawn at on any page. Images with transparency (a soft mask) or
+ * stencil masks are left alone, as are images that would not become smaller.
+ */
+final class ImageDownsampler {
+  private static final Logger LOG = LoggerFactory.getLogger(ImageDownsampler.class);
+
+  private static final float POINTS_PER_INCH = 72F;
+
+  private final int maxDpi;
+  private final float jpegQuality;
+
+  ImageDownsampler(final int maxDpi, final float jpegQuality) {
+    this.maxDpi = maxDpi;
+    this.jpegQuality = jpegQuality;
+  }
+
+  /**
+   * @return the number of images that were downsampled
+   */
+  int downsample(final PdfDocument pdfDoc) {
+    final Map<PdfStream, Float> displayWidths = collectDisplayWidths(pdfDoc);
+
+    int downsampled = 0;
+    for (final Map.Entry<PdfStream, Float> entry : displayWidths.entrySet()) {
+      if (downsample(entry.getKey(), entry.getValue())) {
+        downsampled++;
+      }
+    }
+    return downsampled;
+  }
+
+  /**
+   * Finds the images drawn in the document, with the largest width in points each image is drawn at.
+   */
+  private static Map<PdfStream, Float> collectDisplayWidths(final PdfDocument pdfDoc) {
+    final Map<PdfStream, Float> displayWidths = new IdentityHashMap<>();
+    final IEventListener listener = new IEventListener() {
+      @Override
+      public void eventOccurred(final IEventData data, final EventType type) {
+        final ImageRenderInfo info = (ImageRenderInfo) data;
+        if (!info.isInline()) {
+          final Matrix ctm = info.getImageCtm();
+          // The image space unit square is scaled to the display size by the transformation matrix
+          final float width = (float) Math.hypot(ctm.get(Matrix.I11), ctm.get(Matrix.I12));
+          displayWidths.merge(info.getImage().getPdfObject(), width, Math::max);
+        }
+      }
+
+      @Override
+      public Set<EventType> getSupportedEvents() {
+        return Set.of(EventType.RENDER_IMAGE);
+      }
+    };
+
+    for (int i = 1; i <= pdfDoc.getNumberOfPages(); i++) {
+      new PdfCanvasProcessor(listener).processPageContent(pdfDoc.getPage(i));
+    }
+    return displayWidths;
+  }
+
+  private boolean downsample(final PdfStream stream, final float displayWidth) {
+    if (stream.containsKey(PdfName.SMask) || stream.containsKey(PdfName.Mask) || stream.getAsBool(PdfName.ImageMask) == Boolean.TRUE) {
+      return false;
+    }
+
+    final PdfNumber pixelWidth = stream.getAsNumber(PdfName.Width);
+    if (pixelWidth == null || displayWidth <= 0) {
+      return false;
+    }
+    final float dpi = pixelWidth.floatValue() / (displayWidth / POINTS_PER_INCH);
+    if (dpi <= maxDpi) {
+      return false;
+    }
+
+    try {
+      final BufferedImage original = new PdfImageXObject(stream).getBufferedImage();
+      final double scale = maxDpi / dpi;
+      final int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+      final int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+      final byte[] jpeg = encodeJpeg(scale(original, width, height));
+
+      final int originalLength = stream.getBytes(false).length;
+      if (jpeg.length >= originalLength) {
+        return false;
+      }
+
+      stream.setData(jpeg);
+      stream.put(PdfName.Filter, PdfName.DCTDecode);
+      stream.put(PdfName.Width, new PdfNumber(width));
+      stream.put(PdfName.Height, new PdfNumber(height));
+      stream.put(PdfName.ColorSpace, PdfName.DeviceRGB);
+      stream.put(PdfName.BitsPerComponent, new PdfNumber(8));
+      stream.remove(PdfName.DecodeParms);
+      stream.remove(PdfName.Decode);
+      LOG.debug("Downsampled image from {} to {} dpi, {} bytes to {} bytes.", Math.round(dpi), maxDpi, originalLength, jpeg.length);
+      return true;
+    } catch (final IOException | RuntimeException e) {
+      // Not all color spaces and filters can be decoded, in which case the image is kept as is
+      LOG.debug("Could not downsample image, keeping the original: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  private static BufferedImage scale(final BufferedImage original, final int width, final int height) {
+    final BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = scaled.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(original, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    return scaled;
+  }
+
+  private byte[] encodeJpeg(final BufferedImage image) throws IOException {
+    final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(bos)) {
+      final ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(jpegQuality);
+      writer.setOutput(output);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return bos.toByteArray();
+  }
+}
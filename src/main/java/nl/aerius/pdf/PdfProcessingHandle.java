@@ -16,33 +16,58 @@
  */
 package nl.aerius.pdf;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.source.IRandomAccessSource;
+import com.itextpdf.io.source.RandomAccessSourceFactory;
 import com.itextpdf.kernel.colors.DeviceRgb;
 import com.itextpdf.kernel.font.PdfFont;
-import com.itextpdf.kernel.font.PdfFontFactory;
-import com.itextpdf.kernel.font.PdfFontFactory.EmbeddingStrategy;
 import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfDocumentInfo;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfString;
 import com.itextpdf.kernel.pdf.PdfPage;
 import com.itextpdf.kernel.pdf.PdfReader;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.ReaderProperties;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.kernel.utils.PdfMerger;
+import com.itextpdf.layout.Canvas;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Paragraph;
 import com.itextpdf.layout.properties.TextAlignment;
 import com.itextpdf.layout.properties.VerticalAlignment;
+import com.itextpdf.layout.renderer.TextRenderer;
 
+import nl.aerius.metrics.ExportMetrics;
+import nl.aerius.metrics.ExportPhase;
 import nl.aerius.util.TriConsumer;
 
 public class PdfProcessingHandle {
@@ -53,24 +78,102 @@ public class PdfProcessingHandle {
   private static final float MARGIN_HOR = 56F;
   private static final float FOOTER_TITLE_VER = 28F;
   private static final float FOOTER_SUBTITLE_VER = 18F;
+  private static final float FOOTER_TITLE_SIZE = 14F;
+  private static final float FOOTER_SUBTITLE_SIZE = 8F;
+  private static final DeviceRgb FOOTER_COLOR = new DeviceRgb(225, 119, 49);
+  private static final float FONT_UNITS = 1000F;
+
+  private static final int MIN_PAGES_PER_RANGE = 50;
+  private static final float DEFAULT_JPEG_QUALITY = 0.8F;
+  private static final AtomicInteger WORKER_COUNTER = new AtomicInteger();
 
   private boolean finalized;
+  private boolean footerStamping;
+  private int parallelism = 1;
+  private boolean smartMode;
+  private boolean fullCompression;
+  private ImageDownsampler imageDownsampler;
+  private ExportMetrics metrics = ExportMetrics.NONE;
 
   private String font = FONT;
 
-  private String source;
-  private String target;
+  private String sourceName;
+  private PdfSource sourceOpener;
+  private PdfTarget targetOpener;
 
   private final List<Consumer<Document>> documentProcessors = new ArrayList<>();
   private final List<TriConsumer<Document, PdfPage, Integer>> pageProcessors = new ArrayList<>();
 
-  private PdfFont pdfFont;
+  private int numberOfPages;
+  private long sourceSize;
+  private PdfSizeReport sizeReport;
+  private final AtomicInteger downsampledImages = new AtomicInteger();
+
+  private final Map<PdfDocument, PdfFont> fonts = new ConcurrentHashMap<>();
+  private final Set<PdfPage> wrappedPages = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Opens the reader for the document to process.
+   */
+  @FunctionalInterface
+  private interface PdfSource {
+    PdfReader open() throws IOException;
+  }
+
+  /**
+   * Opens the writer for the processed document.
+   */
+  @FunctionalInterface
+  private interface PdfTarget {
+    PdfWriter open(WriterProperties properties) throws IOException;
+  }
+
+  /**
+   * Random access over a (possibly direct or memory-mapped) byte buffer, without copying it to the heap.
+   */
+  private static final class ByteBufferSource implements IRandomAccessSource {
+    private final ByteBuffer buffer;
+
+    private ByteBufferSource(final ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int get(final long position) {
+      return position >= buffer.limit() ? -1 : buffer.get((int) position) & 0xFF;
+    }
+
+    @Override
+    public int get(final long position, final byte[] bytes, final int off, final int len) {
+      if (position >= buffer.limit()) {
+        return -1;
+      }
+      final int n = (int) Math.min(len, buffer.limit() - position);
+      buffer.get((int) position, bytes, off, n);
+      return n;
+    }
+
+    @Override
+    public long length() {
+      return buffer.limit();
+    }
+
+    @Override
+    public void close() {
+      // Nothing to release, the buffer is owned by the caller
+    }
+  }
 
   public static PdfProcessingHandle create(final String source) {
     return PdfProcessingHandle.create()
         .source(source);
   }
 
+  public static PdfProcessingHandle create(final byte[] source) {
+    return PdfProcessingHandle.create()
+        .source(source);
+  }
+
   public static PdfProcessingHandle create(final String source, final String target) {
     return PdfProcessingHandle.create()
         .source(source)
@@ -79,31 +182,169 @@ public class PdfProcessingHandle {
 
   public void process() {
     checkFinalized();
+    if (sourceOpener == null || targetOpener == null) {
+      throw new IllegalStateException("Cannot process without both a source and a target.");
+    }
     finalized = true;
 
-    try (final InputStream is = PdfProcessingHandle.class.getClassLoader().getResourceAsStream(font)) {
-      final byte[] fontBytes = is.readAllBytes();
-
-      pdfFont = PdfFontFactory.createFont(fontBytes, PdfEncodings.IDENTITY_H, EmbeddingStrategy.PREFER_EMBEDDED);
+    final long start = System.nanoTime();
+    try {
+      final long targetSize;
+      if (parallelism > 1) {
+        targetSize = processParallel();
+      } else {
+        targetSize = processSequential();
+      }
+      sizeReport = new PdfSizeReport(sourceSize, targetSize, downsampledImages.get());
+      metrics.onPhase(ExportPhase.POST_PROCESS, start, targetSize);
+      if (smartMode || fullCompression || imageDownsampler != null) {
+        LOG.info("Processed {}: {}", sourceName, sizeReport);
+      }
     } catch (final IOException e) {
-      LOG.info("Could not fetch font while processing PDF.", e);
+      LOG.info("Could not fetch PDF to mutate: {}", sourceName, e);
       throw new UncheckedIOException(e);
     }
+  }
+
+  /**
+   * @return the sizes of the source and processed document
+   * @throws IllegalStateException when the document has not been processed yet
+   */
+  public PdfSizeReport sizeReport() {
+    if (sizeReport == null) {
+      throw new IllegalStateException("Document has not been processed yet.");
+    }
+    return sizeReport;
+  }
 
-    try (final PdfDocument pdfDoc = new PdfDocument(new PdfReader(source), new PdfWriter(target));
+  private long processSequential() throws IOException {
+    final PdfReader reader = sourceOpener.open();
+    final PdfWriter writer = targetOpener.open(writerProperties());
+    try (final PdfDocument pdfDoc = new PdfDocument(reader, writer);
         final Document document = new Document(pdfDoc)) {
-      final int numberOfPages = pdfDoc.getNumberOfPages();
+      sourceSize = reader.getFileLength();
+      numberOfPages = pdfDoc.getNumberOfPages();
 
-      for (int i = 1; i <= numberOfPages; i++) {
-        final int number = i;
-        final PdfPage page = pdfDoc.getPage(i);
-        pageProcessors.forEach(v -> v.accept(document, page, number));
-      }
+      downsampleImages(pdfDoc);
+      processPages(document, 1, 1, numberOfPages);
 
       documentProcessors.forEach(v -> v.accept(document));
-    } catch (final IOException e) {
-      LOG.info("Could not fetch PDF to mutate: {}", source, e);
-      throw new UncheckedIOException(e);
+    }
+    return writer.getCurrentPos();
+  }
+
+  private long processParallel() throws IOException {
+    // The document information of the source is not part of the page ranges, so carry it over separately
+    final Map<String, String> info = new LinkedHashMap<>();
+    try (final PdfReader reader = sourceOpener.open();
+        final PdfDocument pdfDoc = new PdfDocument(reader)) {
+      sourceSize = reader.getFileLength();
+      numberOfPages = pdfDoc.getNumberOfPages();
+      final PdfDictionary sourceInfo = pdfDoc.getTrailer().getAsDictionary(PdfName.Info);
+      if (sourceInfo != null) {
+        sourceInfo.keySet().forEach(key -> {
+          final PdfString value = sourceInfo.getAsString(key);
+          if (value != null) {
+            info.put(key.getValue(), value.toUnicodeString());
+          }
+        });
+      }
+    }
+
+    final int rangeSize = Math.max(MIN_PAGES_PER_RANGE, (numberOfPages + parallelism - 1) / parallelism);
+    final ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+      final Thread thread = new Thread(r, "pdf-processing-" + WORKER_COUNTER.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    try {
+      final List<Future<byte[]>> ranges = new ArrayList<>();
+      for (int from = 1; from <= numberOfPages; from += rangeSize) {
+        final int first = from;
+        final int last = Math.min(numberOfPages, from + rangeSize - 1);
+        ranges.add(executor.submit(() -> processRange(first, last)));
+      }
+
+      final PdfWriter writer = targetOpener.open(writerProperties());
+      try (final PdfDocument pdfDoc = new PdfDocument(writer)) {
+        final PdfMerger merger = new PdfMerger(pdfDoc);
+        for (final Future<byte[]> range : ranges) {
+          try (final PdfDocument rangeDoc = new PdfDocument(new PdfReader(new RandomAccessSourceFactory().createSource(awaitRange(range)),
+              new ReaderProperties()))) {
+            merger.merge(rangeDoc, 1, rangeDoc.getNumberOfPages());
+          }
+        }
+        pdfDoc.getDocumentInfo().setMoreInfo(info);
+
+        try (final Document document = new Document(pdfDoc)) {
+          documentProcessors.forEach(v -> v.accept(document));
+        }
+      }
+      return writer.getCurrentPos();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Copies the given (inclusive) range of source pages into a document of their own, and applies the page processors to them.
+   */
+  private byte[] processRange(final int first, final int last) throws IOException {
+    final ByteArrayOutputStream range = new ByteArrayOutputStream();
+    try (final PdfDocument sourceDoc = new PdfDocument(sourceOpener.open());
+        final PdfDocument rangeDoc = new PdfDocument(new PdfWriter(range));
+        final Document document = new Document(rangeDoc)) {
+      // Initialize the outlines on both sides, so the entries pointing into this range are copied along with the pages
+      sourceDoc.initializeOutlines();
+      rangeDoc.initializeOutlines();
+      sourceDoc.copyPagesTo(first, last, rangeDoc);
+
+      downsampleImages(rangeDoc);
+
+      processPages(document, 1, first, last - first + 1);
+    }
+    return range.toByteArray();
+  }
+
+  private void downsampleImages(final PdfDocument pdfDoc) {
+    if (imageDownsampler != null) {
+      downsampledImages.addAndGet(imageDownsampler.downsample(pdfDoc));
+    }
+  }
+
+  private WriterProperties writerProperties() {
+    final WriterProperties properties = new WriterProperties();
+    if (smartMode) {
+      properties.useSmartMode();
+    }
+    if (fullCompression) {
+      properties.setFullCompressionMode(true);
+    }
+    return properties;
+  }
+
+  private void processPages(final Document document, final int firstPage, final int firstNumber, final int count) {
+    for (int i = 0; i < count; i++) {
+      final int number = firstNumber + i;
+      final PdfPage page = document.getPdfDocument().getPage(firstPage + i);
+      pageProcessors.forEach(v -> v.accept(document, page, number));
+    }
+  }
+
+  private static byte[] awaitRange(final Future<byte[]> range) throws IOException {
+    try {
+      return range.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while processing page range.");
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException cause) {
+        throw cause;
+      } else if (e.getCause() instanceof final RuntimeException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException("Failure while processing page range.", e.getCause());
     }
   }
 
@@ -134,57 +375,248 @@ public class PdfProcessingHandle {
 
   public PdfProcessingHandle documentSubtitle(final String subtitle) {
     checkFinalized();
-    return pageProcessor((document, page, number) -> {
-      final Paragraph documentNameSubtitle = new Paragraph(subtitle)
-          .setFont(pdfFont)
-          .setFontColor(new DeviceRgb(225, 119, 49))
-          .setFontSize(8F);
-      document.showTextAligned(documentNameSubtitle,
-          MARGIN_HOR, FOOTER_SUBTITLE_VER,
-          number, TextAlignment.LEFT, VerticalAlignment.BOTTOM, 0);
-    });
+    return footerText(subtitle, FOOTER_SUBTITLE_SIZE, FOOTER_SUBTITLE_VER);
   }
 
   public PdfProcessingHandle documentTitle(final String title) {
     checkFinalized();
-    return pageProcessor((document, page, number) -> {
-      final Paragraph documentName = new Paragraph(title)
-          .setFont(pdfFont)
-          .setFontColor(new DeviceRgb(225, 119, 49))
-          .setFontSize(14F);
-      document.showTextAligned(documentName,
-          MARGIN_HOR, FOOTER_TITLE_VER,
-          number, TextAlignment.LEFT, VerticalAlignment.BOTTOM, 0);
-    });
+    return footerText(title, FOOTER_TITLE_SIZE, FOOTER_TITLE_VER);
   }
 
   public PdfProcessingHandle pageNumbers() {
     checkFinalized();
     return pageProcessor((document, page, number) -> {
       final Rectangle pageSize = page.getPageSize();
+      final String text = String.format("%d/%d", number + 1, numberOfPages + 1);
+      final PdfFont pdfFont = documentFont(page.getDocument());
+
+      if (footerStamping) {
+        // Plain text operators, positioned on the same baseline the layout engine would use
+        final float width = pdfFont.getWidth(text, FOOTER_SUBTITLE_SIZE);
+        final float descender = TextRenderer.calculateAscenderDescender(pdfFont)[1] * FOOTER_SUBTITLE_SIZE / FONT_UNITS;
+        stampCanvas(page)
+            .beginText()
+            .setFontAndSize(pdfFont, FOOTER_SUBTITLE_SIZE)
+            .moveText(pageSize.getWidth() - MARGIN_HOR - width, FOOTER_SUBTITLE_VER - descender)
+            .showText(text)
+            .endText();
+      } else {
+        final Paragraph pageNumber = new Paragraph(text)
+            .setFont(pdfFont)
+            .setFontSize(FOOTER_SUBTITLE_SIZE);
+
+        try (final Canvas canvas = new Canvas(stampCanvas(page), pageSize)) {
+          canvas.showTextAligned(pageNumber, pageSize.getWidth() - MARGIN_HOR, FOOTER_SUBTITLE_VER, TextAlignment.RIGHT,
+              VerticalAlignment.BOTTOM);
+        }
+      }
+    });
+  }
+
+  /**
+   * Stamp the footer texts ({@link #documentTitle(String)}, {@link #documentSubtitle(String)} and {@link #pageNumbers()}) instead of
+   * laying them out on every page. The title and subtitle are laid out once into a form XObject that each page refers to, and the page
+   * numbers are drawn as plain text. This is considerably faster and results in a smaller document for documents with many pages.
+   */
+  public PdfProcessingHandle footerStamping(final boolean footerStamping) {
+    checkFinalized();
+    this.footerStamping = footerStamping;
+    return this;
+  }
+
+  /**
+   * Write the document in smart mode, in which identical objects (such as duplicated font subsets) are written only once.
+   */
+  public PdfProcessingHandle smartMode(final boolean smartMode) {
+    checkFinalized();
+    this.smartMode = smartMode;
+    return this;
+  }
+
+  /**
+   * Write the document with full compression, which also compresses the cross-reference table and packs objects into object streams.
+   */
+  public PdfProcessingHandle fullCompression(final boolean fullCompression) {
+    checkFinalized();
+    this.fullCompression = fullCompression;
+    return this;
+  }
+
+  /**
+   * Downsample raster images that are embedded at a resolution above the given DPI, recompressing them as JPEG at the default quality.
+   */
+  public PdfProcessingHandle downsampleImages(final int maxDpi) {
+    return downsampleImages(maxDpi, DEFAULT_JPEG_QUALITY);
+  }
+
+  /**
+   * Downsample raster images that are embedded at a resolution above the given DPI, recompressing them as JPEG.
+   *
+   * @param maxDpi resolution, relative to the size the image is displayed at, above which images are downsampled to this resolution
+   * @param jpegQuality JPEG quality of the recompressed images, between 0 and 1
+   */
+  public PdfProcessingHandle downsampleImages(final int maxDpi, final float jpegQuality) {
+    checkFinalized();
+    if (maxDpi < 1 || jpegQuality <= 0 || jpegQuality > 1) {
+      throw new IllegalArgumentException("Invalid downsampling settings, DPI: " + maxDpi + " quality: " + jpegQuality);
+    }
+    this.imageDownsampler = new ImageDownsampler(maxDpi, jpegQuality);
+    return this;
+  }
 
-      final Paragraph pageNumber = new Paragraph(String.format("%d/%d", number + 1, document.getPdfDocument().getNumberOfPages() + 1))
-          .setFont(pdfFont)
-          .setFontSize(8F);
+  /**
+   * Report the duration of processing, and the size of the processed document, to the given metrics.
+   */
+  public PdfProcessingHandle metrics(final ExportMetrics metrics) {
+    checkFinalized();
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Apply the page processors to ranges of pages on several threads at once, which speeds up processing of documents with many pages.
+   * The ranges are merged back in order afterwards, and the document processors are applied once to the merged document.
+   *
+   * In this mode the document passed to a page processor only holds the range the page is part of, while the page number passed along
+   * is still the page number in the complete document. Page processors should therefore only draw on the page they are given.
+   * Links within the document that point to a page in another range are not kept.
+   *
+   * @param parallelism the number of threads to use, 1 (the default) processes all pages on the calling thread
+   */
+  public PdfProcessingHandle parallelism(final int parallelism) {
+    checkFinalized();
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1, but was: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
 
-      document.showTextAligned(pageNumber,
-          pageSize.getWidth() - MARGIN_HOR, FOOTER_SUBTITLE_VER,
-          number, TextAlignment.RIGHT, VerticalAlignment.BOTTOM, 0);
+  private PdfProcessingHandle footerText(final String text, final float fontSize, final float y) {
+    // One template per document, created on the first page
+    final Map<PdfDocument, PdfFormXObject> templates = new ConcurrentHashMap<>();
+
+    return pageProcessor((document, page, number) -> {
+      if (footerStamping) {
+        final PdfFormXObject template = templates.computeIfAbsent(document.getPdfDocument(),
+            pdfDoc -> createFooterTemplate(pdfDoc, text, fontSize));
+        stampCanvas(page).addXObjectAt(template, MARGIN_HOR, y);
+      } else {
+        try (final Canvas canvas = new Canvas(stampCanvas(page), page.getPageSize())) {
+          canvas.showTextAligned(createFooterParagraph(page.getDocument(), text, fontSize), MARGIN_HOR, y, TextAlignment.LEFT,
+              VerticalAlignment.BOTTOM);
+        }
+      }
     });
   }
 
+  private PdfFormXObject createFooterTemplate(final PdfDocument pdfDoc, final String text, final float fontSize) {
+    // Leave room around the text, so the layout is never clipped by the bounding box
+    final float width = documentFont(pdfDoc).getWidth(text, fontSize) + fontSize;
+    final PdfFormXObject template = new PdfFormXObject(new Rectangle(0, -fontSize, width, fontSize * 3));
+    try (final Canvas canvas = new Canvas(template, pdfDoc)) {
+      canvas.showTextAligned(createFooterParagraph(pdfDoc, text, fontSize), 0, 0, TextAlignment.LEFT, VerticalAlignment.BOTTOM);
+    }
+    return template;
+  }
+
+  private Paragraph createFooterParagraph(final PdfDocument pdfDoc, final String text, final float fontSize) {
+    return new Paragraph(text)
+        .setFont(documentFont(pdfDoc))
+        .setFontColor(FOOTER_COLOR)
+        .setFontSize(fontSize);
+  }
+
+  private PdfCanvas stampCanvas(final PdfPage page) {
+    // Wrap the existing content of a page once, so a transformation left behind by it does not affect the stamps
+    final boolean wrapOldContent = page.getContentStreamCount() > 0 && wrappedPages.add(page);
+    return new PdfCanvas(page, wrapOldContent);
+  }
+
+  /**
+   * A font instance can only be used within a single document, so each (page range) document gets its own.
+   */
+  private PdfFont documentFont(final PdfDocument pdfDoc) {
+    return fonts.computeIfAbsent(pdfDoc, d -> FontCache.createFont(font));
+  }
+
   public PdfProcessingHandle source(final String source) {
     checkFinalized();
-    this.source = source;
+    this.sourceName = source;
+    this.sourceOpener = () -> new PdfReader(source);
+    return this;
+  }
+
+  /**
+   * Process the document held in the given bytes, without copying them.
+   */
+  public PdfProcessingHandle source(final byte[] source) {
+    checkFinalized();
+    this.sourceName = "<in-memory document>";
+    this.sourceOpener = () -> new PdfReader(new RandomAccessSourceFactory().createSource(source), new ReaderProperties());
+    return this;
+  }
+
+  /**
+   * Process the document held in the remaining bytes of the given buffer, without copying them.
+   */
+  public PdfProcessingHandle source(final ByteBuffer source) {
+    checkFinalized();
+    this.sourceName = "<in-memory document>";
+    this.sourceOpener = () -> new PdfReader(new ByteBufferSource(source.slice()), new ReaderProperties());
+    return this;
+  }
+
+  /**
+   * Process the document read from the given stream. The stream is read completely before processing starts.
+   */
+  public PdfProcessingHandle source(final InputStream source) {
+    checkFinalized();
+    this.sourceName = "<stream>";
+    this.sourceOpener = new PdfSource() {
+      private byte[] bytes;
+
+      @Override
+      public synchronized PdfReader open() throws IOException {
+        // Buffered on first use, so the source can be opened again for each page range
+        if (bytes == null) {
+          bytes = source.readAllBytes();
+        }
+        return new PdfReader(new RandomAccessSourceFactory().createSource(bytes), new ReaderProperties());
+      }
+    };
     return this;
   }
 
   public PdfProcessingHandle target(final String target) {
     checkFinalized();
-    this.target = target;
+    this.targetOpener = properties -> new PdfWriter(target, properties);
     return this;
   }
 
+  /**
+   * Write the processed document to the given stream. The stream is flushed but left open.
+   */
+  public PdfProcessingHandle target(final OutputStream target) {
+    checkFinalized();
+    this.targetOpener = properties -> {
+      final PdfWriter writer = new PdfWriter(target, properties);
+      writer.setCloseStream(false);
+      return writer;
+    };
+    return this;
+  }
+
+  /**
+   * Write the processed document to the given channel. The channel is left open.
+   */
+  public PdfProcessingHandle target(final WritableByteChannel target) {
+    return target(Channels.newOutputStream(target));
+  }
+
+  /**
+   * Font to use for the texts added to the document, see {@link FontCache} for the supported font names.
+   */
   public PdfProcessingHandle font(final String font) {
     checkFinalized();
     this.font = font;
@@ -0,0 +1,39 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+/**
+ * Sizes of a document before and after processing.
+ *
+ * @param sourceSize size in bytes of the source document
+ * @param targetSize size in bytes of the processed document
+ * @param downsampledImages number of images that were downsampled
+ */
+public record PdfSizeReport(long sourceSize, long targetSize, int downsampledImages) {
+
+  /**
+   * @return the size of the processed document relative to the source document, e.g. 0.4 when it became 60% smaller
+   */
+  public double ratio() {
+    return sourceSize == 0 ? 1 : (double) targetSize / sourceSize;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d bytes -> %d bytes (%.0f%%), %d images downsampled", sourceSize, targetSize, ratio() * 100, downsampledImages);
+  }
+}
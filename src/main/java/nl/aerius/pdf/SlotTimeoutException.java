@@ -0,0 +1,33 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+/**
+ * Exception thrown when an export gave up waiting for a free slot or page on a Chrome host. Unlike other timeouts, this says nothing about
+ * the health of the host itself.
+ */
+public class SlotTimeoutException extends TimeoutException {
+  private static final long serialVersionUID = 1L;
+
+  public SlotTimeoutException(final String message) {
+    super(message);
+  }
+
+  public SlotTimeoutException(final String message, final Throwable cause) {
+    super(message, cause);
+  }
+}
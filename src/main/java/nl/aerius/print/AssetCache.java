@@ -0,0 +1,452 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of static subresources, such as script bundles, style sheets, fonts and map tiles, shared by all pages it is used on.
+ *
+ * Requests for URLs matching one of the configured globs are intercepted through the DevTools Fetch domain and answered from the cache.
+ * On a miss the asset is downloaded by the cache itself, and kept for as long as its Cache-Control header allows. Small assets are kept
+ * in memory, larger ones in the disk directory (if configured), from which they are served memory-mapped.
+ *
+ * The cache downloads without the cookies of the page, so only a 200 response that may be stored by a shared cache is served from it.
+ * Other responses, such as an error, a response that is private or varies on request headers, are left to the page to load itself.
+ *
+ * <pre>
+ * AssetCache assets = AssetCache.create()
+ *     .pattern("https://cdn.example.com/*")
+ *     .pattern("*.woff2")
+ *     .diskDirectory(Path.of("/var/cache/assets"));
+ *
+ * ExportJob.create(url).assetCache(assets).print();
+ * </pre>
+ */
+public class AssetCache implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(AssetCache.class);
+
+  private static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_DISK_BYTES = 1024L * 1024 * 1024;
+  private static final long DEFAULT_MAPPED_THRESHOLD = 256 * 1024;
+  private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final String FILE_SUFFIX = ".asset";
+  // Request headers passed on to the upstream server, others are set by the client or depend on the page
+  private static final Set<String> FORWARDED_REQUEST_HEADERS = Set.of("accept", "accept-language", "referer", "user-agent", "origin");
+  // The cache does not ask for a compressed body, so a response varying on this header applies to any request
+  private static final String ACCEPT_ENCODING = "accept-encoding";
+  // Response headers that no longer apply to the body as it is served from the cache
+  private static final Set<String> DROPPED_RESPONSE_HEADERS = Set.of("connection", "content-encoding", "content-length", "keep-alive",
+      "transfer-encoding", "set-cookie");
+
+  /**
+   * A response to fulfill a paused request with.
+   *
+   * @param status HTTP status code
+   * @param headers response headers, as name and value entries
+   * @param body base64 encoded body
+   */
+  record Response(int status, List<Map<String, String>> headers, String body) {}
+
+  private record Asset(int status, List<Map<String, String>> headers, long expires, long size, byte[] body, Path file) {}
+
+  private final Map<String, Pattern> patterns = new LinkedHashMap<>();
+  private long memoryBytesCap = DEFAULT_MEMORY_BYTES;
+  private long diskBytesCap = DEFAULT_DISK_BYTES;
+  private long mappedThreshold = DEFAULT_MAPPED_THRESHOLD;
+  private Duration defaultTtl = Duration.ZERO;
+  private Duration requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+  private Path diskDirectory;
+
+  // Both maps are in access order, so the least recently used assets come first, guarded by this
+  private final LinkedHashMap<String, Asset> memory = new LinkedHashMap<>(16, 0.75F, true);
+  private final LinkedHashMap<String, Asset> disk = new LinkedHashMap<>(16, 0.75F, true);
+  private long memoryBytes;
+  private long diskBytes;
+  // Downloads in progress by URL and forwarded request headers, so concurrent requests for the same asset share one download
+  private final Map<String, CompletableFuture<Asset>> downloads = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private HttpClient httpClient;
+
+  public static AssetCache create() {
+    return new AssetCache();
+  }
+
+  /**
+   * Cache requests for URLs matching the given glob, where {@code *} matches any sequence of characters and {@code ?} a single character.
+   */
+  public AssetCache pattern(final String urlGlob) {
+    checkStarted();
+    patterns.put(urlGlob, RequestPolicy.toPattern(urlGlob));
+    return this;
+  }
+
+  /**
+   * @param memoryBytes maximum number of bytes of assets kept in memory
+   */
+  public AssetCache memoryBytes(final long memoryBytes) {
+    checkStarted();
+    this.memoryBytesCap = memoryBytes;
+    return this;
+  }
+
+  /**
+   * @param diskDirectory directory to keep large assets in, created if it does not exist. Without one, all assets are kept in memory
+   */
+  public AssetCache diskDirectory(final Path diskDirectory) {
+    checkStarted();
+    this.diskDirectory = diskDirectory;
+    return this;
+  }
+
+  /**
+   * @param diskBytes maximum number of bytes of assets kept on disk
+   */
+  public AssetCache diskBytes(final long diskBytes) {
+    checkStarted();
+    this.diskBytesCap = diskBytes;
+    return this;
+  }
+
+  /**
+   * @param mappedThreshold size in bytes from which assets are kept on disk, and served memory-mapped
+   */
+  public AssetCache mappedThreshold(final long mappedThreshold) {
+    checkStarted();
+    this.mappedThreshold = mappedThreshold;
+    return this;
+  }
+
+  /**
+   * @param defaultTtl time to keep assets for that do not state how long they may be cached, zero (the default) to not keep them
+   */
+  public AssetCache defaultTtl(final Duration defaultTtl) {
+    checkStarted();
+    this.defaultTtl = defaultTtl;
+    return this;
+  }
+
+  /**
+   * @param requestTimeout maximum time to download an asset on a miss
+   */
+  public AssetCache requestTimeout(final Duration requestTimeout) {
+    checkStarted();
+    this.requestTimeout = requestTimeout;
+    return this;
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return whether requests for the given URL are answered from this cache
+   */
+  boolean matches(final String url) {
+    return patterns.values().stream().anyMatch(pattern -> pattern.matcher(url).matches());
+  }
+
+  /**
+   * @return the Fetch.enable patterns for the requests this cache answers
+   */
+  List<Map<String, Object>> fetchPatterns() {
+    return patterns.keySet().stream().map(glob -> Map.<String, Object>of("urlPattern", glob, "requestStage", "Request")).toList();
+  }
+
+  /**
+   * Returns the cached response for the given URL, downloading it on a miss. The response is built on another thread, as reading and
+   * encoding a large asset would otherwise hold up the thread asking for it, which receives the messages of the page.
+   *
+   * @param url URL of the asset
+   * @param requestHeaders headers of the paused request
+   * @return the response, or null if the asset cannot be served from the cache and the page should load it itself
+   */
+  CompletableFuture<Response> get(final String url, final Map<String, Object> requestHeaders) {
+    start();
+    final Asset cached = lookup(url);
+    if (cached != null) {
+      hits.increment();
+      return CompletableFuture.supplyAsync(() -> toResponse(cached));
+    }
+    misses.increment();
+    final Map<String, String> forwardedHeaders = forwardedHeaders(requestHeaders);
+    final String key = url + ' ' + forwardedHeaders;
+    final CompletableFuture<Asset> download = downloads.computeIfAbsent(key, k -> download(url, forwardedHeaders));
+    download.whenComplete((asset, e) -> downloads.remove(key, download));
+    return download.thenApplyAsync(asset -> asset == null ? null : toResponse(asset));
+  }
+
+  /**
+   * Removes all assets, including those on disk.
+   */
+  @Override
+  public synchronized void close() {
+    memory.clear();
+    memoryBytes = 0;
+    disk.values().forEach(asset -> deleteQuietly(asset.file()));
+    disk.clear();
+    diskBytes = 0;
+  }
+
+  private synchronized void start() {
+    if (httpClient != null) {
+      return;
+    }
+    if (diskDirectory != null) {
+      try {
+        Files.createDirectories(diskDirectory);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    httpClient = HttpClient.newBuilder()
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .connectTimeout(requestTimeout)
+        .build();
+  }
+
+  private synchronized Asset lookup(final String url) {
+    final long now = System.currentTimeMillis();
+    final Asset inMemory = memory.get(url);
+    if (inMemory != null) {
+      if (inMemory.expires() > now) {
+        return inMemory;
+      }
+      memory.remove(url);
+      memoryBytes -= inMemory.size();
+    }
+    final Asset onDisk = disk.get(url);
+    if (onDisk != null) {
+      if (onDisk.expires() > now) {
+        return onDisk;
+      }
+      disk.remove(url);
+      diskBytes -= onDisk.size();
+      deleteQuietly(onDisk.file());
+    }
+    return null;
+  }
+
+  private CompletableFuture<Asset> download(final String url, final Map<String, String> forwardedHeaders) {
+    final HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).timeout(requestTimeout).GET();
+    forwardedHeaders.forEach(request::header);
+    return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+      final Duration ttl = response.statusCode() == 200 && !varies(response.headers()) ? freshness(response.headers()) : Duration.ZERO;
+      if (ttl.isZero()) {
+        LOG.debug("Not caching asset {}, status {}, leaving it to the page.", url, response.statusCode());
+        return null;
+      }
+      final List<Map<String, String>> headers = new ArrayList<>();
+      response.headers().map().forEach((name, values) -> {
+        if (!DROPPED_RESPONSE_HEADERS.contains(name.toLowerCase(Locale.ROOT)) && !name.startsWith(":")) {
+          values.forEach(value -> headers.add(Map.of("name", name, "value", value)));
+        }
+      });
+      final Asset asset = new Asset(response.statusCode(), headers, System.currentTimeMillis() + ttl.toMillis(), response.body().length,
+          response.body(), null);
+      return store(url, asset);
+    });
+  }
+
+  /**
+   * @return the request headers passed on to the upstream server, by lower case name in a stable order
+   */
+  private static Map<String, String> forwardedHeaders(final Map<String, Object> requestHeaders) {
+    final Map<String, String> forwarded = new TreeMap<>();
+    requestHeaders.forEach((name, value) -> {
+      final String lowerCase = name.toLowerCase(Locale.ROOT);
+      if (FORWARDED_REQUEST_HEADERS.contains(lowerCase)) {
+        forwarded.put(lowerCase, String.valueOf(value));
+      }
+    });
+    return forwarded;
+  }
+
+  /**
+   * @return whether the response depends on request headers, and so cannot be served for other requests of the same URL
+   */
+  private static boolean varies(final HttpHeaders headers) {
+    return headers.allValues("Vary").stream()
+        .flatMap(value -> Arrays.stream(value.split(",")))
+        .map(name -> name.trim().toLowerCase(Locale.ROOT))
+        .anyMatch(name -> !name.isEmpty() && !name.equals(ACCEPT_ENCODING));
+  }
+
+  /**
+   * @return how long the response may be cached according to its Cache-Control header
+   */
+  private Duration freshness(final HttpHeaders headers) {
+    final String cacheControl = headers.firstValue("Cache-Control").orElse(null);
+    if (cacheControl == null) {
+      return defaultTtl;
+    }
+    long maxAge = -1;
+    for (final String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+      final String trimmed = directive.trim();
+      if (trimmed.equals("no-store") || trimmed.equals("no-cache") || trimmed.equals("private")) {
+        return Duration.ZERO;
+      } else if (trimmed.startsWith("s-maxage=")) {
+        maxAge = parseSeconds(trimmed.substring("s-maxage=".length()));
+      } else if (trimmed.startsWith("max-age=") && maxAge < 0) {
+        maxAge = parseSeconds(trimmed.substring("max-age=".length()));
+      }
+    }
+    if (maxAge < 0) {
+      return defaultTtl;
+    }
+    final long age = headers.firstValue("Age").map(AssetCache::parseSeconds).orElse(0L);
+    return Duration.ofSeconds(Math.max(0, maxAge - age));
+  }
+
+  private Asset store(final String url, final Asset asset) {
+    if (diskDirectory == null || asset.size() < mappedThreshold) {
+      if (asset.size() > memoryBytesCap) {
+        return asset;
+      }
+      synchronized (this) {
+        final Asset previous = memory.put(url, asset);
+        memoryBytes += asset.size() - (previous == null ? 0 : previous.size());
+        evict(memory.entrySet().iterator(), () -> memoryBytes > memoryBytesCap, true);
+      }
+      return asset;
+    }
+
+    if (asset.size() > diskBytesCap) {
+      return asset;
+    }
+    final Path file = diskDirectory.resolve(hash(url) + FILE_SUFFIX);
+    try {
+      final Path temporary = Files.createTempFile(diskDirectory, "asset", ".tmp");
+      Files.write(temporary, asset.body());
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException e) {
+      LOG.warn("Could not write asset {} to disk.", url, e);
+      return asset;
+    }
+    final Asset onDisk = new Asset(asset.status(), asset.headers(), asset.expires(), asset.size(), null, file);
+    synchronized (this) {
+      final Asset previous = disk.put(url, onDisk);
+      diskBytes += onDisk.size() - (previous == null ? 0 : previous.size());
+      evict(disk.entrySet().iterator(), () -> diskBytes > diskBytesCap, false);
+    }
+    return asset;
+  }
+
+  private void evict(final Iterator<Map.Entry<String, Asset>> iterator, final BooleanSupplier full,
+      final boolean inMemory) {
+    while (full.getAsBoolean() && iterator.hasNext()) {
+      final Asset eldest = iterator.next().getValue();
+      iterator.remove();
+      if (inMemory) {
+        memoryBytes -= eldest.size();
+      } else {
+        diskBytes -= eldest.size();
+        deleteQuietly(eldest.file());
+      }
+      evictions.increment();
+    }
+  }
+
+  private Response toResponse(final Asset asset) {
+    if (asset.body() != null) {
+      return new Response(asset.status(), asset.headers(), Base64.getEncoder().encodeToString(asset.body()));
+    }
+    try (final FileChannel channel = FileChannel.open(asset.file(), StandardOpenOption.READ)) {
+      // Encode from the mapped file, so the asset is not read into a buffer of its own first. The encoded body is on the heap regardless
+      final byte[] encoded = Base64.getEncoder().encode(channel.map(FileChannel.MapMode.READ_ONLY, 0, asset.size())).array();
+      return new Response(asset.status(), asset.headers(), new String(encoded, StandardCharsets.ISO_8859_1));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static long parseSeconds(final String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (final NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static String hash(final String url) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8)));
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void deleteQuietly(final Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (final IOException e) {
+      LOG.warn("Could not remove cached asset {}.", file, e);
+    }
+  }
+
+  private synchronized void checkStarted() {
+    if (httpClient != null) {
+      throw new IllegalStateException("Cannot mutate a cache that is already in use.");
+    }
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.intuit.karate.JsonUtils;
+
+import nl.aerius.pdf.ChromeUnavailableException;
+import nl.aerius.pdf.TimeoutException;
+
+/**
+ * DevTools connection to the browser itself rather than to one of its pages, shared by all pages on a Chrome host. Used for commands in
+ * the Target domain, such as creating and disposing browser contexts, and to talk to pages through sessions attached in flat mode:
+ * messages for a page carry its session ID and are routed to the page by it, so all pages on a host share a single socket.
+ *
+ * The connection stays open until Chrome closes it or {@link #close(String, int)} is called for its host, which the {@link ChromeCluster}
+ * and {@link ChromeSupervisor} do when they are closed.
+ */
+final class BrowserConnection implements WebSocket.Listener {
+  private static final Logger LOG = LoggerFactory.getLogger(BrowserConnection.class);
+
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+  private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(30);
+  // Connections by address, published before they are connected so exports on other hosts are not held up meanwhile
+  private static final Map<String, CompletableFuture<BrowserConnection>> CONNECTIONS = new ConcurrentHashMap<>();
+  private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+      .connectTimeout(CONNECT_TIMEOUT)
+      .build();
+
+  private final String address;
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final Map<Integer, CompletableFuture<Map<String, Object>>> pendingReplies = new ConcurrentHashMap<>();
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+  private final StringBuilder partialMessage = new StringBuilder();
+  private final Object sendLock = new Object();
+
+  private WebSocket webSocket;
+  // A websocket accepts a single outstanding send, so every send is chained to the one before it, guarded by sendLock
+  private CompletableFuture<?> lastSend = CompletableFuture.completedFuture(null);
+  private volatile boolean closed;
+
+  private BrowserConnection(final String address) {
+    this.address = address;
+  }
+
+  /**
+   * @return the open connection to the browser on the given host, connecting if there is none
+   * @throws ChromeUnavailableException when the browser could not be reached
+   */
+  static BrowserConnection of(final String host, final int port) {
+    final String address = host + ":" + port;
+    final CompletableFuture<BrowserConnection> created = new CompletableFuture<>();
+    final CompletableFuture<BrowserConnection> connection = CONNECTIONS.compute(address,
+        (key, existing) -> existing == null || isClosed(existing) ? created : existing);
+    if (connection == created) {
+      try {
+        created.complete(connect(address));
+      } catch (final RuntimeException e) {
+        CONNECTIONS.remove(address, created);
+        created.completeExceptionally(e);
+        throw e;
+      }
+    }
+    return await(address, connection);
+  }
+
+  /**
+   * Closes the connection to the browser on the given host, if there is one. Pages attached through it are detached.
+   */
+  static void close(final String host, final int port) {
+    final CompletableFuture<BrowserConnection> connection = CONNECTIONS.remove(host + ":" + port);
+    if (connection != null) {
+      connection.thenAccept(BrowserConnection::close);
+    }
+  }
+
+  /**
+   * Creates a browser context, which shares no cookies, storage or cache with other browser contexts. The context is disposed by Chrome
+   * when this connection ends, so contexts are not left behind when the process goes away.
+   *
+   * @return the ID of the browser context
+   */
+  String createBrowserContext() {
+    return (String) send("Target.createBrowserContext", Map.of("disposeOnDetach", true)).get("browserContextId");
+  }
+
+  /**
+   * Opens a blank page in the given browser context.
+   *
+   * @param browserContextId the browser context, or null for the default context
+   * @return the target ID of the page
+   */
+  String createTarget(final String browserContextId) {
+    final Map<String, Object> params = new HashMap<>();
+    params.put("url", "about:blank");
+    if (browserContextId != null) {
+      params.put("browserContextId", browserContextId);
+    }
+    return (String) send("Target.createTarget", params).get("targetId");
+  }
+
+  void closeTarget(final String targetId) {
+    send("Target.closeTarget", Map.of("targetId", targetId));
+  }
+
+  /**
+   * Attaches to a page in flat mode.
+   *
+   * @param listener receives the replies and events of the page, on the thread reading from the connection, so it must not block
+   * @param onDetached called when the page is detached by Chrome, for example because it crashed or the connection ended
+   */
+  Session attach(final String targetId, final Consumer<Map<String, Object>> listener, final Runnable onDetached) {
+    final String sessionId = (String) send("Target.attachToTarget", Map.of("targetId", targetId, "flatten", true)).get("sessionId");
+    final Session session = new Session(sessionId, listener, onDetached);
+    sessions.put(sessionId, session);
+    return session;
+  }
+
+  /**
+   * Disposes the given browser context, closing its pages and freeing everything it holds at once.
+   */
+  void disposeBrowserContext(final String browserContextId) {
+    send("Target.disposeBrowserContext", Map.of("browserContextId", browserContextId));
+  }
+
+  /**
+   * Sends a command and waits for its result.
+   *
+   * @throws ChromeUnavailableException when the connection failed
+   * @throws TimeoutException when no reply came in time
+   * @throws IllegalStateException when Chrome rejected the command
+   */
+  @SuppressWarnings("unchecked")
+  Map<String, Object> send(final String method, final Map<String, Object> params) {
+    final int id = nextId.incrementAndGet();
+    final CompletableFuture<Map<String, Object>> reply = new CompletableFuture<>();
+    pendingReplies.put(id, reply);
+    try {
+      write(Map.of("id", id, "method", method, "params", params)).whenComplete((socket, e) -> {
+        if (e != null) {
+          reply.completeExceptionally(e);
+        }
+      });
+      final Map<String, Object> message = reply.get(COMMAND_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      if (message.get("error") != null) {
+        throw new IllegalStateException(method + " rejected by browser on " + address + ": " + message.get("error"));
+      }
+      return message.get("result") instanceof final Map<?, ?> result ? (Map<String, Object>) result : Map.of();
+    } catch (final java.util.concurrent.TimeoutException e) {
+      throw new TimeoutException("No reply from browser on " + address + " within " + COMMAND_TIMEOUT + " to: " + method, e);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TimeoutException("Interrupted while waiting for browser on " + address + " to reply to: " + method, e);
+    } catch (final ExecutionException | CompletionException e) {
+      throw new ChromeUnavailableException("Connection to browser on " + address + " failed while sending: " + method, e.getCause());
+    } finally {
+      pendingReplies.remove(id);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public CompletionStage<?> onText(final WebSocket socket, final CharSequence data, final boolean last) {
+    partialMessage.append(data);
+    if (last) {
+      final String text = partialMessage.toString();
+      partialMessage.setLength(0);
+      try {
+        final Map<String, Object> message = (Map<String, Object>) JsonUtils.fromJson(text);
+        final Session session = message.get("sessionId") instanceof final String sessionId ? sessions.get(sessionId) : null;
+        if (session != null) {
+          session.listener.accept(message);
+        } else if (message.get("id") instanceof final Number id) {
+          final CompletableFuture<Map<String, Object>> reply = pendingReplies.get(id.intValue());
+          if (reply != null) {
+            reply.complete(message);
+          }
+        } else if ("Target.detachedFromTarget".equals(message.get("method")) && message.get("params") instanceof final Map<?, ?> params) {
+          final Session detached = sessions.get(params.get("sessionId"));
+          if (detached != null) {
+            detached.onDetached();
+          }
+        }
+      } catch (final RuntimeException e) {
+        LOG.warn("Could not handle message from browser on {}.", address, e);
+      }
+    }
+    socket.request(1);
+    return null;
+  }
+
+  @Override
+  public CompletionStage<?> onClose(final WebSocket socket, final int statusCode, final String reason) {
+    onClosed(new ChromeUnavailableException("Connection to browser on " + address + " closed: " + statusCode + " " + reason));
+    return null;
+  }
+
+  @Override
+  public void onError(final WebSocket socket, final Throwable error) {
+    onClosed(new ChromeUnavailableException("Connection to browser on " + address + " failed.", error));
+  }
+
+  private void onClosed(final RuntimeException cause) {
+    closed = true;
+    CONNECTIONS.computeIfPresent(address, (key, connection) -> connection.getNow(null) == this ? null : connection);
+    pendingReplies.values().forEach(reply -> reply.completeExceptionally(cause));
+    sessions.values().forEach(Session::onDetached);
+  }
+
+  private void close() {
+    if (closed) {
+      return;
+    }
+    LOG.debug("Closing connection to browser on {}", address);
+    onClosed(new ChromeUnavailableException("Connection to browser on " + address + " was closed."));
+    synchronized (sendLock) {
+      lastSend = lastSend
+          .handle((result, e) -> null)
+          .thenCompose(ignored -> webSocket.sendClose(WebSocket.NORMAL_CLOSURE, ""))
+          .whenComplete((socket, e) -> webSocket.abort());
+    }
+  }
+
+  /**
+   * Queues the message behind the messages sent before it, without waiting for it to be sent.
+   *
+   * @return completes once the message is sent
+   */
+  private CompletableFuture<WebSocket> write(final Map<String, Object> message) {
+    if (closed) {
+      throw new ChromeUnavailableException("Connection to browser on " + address + " is closed.");
+    }
+    final String text = JsonUtils.toJson(message);
+    synchronized (sendLock) {
+      // A failed send has closed the connection, which is reported through onError, so the next send still goes ahead
+      final CompletableFuture<WebSocket> send = lastSend
+          .handle((result, e) -> null)
+          .thenCompose(ignored -> webSocket.sendText(text, true));
+      lastSend = send;
+      return send;
+    }
+  }
+
+  private static boolean isClosed(final CompletableFuture<BrowserConnection> connection) {
+    return connection.isDone() && (connection.isCompletedExceptionally() || connection.join().closed);
+  }
+
+  private static BrowserConnection await(final String address, final CompletableFuture<BrowserConnection> connection) {
+    try {
+      // Connecting is bounded by the connect timeouts
+      return connection.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ChromeUnavailableException("Interrupted while connecting to browser on " + address, e);
+    } catch (final ExecutionException e) {
+      throw e.getCause() instanceof final ChromeUnavailableException unavailable
+          ? unavailable
+          : new ChromeUnavailableException("Could not connect to browser on " + address, e.getCause());
+    }
+  }
+
+  private static BrowserConnection connect(final String address) {
+    final BrowserConnection connection = new BrowserConnection(address);
+    try {
+      final HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + address + "/json/version"))
+          .timeout(CONNECT_TIMEOUT)
+          .GET()
+          .build();
+      final Map<?, ?> version = (Map<?, ?>) JsonUtils.fromJson(HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString()).body());
+      final String webSocketUrl = (String) version.get("webSocketDebuggerUrl");
+      if (webSocketUrl == null) {
+        throw new ChromeUnavailableException("No browser endpoint advertised by Chrome on " + address);
+      }
+      connection.webSocket = HTTP_CLIENT.newWebSocketBuilder()
+          .connectTimeout(CONNECT_TIMEOUT)
+          .buildAsync(URI.create(webSocketUrl), connection)
+          .get(CONNECT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      LOG.debug("Connected to browser on {}", address);
+      return connection;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ChromeUnavailableException("Interrupted while connecting to browser on " + address, e);
+    } catch (final ChromeUnavailableException e) {
+      throw e;
+    } catch (final IOException | ExecutionException | java.util.concurrent.TimeoutException | RuntimeException e) {
+      throw new ChromeUnavailableException("Could not connect to browser on " + address, e);
+    }
+  }
+
+  /**
+   * A page attached through this connection.
+   */
+  final class Session {
+    private final String id;
+    private final Consumer<Map<String, Object>> listener;
+    private final Runnable detachListener;
+
+    private volatile boolean detached;
+
+    private Session(final String id, final Consumer<Map<String, Object>> listener, final Runnable detachListener) {
+      this.id = id;
+      this.listener = listener;
+      this.detachListener = detachListener;
+    }
+
+    String id() {
+      return id;
+    }
+
+    /**
+     * Sends a message to the page without waiting for the reply, which goes to the listener of the session. Messages sent after the
+     * session was detached are dropped.
+     */
+    void send(final Map<String, Object> message) {
+      if (detached) {
+        LOG.debug("Dropping message for detached session {}: {}", id, message.get("method"));
+        return;
+      }
+      final Map<String, Object> routed = new LinkedHashMap<>(message);
+      routed.putIfAbsent("sessionId", id);
+      write(routed).whenComplete((socket, e) -> {
+        if (e != null) {
+          LOG.debug("Could not send message for session {}: {}", id, message.get("method"), e);
+        }
+      });
+    }
+
+    boolean isDetached() {
+      return detached;
+    }
+
+    /**
+     * Stops routing messages to the page, without notifying the detach listener.
+     */
+    void close() {
+      detached = true;
+      sessions.remove(id, this);
+    }
+
+    private void onDetached() {
+      if (!detached) {
+        close();
+        detachListener.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.aerius.pdf.ChromeUnavailableException;
+
+/**
+ * A set of Chrome instances that exports are spread over.
+ *
+ * Every host is probed in the background through its /json/version endpoint. A new export is sent to the healthy host with the fewest
+ * exports in flight. A host that fails a number of probes or page creations in a row is quarantined for a while, after which it is
+ * given another chance.
+ *
+ * <pre>
+ * ChromeCluster cluster = ChromeCluster.create()
+ *     .endpoint("chrome-1")
+ *     .endpoint("chrome-2", 9222)
+ *     .start();
+ *
+ * ExportJob.create(url).chromeCluster(cluster).print();
+ * </pre>
+ */
+public class ChromeCluster implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(ChromeCluster.class);
+
+  private static final int DEFAULT_PORT = 9222;
+  private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+  private static final Duration DEFAULT_PROBE_INTERVAL = Duration.ofSeconds(10);
+  private static final Duration DEFAULT_PROBE_TIMEOUT = Duration.ofSeconds(2);
+  private static final Duration DEFAULT_QUARANTINE_TIME = Duration.ofSeconds(30);
+
+  /**
+   * Snapshot of the state of a single host in the cluster.
+   */
+  public record HostStatus(String host, int port, boolean healthy, boolean quarantined, boolean draining, int inFlight, long served) {}
+
+  /**
+   * A single host in the cluster.
+   */
+  static final class Node {
+    private final String host;
+    private final int port;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile boolean healthy = true;
+    private volatile boolean draining;
+    private volatile long quarantinedUntil = System.nanoTime();
+    private volatile ChromeTabPool tabPool;
+
+    private Node(final String host, final int port) {
+      this.host = host;
+      this.port = port;
+    }
+
+    String host() {
+      return host;
+    }
+
+    int port() {
+      return port;
+    }
+
+    String address() {
+      return host + ":" + port;
+    }
+
+    ChromeTabPool tabPool() {
+      return tabPool;
+    }
+
+    boolean available(final long now) {
+      return healthy && !draining && quarantinedUntil - now <= 0;
+    }
+  }
+
+  private final List<Node> nodes = new ArrayList<>();
+
+  private Duration probeInterval = DEFAULT_PROBE_INTERVAL;
+  private Duration probeTimeout = DEFAULT_PROBE_TIMEOUT;
+  private Duration quarantineTime = DEFAULT_QUARANTINE_TIME;
+  private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+  private Consumer<ChromeTabPool> tabPoolConfigurer;
+
+  private HttpClient httpClient;
+  private ScheduledExecutorService prober;
+
+  private volatile boolean started;
+
+  public static ChromeCluster create() {
+    return new ChromeCluster();
+  }
+
+  public ChromeCluster endpoint(final String host) {
+    return endpoint(host, DEFAULT_PORT);
+  }
+
+  public ChromeCluster endpoint(final String host, final int port) {
+    checkStarted();
+    nodes.add(new Node(host, port));
+    return this;
+  }
+
+  public ChromeCluster probeInterval(final Duration probeInterval) {
+    checkStarted();
+    this.probeInterval = probeInterval;
+    return this;
+  }
+
+  public ChromeCluster probeTimeout(final Duration probeTimeout) {
+    checkStarted();
+    this.probeTimeout = probeTimeout;
+    return this;
+  }
+
+  /**
+   * @param failureThreshold number of failures in a row after which a host is quarantined
+   */
+  public ChromeCluster failureThreshold(final int failureThreshold) {
+    checkStarted();
+    this.failureThreshold = failureThreshold;
+    return this;
+  }
+
+  /**
+   * @param quarantineTime time a host is excluded from selection after reaching the failure threshold
+   */
+  public ChromeCluster quarantineTime(final Duration quarantineTime) {
+    checkStarted();
+    this.quarantineTime = quarantineTime;
+    return this;
+  }
+
+  /**
+   * Keep a {@link ChromeTabPool} of reusable pages for each host. The configurer is called for the pool of each host, the host of
+   * the pool is set by the cluster and the port is added to the driver options set by the configurer.
+   */
+  public ChromeCluster tabPools(final Consumer<ChromeTabPool> tabPoolConfigurer) {
+    checkStarted();
+    this.tabPoolConfigurer = tabPoolConfigurer;
+    return this;
+  }
+
+  /**
+   * Starts the cluster, probing every host once before returning.
+   */
+  public synchronized ChromeCluster start() {
+    if (started) {
+      return this;
+    }
+    if (nodes.isEmpty()) {
+      throw new IllegalStateException("Cannot start a cluster without endpoints.");
+    }
+
+    nodes.forEach(node -> node.tabPool = createTabPool(node));
+
+    httpClient = HttpClient.newBuilder()
+        .connectTimeout(probeTimeout)
+        .build();
+    prober = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "chrome-cluster-prober");
+      thread.setDaemon(true);
+      return thread;
+    });
+    probeAll();
+    prober.scheduleWithFixedDelay(this::probeAll, probeInterval.toMillis(), probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+    started = true;
+    return this;
+  }
+
+  /**
+   * @return the current state of each host
+   */
+  public List<HostStatus> status() {
+    final long now = System.nanoTime();
+    return nodes.stream()
+        .map(n -> new HostStatus(n.host(), n.port(), n.healthy, n.quarantinedUntil - now > 0, n.draining, n.inFlight.get(), n.served.get()))
+        .toList();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (prober != null) {
+      prober.shutdownNow();
+    }
+    for (final Node node : nodes) {
+      if (node.tabPool != null) {
+        node.tabPool.close();
+      }
+      BrowserConnection.close(node.host(), node.port());
+    }
+  }
+
+  /**
+   * Selects the least loaded available host and registers an export in flight on it.
+   *
+   * @throws ChromeUnavailableException when no host is available
+   */
+  synchronized Node acquire() {
+    start();
+    final long now = System.nanoTime();
+    Node selected = null;
+    for (final Node node : nodes) {
+      if (node.available(now) && (selected == null || node.inFlight.get() < selected.inFlight.get())) {
+        selected = node;
+      }
+    }
+    if (selected == null) {
+      throw new ChromeUnavailableException("No healthy Chrome host available in cluster.");
+    }
+    selected.inFlight.incrementAndGet();
+    return selected;
+  }
+
+  /**
+   * Registers the end of an export on the given host.
+   *
+   * @param node host the export ran on
+   * @param hostFailure whether the export failed because the host could not be reached
+   */
+  void release(final Node node, final boolean hostFailure) {
+    node.inFlight.decrementAndGet();
+    if (hostFailure) {
+      recordFailure(node);
+    } else {
+      node.served.incrementAndGet();
+      node.consecutiveFailures.set(0);
+    }
+  }
+
+  /**
+   * Stops selecting the given host for new exports, so the exports in flight on it can finish.
+   */
+  void drain(final String address) {
+    node(address).draining = true;
+  }
+
+  /**
+   * @return the number of exports in flight on the given host
+   */
+  int inFlight(final String address) {
+    return node(address).inFlight.get();
+  }
+
+  /**
+   * Restarts the Chrome instance of the given host through the given action, after which the host is selected again. The tab pool of the
+   * host is replaced, as its pages belong to the old instance. The host should have been drained first.
+   *
+   * @throws RuntimeException when the restart failed, in which case the host remains drained
+   */
+  void recycle(final String address, final Runnable restart) {
+    final Node node = node(address);
+    node.draining = true;
+    if (node.tabPool != null) {
+      node.tabPool.abandon();
+    }
+    restart.run();
+
+    node.tabPool = createTabPool(node);
+    node.consecutiveFailures.set(0);
+    node.quarantinedUntil = System.nanoTime();
+    probe(node);
+    node.draining = false;
+  }
+
+  private Node node(final String address) {
+    return nodes.stream()
+        .filter(node -> node.address().equals(address))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("No such host in cluster: " + address));
+  }
+
+  private ChromeTabPool createTabPool(final Node node) {
+    if (tabPoolConfigurer == null) {
+      return null;
+    }
+    final ChromeTabPool pool = ChromeTabPool.create(node.host());
+    tabPoolConfigurer.accept(pool);
+    // Keep the driver options the configurer set, only the port is decided by the cluster
+    final Map<String, Object> options = new HashMap<>(pool.driverOptions());
+    options.put("port", node.port());
+    pool.driverOptions(options);
+    return pool;
+  }
+
+  private void probeAll() {
+    for (final Node node : nodes) {
+      try {
+        probe(node);
+      } catch (final RuntimeException e) {
+        LOG.warn("Unexpected failure while probing Chrome host {}.", node.address(), e);
+      }
+    }
+  }
+
+  private void probe(final Node node) {
+    final HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + node.address() + "/json/version"))
+        .timeout(probeTimeout)
+        .GET()
+        .build();
+    boolean ok;
+    try {
+      ok = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+    } catch (final IOException e) {
+      LOG.debug("Probe of Chrome host {} failed: {}", node.address(), e.getMessage());
+      ok = false;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    if (ok) {
+      if (!node.healthy) {
+        LOG.info("Chrome host {} is healthy again.", node.address());
+      }
+      node.healthy = true;
+      node.consecutiveFailures.set(0);
+    } else {
+      if (node.healthy) {
+        LOG.warn("Chrome host {} did not respond to probe.", node.address());
+      }
+      node.healthy = false;
+      recordFailure(node);
+    }
+  }
+
+  private void recordFailure(final Node node) {
+    if (node.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+      node.consecutiveFailures.set(0);
+      node.quarantinedUntil = System.nanoTime() + quarantineTime.toNanos();
+      LOG.warn("Quarantining Chrome host {} for {}.", node.address(), quarantineTime);
+    }
+  }
+
+  private void checkStarted() {
+    if (started) {
+      throw new IllegalStateException("Cannot mutate an already-started cluster.");
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nl.aerius.pdf.SlotTimeoutException;
+
+/**
+ * Process-wide limit on the number of exports running at the same time against a single Chrome host. Hosts are identified by host and
+ * port; a host given without a port is taken to be on the default DevTools port 9222.
+ *
+ * Every export takes a slot for its host before it opens a page, and gives it back once the page is closed or returned to its pool.
+ * Exports beyond the limit wait for a slot to become available. This applies to synchronous exports as well: a {@link ExportJob#print()}
+ * call beyond the limit blocks the calling thread until a slot frees up. An export that waited longer than the acquire timeout (2
+ * minutes by default) fails with a {@link SlotTimeoutException}. Raise the limit with {@link #defaultLimit(int)} or
+ * {@link #limit(String, int)} if the Chrome host can take more.
+ */
+public final class ChromeHostLimiter {
+  public static final int DEFAULT_LIMIT = 16;
+
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int DEFAULT_PORT = 9222;
+  private static final Duration DEFAULT_ACQUIRE_TIMEOUT = Duration.ofMinutes(2);
+
+  private static final Map<String, Integer> LIMITS = new ConcurrentHashMap<>();
+  private static final Map<String, Semaphore> SLOTS = new ConcurrentHashMap<>();
+
+  private static volatile int defaultLimit = DEFAULT_LIMIT;
+  private static volatile Duration acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+  private ChromeHostLimiter() {}
+
+  /**
+   * Sets the limit for hosts that have no limit of their own. Only applies to hosts that have not been used yet.
+   */
+  public static void defaultLimit(final int limit) {
+    checkLimit(limit);
+    defaultLimit = limit;
+  }
+
+  static int defaultLimit() {
+    return defaultLimit;
+  }
+
+  /**
+   * Sets the limit for the given host. Only applies if the host has not been used yet.
+   */
+  public static void limit(final String host, final int limit) {
+    checkLimit(limit);
+    LIMITS.put(key(host), limit);
+  }
+
+  /**
+   * Sets the maximum time an export waits for a slot on its host.
+   */
+  public static void acquireTimeout(final Duration timeout) {
+    if (timeout.isNegative()) {
+      throw new IllegalArgumentException("Acquire timeout cannot be negative, got: " + timeout);
+    }
+    acquireTimeout = timeout;
+  }
+
+  static Duration acquireTimeout() {
+    return acquireTimeout;
+  }
+
+  /**
+   * @return the number of slots currently available for the given host
+   */
+  public static int available(final String host) {
+    return slots(host).availablePermits();
+  }
+
+  static void acquire(final String host) {
+    final Duration timeout = acquireTimeout;
+    try {
+      if (!slots(host).tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new SlotTimeoutException("Timed out after " + timeout.toMillis() + " ms waiting for an export slot on host: " + key(host));
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SlotTimeoutException("Interrupted while waiting for an export slot on host: " + key(host), e);
+    }
+  }
+
+  static void release(final String host) {
+    slots(host).release();
+  }
+
+  private static Semaphore slots(final String host) {
+    return SLOTS.computeIfAbsent(key(host), k -> new Semaphore(LIMITS.getOrDefault(k, defaultLimit), true));
+  }
+
+  /**
+   * @return the address of the Chrome host the given driver options connect to
+   */
+  static String address(final String host, final Map<String, Object> driverOptions) {
+    final Object port = driverOptions == null ? null : driverOptions.get("port");
+    return key(port == null ? host : (host == null ? DEFAULT_HOST : host) + ":" + port);
+  }
+
+  static String key(final String host) {
+    final String address = host == null ? DEFAULT_HOST : host;
+    return address.indexOf(':') < 0 ? address + ":" + DEFAULT_PORT : address;
+  }
+
+  private static void checkLimit(final int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Limit must be at least 1, got: " + limit);
+    }
+  }
+}
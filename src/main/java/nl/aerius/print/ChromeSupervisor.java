@@ -0,0 +1,531 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.aerius.pdf.ChromeUnavailableException;
+
+/**
+ * Runs a number of local headless Chromium processes and spreads exports over them through a {@link ChromeCluster}.
+ *
+ * Chromium tends to grow over days of rendering. The supervisor recycles each process after it has served a number of exports, or once
+ * its resident memory (of the process and its children, as read from /proc) exceeds a threshold: the process is drained, then restarted
+ * with a fresh profile. Processes are recycled one at a time, so the others keep serving. Processes that exit on their own are restarted
+ * straight away.
+ *
+ * <pre>
+ * ChromeSupervisor supervisor = ChromeSupervisor.create()
+ *     .instances(4)
+ *     .maxJobs(500)
+ *     .maxMemory(1024L * 1024 * 1024)
+ *     .start();
+ *
+ * ExportJob.create(url).chromeCluster(supervisor.cluster()).print();
+ * </pre>
+ */
+public class ChromeSupervisor implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(ChromeSupervisor.class);
+
+  private static final String HOST = "localhost";
+  private static final int DEFAULT_INSTANCES = 2;
+  private static final int DEFAULT_BASE_PORT = 9222;
+  private static final long DEFAULT_MAX_JOBS = 1000;
+  private static final long DEFAULT_MAX_MEMORY = 2L * 1024 * 1024 * 1024;
+  private static final Duration DEFAULT_MONITOR_INTERVAL = Duration.ofSeconds(10);
+  private static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofMinutes(2);
+  private static final Duration DEFAULT_START_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration STOP_TIMEOUT = Duration.ofSeconds(5);
+  private static final Duration READY_POLL_INTERVAL = Duration.ofMillis(100);
+  private static final List<String> EXECUTABLES = List.of("chromium", "chromium-browser", "google-chrome", "google-chrome-stable");
+
+  /**
+   * Snapshot of the state of a single Chromium process.
+   *
+   * @param pid process ID, or -1 if the process is not running
+   * @param jobs exports served since the process was started
+   * @param rssBytes resident memory of the process and its children, or -1 if it cannot be read on this platform
+   */
+  public record InstanceStatus(int port, long pid, boolean alive, boolean draining, long jobs, long rssBytes, int restarts) {}
+
+  private final class Instance {
+    private final int port;
+    private final Path userDataDir;
+
+    private volatile Process process;
+    private volatile long servedAtStart;
+    private volatile long drainingSince = -1;
+    private volatile int restarts;
+
+    private Instance(final int port, final Path userDataDir) {
+      this.port = port;
+      this.userDataDir = userDataDir;
+    }
+
+    private String address() {
+      return HOST + ":" + port;
+    }
+  }
+
+  private final List<Instance> instances = new ArrayList<>();
+
+  private List<String> chromeCommand;
+  private final List<String> arguments = new ArrayList<>();
+  private int instanceCount = DEFAULT_INSTANCES;
+  private int basePort = DEFAULT_BASE_PORT;
+  private long maxJobs = DEFAULT_MAX_JOBS;
+  private long maxMemory = DEFAULT_MAX_MEMORY;
+  private Duration monitorInterval = DEFAULT_MONITOR_INTERVAL;
+  private Duration drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+  private Duration startTimeout = DEFAULT_START_TIMEOUT;
+  private Path workDirectory;
+  private Consumer<ChromeTabPool> tabPoolConfigurer;
+
+  // Directory the profiles are kept in, removed on close if the supervisor created it
+  private Path root;
+  private boolean temporaryRoot;
+  private ChromeCluster cluster;
+  private HttpClient httpClient;
+  private ScheduledExecutorService monitor;
+
+  private volatile boolean started;
+  private volatile boolean closed;
+
+  public static ChromeSupervisor create() {
+    return new ChromeSupervisor();
+  }
+
+  /**
+   * Sets the command to start Chromium with, by default the first of chromium, chromium-browser, google-chrome and google-chrome-stable
+   * found on the path. The supervisor appends the debugging port, profile directory and headless flags.
+   * @param command executable, optionally followed by arguments
+   */
+  public ChromeSupervisor chromeCommand(final String... command) {
+    checkStarted();
+    this.chromeCommand = List.of(command);
+    return this;
+  }
+
+  /**
+   * Adds arguments passed to every Chromium process, after those of the supervisor.
+   */
+  public ChromeSupervisor arguments(final String... arguments) {
+    checkStarted();
+    this.arguments.addAll(List.of(arguments));
+    return this;
+  }
+
+  /**
+   * @param instances number of Chromium processes to run
+   */
+  public ChromeSupervisor instances(final int instances) {
+    checkStarted();
+    this.instanceCount = instances;
+    return this;
+  }
+
+  /**
+   * @param basePort debugging port of the first process, the others use the ports following it
+   */
+  public ChromeSupervisor basePort(final int basePort) {
+    checkStarted();
+    this.basePort = basePort;
+    return this;
+  }
+
+  /**
+   * @param maxJobs number of exports after which a process is recycled, or 0 for no limit
+   */
+  public ChromeSupervisor maxJobs(final long maxJobs) {
+    checkStarted();
+    this.maxJobs = maxJobs;
+    return this;
+  }
+
+  /**
+   * @param maxMemory resident memory in bytes, of a process and its children, above which the process is recycled, or 0 for no limit
+   */
+  public ChromeSupervisor maxMemory(final long maxMemory) {
+    checkStarted();
+    this.maxMemory = maxMemory;
+    return this;
+  }
+
+  public ChromeSupervisor monitorInterval(final Duration monitorInterval) {
+    checkStarted();
+    this.monitorInterval = monitorInterval;
+    return this;
+  }
+
+  /**
+   * @param drainTimeout maximum time to wait for the exports in flight on a process that is to be recycled
+   */
+  public ChromeSupervisor drainTimeout(final Duration drainTimeout) {
+    checkStarted();
+    this.drainTimeout = drainTimeout;
+    return this;
+  }
+
+  /**
+   * @param startTimeout maximum time a process may take to accept DevTools connections after it is started
+   */
+  public ChromeSupervisor startTimeout(final Duration startTimeout) {
+    checkStarted();
+    this.startTimeout = startTimeout;
+    return this;
+  }
+
+  /**
+   * @param workDirectory directory to keep the profiles of the processes in, by default a new temporary directory that is removed on close
+   */
+  public ChromeSupervisor workDirectory(final Path workDirectory) {
+    checkStarted();
+    this.workDirectory = workDirectory;
+    return this;
+  }
+
+  /**
+   * Keep a {@link ChromeTabPool} of reusable pages for each process, see {@link ChromeCluster#tabPools(Consumer)}.
+   */
+  public ChromeSupervisor tabPools(final Consumer<ChromeTabPool> tabPoolConfigurer) {
+    checkStarted();
+    this.tabPoolConfigurer = tabPoolConfigurer;
+    return this;
+  }
+
+  /**
+   * Starts the processes, waiting until each accepts DevTools connections, and starts monitoring them.
+   *
+   * @throws ChromeUnavailableException when a process could not be started
+   */
+  public synchronized ChromeSupervisor start() {
+    if (started) {
+      return this;
+    }
+    if (instanceCount < 1) {
+      throw new IllegalArgumentException("Number of instances must be at least 1, got: " + instanceCount);
+    }
+    if (chromeCommand == null) {
+      chromeCommand = List.of(findExecutable());
+    }
+
+    httpClient = HttpClient.newBuilder()
+        .connectTimeout(READY_POLL_INTERVAL.multipliedBy(10))
+        .build();
+    final ChromeCluster newCluster = ChromeCluster.create()
+        .failureThreshold(Integer.MAX_VALUE);
+    try {
+      temporaryRoot = workDirectory == null;
+      root = temporaryRoot ? Files.createTempDirectory("chrome-supervisor") : workDirectory;
+      for (int i = 0; i < instanceCount; i++) {
+        final Instance instance = new Instance(basePort + i, root.resolve("profile-" + (basePort + i)));
+        instances.add(instance);
+        newCluster.endpoint(HOST, instance.port);
+        launch(instance);
+      }
+    } catch (final IOException e) {
+      stopAll();
+      throw new UncheckedIOException(e);
+    } catch (final RuntimeException e) {
+      stopAll();
+      throw e;
+    }
+    if (tabPoolConfigurer != null) {
+      newCluster.tabPools(tabPoolConfigurer);
+    }
+    cluster = newCluster.start();
+
+    monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "chrome-supervisor-monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    monitor.scheduleWithFixedDelay(this::monitor, monitorInterval.toMillis(), monitorInterval.toMillis(), TimeUnit.MILLISECONDS);
+    started = true;
+    return this;
+  }
+
+  /**
+   * @return the cluster spreading exports over the processes, to pass to {@link ExportJob#chromeCluster(ChromeCluster)}
+   */
+  public ChromeCluster cluster() {
+    start();
+    return cluster;
+  }
+
+  /**
+   * @return the current state of each process
+   */
+  public List<InstanceStatus> status() {
+    return instances.stream()
+        .map(instance -> {
+          final Process process = instance.process;
+          final boolean alive = process != null && process.isAlive();
+          return new InstanceStatus(instance.port, alive ? process.pid() : -1, alive, instance.drainingSince >= 0, jobs(instance),
+              alive ? residentMemory(process.toHandle()) : -1, instance.restarts);
+        })
+        .toList();
+  }
+
+  /**
+   * @return the directory the profiles of the processes are kept in, null before the supervisor is started
+   */
+  Path workDirectory() {
+    return root;
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (monitor != null) {
+      monitor.shutdownNow();
+    }
+    if (cluster != null) {
+      cluster.close();
+    }
+    stopAll();
+  }
+
+  private void monitor() {
+    if (closed) {
+      return;
+    }
+    try {
+      for (final Instance instance : instances) {
+        if (!instance.process.isAlive() && instance.drainingSince < 0) {
+          LOG.warn("Chromium process on port {} exited with code {}, restarting it.", instance.port, instance.process.exitValue());
+          recycle(instance);
+        }
+      }
+
+      final Instance draining = instances.stream().filter(instance -> instance.drainingSince >= 0).findFirst().orElse(null);
+      if (draining == null) {
+        // Drain one process at a time, so the others keep serving
+        instances.stream().filter(this::shouldRecycle).findFirst().ifPresent(instance -> {
+          instance.drainingSince = System.nanoTime();
+          cluster.drain(instance.address());
+        });
+      } else if (cluster.inFlight(draining.address()) == 0) {
+        recycle(draining);
+      } else if (System.nanoTime() - draining.drainingSince > drainTimeout.toNanos()) {
+        LOG.warn("Exports on Chromium process on port {} did not finish within {}, recycling it anyway.", draining.port, drainTimeout);
+        recycle(draining);
+      }
+    } catch (final RuntimeException e) {
+      LOG.warn("Failure while monitoring Chromium processes.", e);
+    }
+  }
+
+  private boolean shouldRecycle(final Instance instance) {
+    final long jobs = jobs(instance);
+    if (maxJobs > 0 && jobs >= maxJobs) {
+      LOG.info("Recycling Chromium process on port {} after {} exports.", instance.port, jobs);
+      return true;
+    }
+    final long rss = maxMemory > 0 ? residentMemory(instance.process.toHandle()) : -1;
+    if (rss > maxMemory) {
+      LOG.info("Recycling Chromium process on port {} using {} MB.", instance.port, rss / (1024 * 1024));
+      return true;
+    }
+    return false;
+  }
+
+  private void recycle(final Instance instance) {
+    instance.drainingSince = System.nanoTime();
+    try {
+      cluster.recycle(instance.address(), () -> {
+        stop(instance);
+        launch(instance);
+      });
+      instance.restarts++;
+      instance.drainingSince = -1;
+    } catch (final RuntimeException e) {
+      // Left draining, so the next round tries again
+      LOG.warn("Could not restart Chromium process on port {}.", instance.port, e);
+    }
+  }
+
+  private long jobs(final Instance instance) {
+    return cluster == null ? 0 : served(instance) - instance.servedAtStart;
+  }
+
+  private long served(final Instance instance) {
+    return cluster.status().stream()
+        .filter(status -> status.port() == instance.port)
+        .mapToLong(ChromeCluster.HostStatus::served)
+        .sum();
+  }
+
+  private void launch(final Instance instance) {
+    deleteDirectory(instance.userDataDir);
+    final List<String> command = new ArrayList<>(chromeCommand);
+    command.add("--headless");
+    command.add("--remote-debugging-port=" + instance.port);
+    command.add("--user-data-dir=" + instance.userDataDir);
+    command.add("--no-first-run");
+    command.add("--disable-dev-shm-usage");
+    command.addAll(arguments);
+    command.add("about:blank");
+
+    try {
+      instance.process = new ProcessBuilder(command)
+          .redirectErrorStream(true)
+          .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+          .start();
+    } catch (final IOException e) {
+      throw new ChromeUnavailableException("Could not start Chromium process: " + String.join(" ", command), e);
+    }
+    instance.servedAtStart = cluster == null ? 0 : served(instance);
+    awaitReady(instance);
+    LOG.info("Started Chromium process {} on port {}.", instance.process.pid(), instance.port);
+  }
+
+  private void awaitReady(final Instance instance) {
+    final HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + instance.address() + "/json/version"))
+        .timeout(READY_POLL_INTERVAL.multipliedBy(10))
+        .GET()
+        .build();
+    final long deadline = System.nanoTime() + startTimeout.toNanos();
+    while (System.nanoTime() - deadline < 0) {
+      if (!instance.process.isAlive()) {
+        throw new ChromeUnavailableException("Chromium process on port " + instance.port + " exited with code "
+            + instance.process.exitValue() + " while starting.");
+      }
+      try {
+        if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+          return;
+        }
+      } catch (final IOException e) {
+        LOG.trace("Chromium process on port {} not ready yet: {}", instance.port, e.getMessage());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      try {
+        Thread.sleep(READY_POLL_INTERVAL.toMillis());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    stop(instance);
+    throw new ChromeUnavailableException("Chromium process on port " + instance.port + " did not start within " + startTimeout + ".");
+  }
+
+  private void stopAll() {
+    instances.forEach(this::stop);
+    instances.forEach(instance -> deleteDirectory(instance.userDataDir));
+    if (temporaryRoot && root != null) {
+      deleteDirectory(root);
+    }
+  }
+
+  private void stop(final Instance instance) {
+    BrowserConnection.close(HOST, instance.port);
+    final Process process = instance.process;
+    if (process == null || !process.isAlive()) {
+      return;
+    }
+    // Renderers and other helpers are children of the browser process
+    process.descendants().forEach(ProcessHandle::destroy);
+    process.destroy();
+    try {
+      if (!process.waitFor(STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly().waitFor(STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return the resident memory of the process and its descendants in bytes, or -1 if it cannot be read on this platform
+   */
+  static long residentMemory(final ProcessHandle process) {
+    final long own = residentMemory(process.pid());
+    if (own < 0) {
+      return -1;
+    }
+    return own + process.descendants().mapToLong(child -> Math.max(0, residentMemory(child.pid()))).sum();
+  }
+
+  private static long residentMemory(final long pid) {
+    final Path status = Path.of("/proc", String.valueOf(pid), "status");
+    try (final Stream<String> lines = Files.lines(status)) {
+      // For example: "VmRSS:	  123456 kB"
+      return lines.filter(line -> line.startsWith("VmRSS:"))
+          .findFirst()
+          .map(line -> Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim()) * 1024)
+          .orElse(-1L);
+    } catch (final IOException | UncheckedIOException e) {
+      return -1;
+    }
+  }
+
+  private static String findExecutable() {
+    final String path = System.getenv("PATH");
+    if (path != null) {
+      for (final String name : EXECUTABLES) {
+        for (final String directory : path.split(File.pathSeparator)) {
+          final Path candidate = Path.of(directory, name);
+          if (Files.isExecutable(candidate)) {
+            return candidate.toString();
+          }
+        }
+      }
+    }
+    throw new IllegalStateException("No Chromium executable found on the path, set one with chromeCommand(): " + EXECUTABLES);
+  }
+
+  private static void deleteDirectory(final Path directory) {
+    if (!Files.exists(directory)) {
+      return;
+    }
+    try (final Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    } catch (final IOException e) {
+      LOG.warn("Could not remove directory: {}", directory, e);
+    }
+  }
+
+  private void checkStarted() {
+    if (started) {
+      throw new IllegalStateException("Cannot mutate an already-started supervisor.");
+    }
+  }
+}
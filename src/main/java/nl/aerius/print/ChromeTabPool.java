@@ -0,0 +1,392 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.aerius.pdf.SlotTimeoutException;
+
+/**
+ * Pool of reusable Chrome pages (tabs) on a single Chromium instance.
+ *
+ * Creating a page involves an HTTP round trip, a new DevTools websocket and enabling the page events, and closing it costs another
+ * round trip. The pool keeps pages open between exports instead: a borrowed page is health checked, and a returned page is reset to
+ * about:blank before it is handed out again. Pages that are reported broken are closed and replaced on demand.
+ *
+ * <pre>
+ * ChromeTabPool pool = ChromeTabPool.create()
+ *     .chromeHost("chrome:9222")
+ *     .minSize(2)
+ *     .maxSize(8);
+ *
+ * ExportJob.create(url).tabPool(pool).print();
+ * </pre>
+ */
+public class ChromeTabPool implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(ChromeTabPool.class);
+
+  private static final int DEFAULT_MAX_SIZE = 4;
+  private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+  private static final Duration DEFAULT_BORROW_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration DEFAULT_EVICTION_INTERVAL = Duration.ofSeconds(30);
+  private static final int DEFAULT_HEALTH_CHECK_TIMEOUT = 2000;
+
+  private record IdleTab(QuittableChrome chrome, long idleSince) {}
+
+  private String host;
+  private Map<String, Object> driverOptions = new HashMap<>();
+  private boolean trackNetworkFailures;
+  private boolean isolatedContexts;
+  private boolean sharedConnection;
+  private int minSize;
+  private int maxSize = DEFAULT_MAX_SIZE;
+  private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private Duration borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+  private Duration evictionInterval = DEFAULT_EVICTION_INTERVAL;
+  private int healthCheckTimeout = DEFAULT_HEALTH_CHECK_TIMEOUT;
+
+  private final LinkedBlockingDeque<IdleTab> idle = new LinkedBlockingDeque<>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  private Semaphore permits;
+  private ScheduledExecutorService evictor;
+
+  private volatile boolean started;
+  private volatile boolean closed;
+
+  public static ChromeTabPool create() {
+    return new ChromeTabPool();
+  }
+
+  public static ChromeTabPool create(final String host) {
+    return new ChromeTabPool()
+        .chromeHost(host);
+  }
+
+  public ChromeTabPool chromeHost(final String host) {
+    checkStarted();
+    this.host = host;
+    return this;
+  }
+
+  /**
+   * Add more driver options, see {@link com.intuit.karate.driver.DriverOptions} for available options.
+   * @param driverOptions additional driver options
+   */
+  public ChromeTabPool driverOptions(final Map<String, Object> driverOptions) {
+    checkStarted();
+    this.driverOptions = driverOptions;
+    return this;
+  }
+
+  public ChromeTabPool trackNetworkFailures(final boolean trackNetworkFailures) {
+    checkStarted();
+    this.trackNetworkFailures = trackNetworkFailures;
+    return this;
+  }
+
+  /**
+   * Opens each page in a browser context of its own, so pages in use at the same time share no cookies, storage or cache. Exports reusing
+   * a page do share its context, which is disposed when the page is closed.
+   */
+  public ChromeTabPool isolatedContexts(final boolean isolatedContexts) {
+    checkStarted();
+    this.isolatedContexts = isolatedContexts;
+    return this;
+  }
+
+  /**
+   * Talks to all pages through a single connection to the browser, instead of through a connection per page.
+   */
+  public ChromeTabPool sharedConnection(final boolean sharedConnection) {
+    checkStarted();
+    this.sharedConnection = sharedConnection;
+    return this;
+  }
+
+  /**
+   * @param minSize number of pages kept open, even when idle
+   */
+  public ChromeTabPool minSize(final int minSize) {
+    checkStarted();
+    this.minSize = minSize;
+    return this;
+  }
+
+  /**
+   * @param maxSize maximum number of pages in use at the same time
+   */
+  public ChromeTabPool maxSize(final int maxSize) {
+    checkStarted();
+    this.maxSize = maxSize;
+    return this;
+  }
+
+  /**
+   * @param idleTimeout time after which an idle page is closed, as long as more than {@link #minSize(int)} pages are open
+   */
+  public ChromeTabPool idleTimeout(final Duration idleTimeout) {
+    checkStarted();
+    this.idleTimeout = idleTimeout;
+    return this;
+  }
+
+  /**
+   * @param borrowTimeout maximum time to wait for a page when all pages are in use
+   */
+  public ChromeTabPool borrowTimeout(final Duration borrowTimeout) {
+    checkStarted();
+    this.borrowTimeout = borrowTimeout;
+    return this;
+  }
+
+  public ChromeTabPool evictionInterval(final Duration evictionInterval) {
+    checkStarted();
+    this.evictionInterval = evictionInterval;
+    return this;
+  }
+
+  /**
+   * @param healthCheckTimeout maximum time in milliseconds a page may take to answer the health check on borrow
+   */
+  public ChromeTabPool healthCheckTimeout(final int healthCheckTimeout) {
+    checkStarted();
+    this.healthCheckTimeout = healthCheckTimeout;
+    return this;
+  }
+
+  /**
+   * Starts the pool and opens the minimum number of pages. Called implicitly on the first borrow.
+   */
+  public synchronized ChromeTabPool start() {
+    if (started) {
+      return this;
+    }
+    if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+      throw new IllegalArgumentException("Invalid pool size, min: " + minSize + " max: " + maxSize);
+    }
+
+    permits = new Semaphore(maxSize, true);
+    evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "chrome-tab-pool-evictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    evictor.scheduleWithFixedDelay(this::evict, evictionInterval.toMillis(), evictionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    started = true;
+
+    ensureMinimum();
+    return this;
+  }
+
+  /**
+   * Borrows a page from the pool, opening a new one if no healthy idle page is available.
+   *
+   * The page must be handed back through {@link #release(QuittableChrome, boolean)}.
+   *
+   * @throws SlotTimeoutException when no page became available within the borrow timeout
+   */
+  public QuittableChrome borrow() {
+    start();
+    checkClosed();
+
+    try {
+      if (!permits.tryAcquire(borrowTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new SlotTimeoutException("Timed out waiting for a Chrome page on host: " + host);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SlotTimeoutException("Interrupted while waiting for a Chrome page on host: " + host, e);
+    }
+
+    try {
+      IdleTab tab;
+      while ((tab = idle.pollFirst()) != null) {
+        if (tab.chrome().ping(healthCheckTimeout)) {
+          return tab.chrome();
+        }
+        LOG.info("Discarding unhealthy page ID: {}", tab.chrome().getId());
+        destroy(tab.chrome());
+      }
+      return createTab();
+    } catch (final RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Hands a borrowed page back to the pool.
+   *
+   * @param chrome the page to return
+   * @param broken whether the page is in an unknown state, in which case it is closed instead of reused
+   */
+  public void release(final QuittableChrome chrome, final boolean broken) {
+    try {
+      if (broken || closed || !tryReset(chrome)) {
+        destroy(chrome);
+      } else {
+        idle.offerFirst(new IdleTab(chrome, System.nanoTime()));
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * @return the number of pages currently open, idle or in use
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * @return the number of pages currently idle
+   */
+  public int idleSize() {
+    return idle.size();
+  }
+
+  public String chromeHost() {
+    return host;
+  }
+
+  Map<String, Object> driverOptions() {
+    return driverOptions;
+  }
+
+  /**
+   * @return host and port the pages are opened on, as used by {@link ChromeHostLimiter} and {@link CircuitBreaker}
+   */
+  String address() {
+    return ChromeHostLimiter.address(host, driverOptions);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+
+    IdleTab tab;
+    while ((tab = idle.pollFirst()) != null) {
+      destroy(tab.chrome());
+    }
+  }
+
+  /**
+   * Closes the pool, discarding its idle pages without contacting Chrome, for when the Chrome instance is gone or about to go. Pages in
+   * use are closed as usual when they are released.
+   */
+  synchronized void abandon() {
+    closed = true;
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+
+    IdleTab tab;
+    while ((tab = idle.pollFirst()) != null) {
+      size.decrementAndGet();
+      tab.chrome().discard();
+    }
+  }
+
+  private QuittableChrome createTab() {
+    final Map<String, Object> options = new HashMap<>(driverOptions);
+    options.put("start", false);
+    options.put("headless", true);
+    options.put("host", host);
+
+    // Counted before it is opened, so the evictor does not open another one to reach the minimum meanwhile
+    size.incrementAndGet();
+    try {
+      return QuittableChrome.prepareAndStart(options, trackNetworkFailures, isolatedContexts, sharedConnection);
+    } catch (final RuntimeException e) {
+      size.decrementAndGet();
+      throw e;
+    }
+  }
+
+  private boolean tryReset(final QuittableChrome chrome) {
+    try {
+      chrome.reset();
+      return true;
+    } catch (final RuntimeException e) {
+      LOG.info("Could not reset page ID {}, closing it: {}", chrome.getId(), e.getMessage());
+      return false;
+    }
+  }
+
+  private void destroy(final QuittableChrome chrome) {
+    size.decrementAndGet();
+    try {
+      chrome.quit();
+    } catch (final RuntimeException e) {
+      LOG.warn("Failure while closing page ID: {}", chrome.getId(), e);
+    }
+  }
+
+  private void evict() {
+    try {
+      final long threshold = System.nanoTime() - idleTimeout.toNanos();
+      IdleTab tab;
+      // The least recently used pages are at the end of the deque
+      while (size.get() > minSize && (tab = idle.peekLast()) != null && tab.idleSince() < threshold) {
+        if (idle.removeLastOccurrence(tab)) {
+          LOG.debug("Evicting idle page ID: {}", tab.chrome().getId());
+          destroy(tab.chrome());
+        }
+      }
+      ensureMinimum();
+    } catch (final RuntimeException e) {
+      LOG.warn("Failure during idle page eviction.", e);
+    }
+  }
+
+  private void ensureMinimum() {
+    while (!closed && size.get() < minSize) {
+      idle.offerLast(new IdleTab(createTab(), System.nanoTime()));
+    }
+  }
+
+  private void checkStarted() {
+    if (started) {
+      throw new IllegalStateException("Cannot mutate an already-started pool.");
+    }
+  }
+
+  private void checkClosed() {
+    if (closed) {
+      throw new IllegalStateException("Cannot borrow from a closed pool.");
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.aerius.pdf.CircuitOpenException;
+import nl.aerius.pdf.ExportAbortedException;
+import nl.aerius.pdf.SlotTimeoutException;
+
+/**
+ * Per-host circuit breaker, failing exports fast while a Chrome host is down instead of letting each of them wait for it.
+ *
+ * A host that fails a number of exports in a row (by a connection failure, crashed page or timeout) has its circuit opened: exports to it
+ * fail immediately with a {@link CircuitOpenException}. After the open time a single export is let through as a probe, while others keep
+ * failing fast. If the probe succeeds the circuit closes again, otherwise it stays open for another period.
+ *
+ * Exports that gave up waiting for a slot or page, or that were cancelled, say nothing about the host either way: they neither count as a
+ * failure nor break a row of failures. A probe that ends like that leaves the circuit open, so the next export probes again.
+ *
+ * <pre>
+ * CircuitBreaker breaker = CircuitBreaker.create()
+ *     .failureThreshold(5)
+ *     .openTime(Duration.ofSeconds(30));
+ *
+ * ExportJob.create(url).circuitBreaker(breaker).print();
+ * </pre>
+ */
+public class CircuitBreaker {
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  private static final Duration DEFAULT_OPEN_TIME = Duration.ofSeconds(30);
+
+  public enum State {
+    /** Exports go through. */
+    CLOSED,
+    /** Exports fail fast. */
+    OPEN,
+    /** A single probe export is let through, the others fail fast. */
+    HALF_OPEN
+  }
+
+  private static final class Circuit {
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+  }
+
+  private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+  private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+  private Duration openTime = DEFAULT_OPEN_TIME;
+
+  public static CircuitBreaker create() {
+    return new CircuitBreaker();
+  }
+
+  /**
+   * @param failureThreshold number of failures in a row after which the circuit of a host opens
+   */
+  public CircuitBreaker failureThreshold(final int failureThreshold) {
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("Failure threshold must be at least 1, got: " + failureThreshold);
+    }
+    this.failureThreshold = failureThreshold;
+    return this;
+  }
+
+  /**
+   * @param openTime time exports to a host fail fast before a probe is let through
+   */
+  public CircuitBreaker openTime(final Duration openTime) {
+    this.openTime = openTime;
+    return this;
+  }
+
+  public State state(final String host) {
+    final Circuit circuit = circuits.get(key(host));
+    if (circuit == null) {
+      return State.CLOSED;
+    }
+    synchronized (circuit) {
+      return circuit.state;
+    }
+  }
+
+  /**
+   * Asks permission to export to the given host. Every permission must be followed by a call to
+   * {@link #release(String, boolean, Throwable)}.
+   *
+   * @return whether the export is the probe of a half-open circuit
+   * @throws CircuitOpenException when the circuit of the host is open
+   */
+  boolean acquire(final String host) {
+    final Circuit circuit = circuits.computeIfAbsent(key(host), k -> new Circuit());
+    synchronized (circuit) {
+      switch (circuit.state) {
+      case CLOSED:
+        return false;
+      case OPEN:
+        if (System.nanoTime() - circuit.openUntil >= 0) {
+          LOG.info("Probing Chrome host {}.", key(host));
+          circuit.state = State.HALF_OPEN;
+          return true;
+        }
+        throw new CircuitOpenException("Circuit open for Chrome host: " + key(host));
+      default:
+        throw new CircuitOpenException("Circuit half-open for Chrome host, awaiting probe: " + key(host));
+      }
+    }
+  }
+
+  /**
+   * Reports the outcome of an export to the given host.
+   *
+   * @param probe whether the export was the probe, as returned by {@link #acquire(String)}
+   * @param failure the failure the export ended in, or null if it succeeded
+   */
+  void release(final String host, final boolean probe, final Throwable failure) {
+    final Circuit circuit = circuits.computeIfAbsent(key(host), k -> new Circuit());
+    if (failure != null && withoutVerdict(failure)) {
+      synchronized (circuit) {
+        if (probe && circuit.state == State.HALF_OPEN) {
+          LOG.info("Probe of Chrome host {} ended without verdict, awaiting next probe.", key(host));
+          circuit.state = State.OPEN;
+        }
+      }
+      return;
+    }
+    final boolean hostFailure = failure != null && RetryPolicy.classify(failure).isHostFailure();
+    synchronized (circuit) {
+      if (hostFailure) {
+        circuit.consecutiveFailures++;
+        if (probe || circuit.state == State.CLOSED && circuit.consecutiveFailures >= failureThreshold) {
+          LOG.warn("Opening circuit for Chrome host {} for {} after {} failures in a row.", key(host), openTime,
+              circuit.consecutiveFailures);
+          circuit.state = State.OPEN;
+          circuit.openUntil = System.nanoTime() + openTime.toNanos();
+        }
+      } else {
+        circuit.consecutiveFailures = 0;
+        // Only the probe decides on a half-open circuit, exports that were let through before it opened may still come back
+        if (probe) {
+          LOG.info("Closing circuit for Chrome host {}.", key(host));
+          circuit.state = State.CLOSED;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return whether the failure tells nothing about the health of the host: the export gave up waiting for a slot, or was cancelled
+   */
+  private static boolean withoutVerdict(final Throwable failure) {
+    for (Throwable e = failure; e != null; e = e.getCause() == e ? null : e.getCause()) {
+      if (e instanceof SlotTimeoutException || e instanceof final ExportAbortedException aborted && aborted.cancelled()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String key(final String host) {
+    return ChromeHostLimiter.key(host);
+  }
+}
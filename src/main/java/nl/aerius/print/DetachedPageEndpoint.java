@@ -0,0 +1,128 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local websocket endpoint that completes the handshake of each connection and closes it right away.
+ *
+ * The Karate driver always connects to a websocket when it is created. A page that is talked to through the shared
+ * {@link BrowserConnection} points its driver here instead of at the page, so no connection of its own is opened to Chrome.
+ */
+final class DetachedPageEndpoint {
+  private static final Logger LOG = LoggerFactory.getLogger(DetachedPageEndpoint.class);
+
+  private static final String HOST = "127.0.0.1";
+  private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+  private static final Pattern WEBSOCKET_KEY = Pattern.compile("^Sec-WebSocket-Key:\\s*(\\S+)",
+      Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+  private static final Duration HANDSHAKE_TIMEOUT = Duration.ofSeconds(5);
+  private static final int MAX_REQUEST_SIZE = 16 * 1024;
+  private static final int END_OF_HEADERS = ('\r' << 24) | ('\n' << 16) | ('\r' << 8) | '\n';
+
+  private static ServerSocket serverSocket;
+
+  private DetachedPageEndpoint() {}
+
+  /**
+   * @return the websocket URL for the driver of the given page, which ends in the page ID like the URL of the page itself
+   */
+  static synchronized String url(final String targetId) {
+    if (serverSocket == null) {
+      start();
+    }
+    return "ws://" + HOST + ":" + serverSocket.getLocalPort() + "/detached/" + targetId;
+  }
+
+  private static void start() {
+    try {
+      serverSocket = new ServerSocket();
+      serverSocket.bind(new InetSocketAddress(HOST, 0));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final Thread thread = new Thread(() -> acceptAll(serverSocket), "detached-page-endpoint");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void acceptAll(final ServerSocket server) {
+    while (!server.isClosed()) {
+      // The handshake is small and only sent by drivers in this process, so connections are handled one at a time
+      try (final Socket socket = server.accept()) {
+        socket.setSoTimeout((int) HANDSHAKE_TIMEOUT.toMillis());
+        handshake(socket);
+      } catch (final IOException e) {
+        LOG.debug("Could not complete handshake of detached page: {}", e.getMessage());
+      }
+    }
+  }
+
+  private static void handshake(final Socket socket) throws IOException {
+    final Matcher key = WEBSOCKET_KEY.matcher(readRequest(socket.getInputStream()));
+    if (!key.find()) {
+      throw new IOException("Not a websocket handshake.");
+    }
+    final String response = "HTTP/1.1 101 Switching Protocols\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Accept: " + accept(key.group(1)) + "\r\n\r\n";
+    socket.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+    socket.getOutputStream().flush();
+  }
+
+  private static String readRequest(final InputStream in) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    // The last four bytes read, the request headers end with an empty line
+    int last = 0;
+    while (last != END_OF_HEADERS) {
+      final int b = in.read();
+      if (b < 0 || request.size() >= MAX_REQUEST_SIZE) {
+        throw new IOException("Incomplete websocket handshake.");
+      }
+      request.write(b);
+      last = (last << 8) | b;
+    }
+    return request.toString(StandardCharsets.US_ASCII);
+  }
+
+  private static String accept(final String key) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+      return Base64.getEncoder().encodeToString(digest);
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.aerius.pdf.TimeoutException;
+
+/**
+ * Prints many documents at once, spread over a number of concurrent Chrome pages.
+ *
+ * Each spec becomes an {@link ExportJob} that borrows its page from a {@link ChromeTabPool}. A failing export does not abort the batch,
+ * its failure is reported in the {@link ExportOutcome} instead. Outcomes are passed to the completion callback as soon as each export
+ * finishes, and returned in the order of the specs once the whole batch is done.
+ *
+ * <pre>
+ * List&lt;ExportOutcome&gt; outcomes = ExportBatch.create()
+ *     .specs(specs)
+ *     .concurrency(8)
+ *     .onComplete(outcome -&gt; ...)
+ *     .run();
+ * </pre>
+ */
+public class ExportBatch {
+  private static final Logger LOG = LoggerFactory.getLogger(ExportBatch.class);
+
+  private static final int DEFAULT_CONCURRENCY = 4;
+
+  private final List<ExportSpec> specs = new ArrayList<>();
+
+  private int concurrency = DEFAULT_CONCURRENCY;
+  private String host;
+  private ChromeTabPool tabPool;
+  private Executor executor;
+  private Consumer<ExportJob> jobConfigurer;
+  private Consumer<ExportOutcome> completeCallback;
+
+  private boolean ran;
+
+  public static ExportBatch create() {
+    return new ExportBatch();
+  }
+
+  public ExportBatch spec(final ExportSpec spec) {
+    checkRan();
+    specs.add(spec);
+    return this;
+  }
+
+  public ExportBatch specs(final Collection<ExportSpec> specs) {
+    checkRan();
+    this.specs.addAll(specs);
+    return this;
+  }
+
+  /**
+   * @param concurrency number of exports (and thus Chrome pages) running at the same time
+   */
+  public ExportBatch concurrency(final int concurrency) {
+    checkRan();
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  /**
+   * Chrome host to export on, ignored when a tab pool is set.
+   */
+  public ExportBatch chromeHost(final String host) {
+    checkRan();
+    this.host = host;
+    return this;
+  }
+
+  /**
+   * Pool to borrow the pages from. If not set, the batch opens a pool of its own and closes it when the batch is done.
+   */
+  public ExportBatch tabPool(final ChromeTabPool tabPool) {
+    checkRan();
+    this.tabPool = tabPool;
+    return this;
+  }
+
+  public ExportBatch executor(final Executor executor) {
+    checkRan();
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Applies common settings, such as the destination or hooks, to each job before it is exported.
+   */
+  public ExportBatch configure(final Consumer<ExportJob> jobConfigurer) {
+    checkRan();
+    this.jobConfigurer = jobConfigurer;
+    return this;
+  }
+
+  /**
+   * Called for each export as soon as it finishes, from the thread that ran the export.
+   */
+  public ExportBatch onComplete(final Consumer<ExportOutcome> completeCallback) {
+    checkRan();
+    this.completeCallback = completeCallback;
+    return this;
+  }
+
+  /**
+   * Runs the batch, blocking until all exports have finished.
+   *
+   * @return the outcome of each export, in the order of the specs
+   */
+  public List<ExportOutcome> run() {
+    checkRan();
+    ran = true;
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be at least 1, got: " + concurrency);
+    }
+
+    final boolean ownPool = tabPool == null;
+    final ChromeTabPool pool = ownPool ? ChromeTabPool.create(host).maxSize(concurrency) : tabPool;
+    final Semaphore slots = new Semaphore(concurrency);
+    final List<CompletableFuture<ExportOutcome>> futures = new ArrayList<>(specs.size());
+
+    LOG.info("Exporting batch of {} documents using {} concurrent pages.", specs.size(), concurrency);
+    try {
+      for (final ExportSpec spec : specs) {
+        acquire(slots);
+        futures.add(submit(spec, pool)
+            .whenComplete((outcome, e) -> slots.release()));
+      }
+
+      return futures.stream()
+          .map(CompletableFuture::join)
+          .toList();
+    } finally {
+      if (ownPool) {
+        pool.close();
+      }
+    }
+  }
+
+  private CompletableFuture<ExportOutcome> submit(final ExportSpec spec, final ChromeTabPool pool) {
+    CompletableFuture<PrintJob> future;
+    try {
+      final ExportJob job = createJob(spec, pool);
+      future = spec.printParams() == null ? job.printAsync() : job.printAsync(spec.printParams());
+    } catch (final RuntimeException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+
+    return future.handle((job, e) -> {
+      final ExportOutcome outcome = new ExportOutcome(spec, job, unwrap(e));
+      if (!outcome.succeeded()) {
+        LOG.warn("Export of {} failed within batch.", spec.url(), outcome.failure());
+      }
+      notifyComplete(outcome);
+      return outcome;
+    });
+  }
+
+  private ExportJob createJob(final ExportSpec spec, final ChromeTabPool pool) {
+    final ExportJob job = ExportJob.create(spec.url(), spec.handle())
+        .tabPool(pool);
+    if (executor != null) {
+      job.executor(executor);
+    }
+    if (spec.waitForComplete() != null) {
+      job.waitForComplete(spec.waitForComplete());
+    }
+    if (jobConfigurer != null) {
+      jobConfigurer.accept(job);
+    }
+    return job;
+  }
+
+  private void notifyComplete(final ExportOutcome outcome) {
+    if (completeCallback != null) {
+      try {
+        completeCallback.accept(outcome);
+      } catch (final RuntimeException e) {
+        LOG.warn("Failure during batch completion callback, ignoring.", e);
+      }
+    }
+  }
+
+  private static Throwable unwrap(final Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  private static void acquire(final Semaphore slots) {
+    try {
+      slots.acquire();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TimeoutException("Interrupted while running export batch.", e);
+    }
+  }
+
+  private void checkRan() {
+    if (ran) {
+      throw new IllegalStateException("Cannot mutate an already-run batch.");
+    }
+  }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of export results, so repeated exports of the same page do not need another render in Chrome.
+ *
+ * Results are keyed by a hash of the URL, the print parameters or dimensions and a version token chosen by the caller, which should change
+ * whenever the content behind the URL changes. The cache has an in-memory tier, and optionally a tier on disk that survives restarts.
+ * Both tiers evict the least recently used results once their size cap is reached, and results expire after the time to live.
+ *
+ * <pre>
+ * ExportCache cache = ExportCache.create()
+ *     .memoryBytes(64 * 1024 * 1024)
+ *     .diskDirectory(Path.of("/var/cache/exports"))
+ *     .ttl(Duration.ofMinutes(10));
+ *
+ * ExportJob.create(url).cache(cache, "revision-12").print();
+ * </pre>
+ */
+public class ExportCache {
+  private static final Logger LOG = LoggerFactory.getLogger(ExportCache.class);
+
+  private static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_DISK_BYTES = 1024L * 1024 * 1024;
+  private static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+  private static final String FILE_SUFFIX = ".export";
+
+  /**
+   * Counters and sizes of the cache.
+   *
+   * @param memoryHits lookups answered from memory
+   * @param diskHits lookups answered from disk
+   * @param misses lookups that found no (unexpired) result
+   * @param evictions results removed because a tier was full
+   * @param expirations results removed because they outlived the time to live
+   * @param memoryBytes bytes held in memory
+   * @param diskBytes bytes held on disk
+   */
+  public record Statistics(long memoryHits, long diskHits, long misses, long evictions, long expirations, long memoryBytes,
+      long diskBytes) {
+
+    public long hits() {
+      return memoryHits + diskHits;
+    }
+
+    /**
+     * @return the fraction of lookups that were answered from the cache
+     */
+    public double hitRatio() {
+      final long lookups = hits() + misses;
+      return lookups == 0 ? 0 : (double) hits() / lookups;
+    }
+  }
+
+  private record MemoryEntry(byte[] result, long created) {}
+
+  private record DiskEntry(long size, long created) {}
+
+  private long memoryBytesCap = DEFAULT_MEMORY_BYTES;
+  private long diskBytesCap = DEFAULT_DISK_BYTES;
+  private Duration ttl = DEFAULT_TTL;
+  private Path diskDirectory;
+
+  // Both maps are in access order, so the least recently used entries come first
+  private final LinkedHashMap<String, MemoryEntry> memory = new LinkedHashMap<>(16, 0.75F, true);
+  private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<>(16, 0.75F, true);
+  private long memoryBytes;
+  private long diskBytes;
+
+  private final LongAdder memoryHits = new LongAdder();
+  private final LongAdder diskHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  private boolean started;
+
+  public static ExportCache create() {
+    return new ExportCache();
+  }
+
+  /**
+   * @param memoryBytes maximum number of bytes of results kept in memory, 0 to keep nothing in memory
+   */
+  public ExportCache memoryBytes(final long memoryBytes) {
+    checkStarted();
+    this.memoryBytesCap = memoryBytes;
+    return this;
+  }
+
+  /**
+   * @param diskDirectory directory to keep results on disk in, created if it does not exist. Without one, results are only kept in memory
+   */
+  public ExportCache diskDirectory(final Path diskDirectory) {
+    checkStarted();
+    this.diskDirectory = diskDirectory;
+    return this;
+  }
+
+  /**
+   * @param diskBytes maximum number of bytes of results kept on disk
+   */
+  public ExportCache diskBytes(final long diskBytes) {
+    checkStarted();
+    this.diskBytesCap = diskBytes;
+    return this;
+  }
+
+  /**
+   * @param ttl time after which a cached result is no longer used
+   */
+  public ExportCache ttl(final Duration ttl) {
+    checkStarted();
+    this.ttl = ttl;
+    return this;
+  }
+
+  /**
+   * Computes the cache key of an export.
+   *
+   * @param type type of export, such as the file extension
+   * @param url URL of the exported page
+   * @param parameters print parameters or dimensions of the export
+   * @param version version token of the content behind the URL, may be null
+   * @return a hex encoded hash of the given values
+   */
+  public static String key(final String type, final String url, final Map<String, Object> parameters, final String version) {
+    final String canonical = String.join("\n", type, url, canonical(parameters), version == null ? "" : version);
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8)));
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return a copy of the cached result for the given key, or null if there is none
+   */
+  public byte[] get(final String key) {
+    start();
+    final long now = System.currentTimeMillis();
+
+    synchronized (memory) {
+      final MemoryEntry entry = memory.get(key);
+      if (entry != null) {
+        if (!expired(entry.created(), now)) {
+          memoryHits.increment();
+          return entry.result().clone();
+        }
+        removeMemory(key);
+        expirations.increment();
+      }
+    }
+
+    final byte[] result = getFromDisk(key, now);
+    if (result == null) {
+      misses.increment();
+    } else {
+      diskHits.increment();
+    }
+    return result;
+  }
+
+  /**
+   * Caches a copy of the result for the given key, in memory and on disk, so later changes to the given array do not affect the cache.
+   */
+  public void put(final String key, final byte[] result) {
+    start();
+    final long now = System.currentTimeMillis();
+    putInMemory(key, result, now);
+    putOnDisk(key, result, now);
+  }
+
+  /**
+   * Removes all results from the cache, including those on disk.
+   */
+  public void clear() {
+    synchronized (memory) {
+      memory.clear();
+      memoryBytes = 0;
+    }
+    synchronized (disk) {
+      disk.keySet().forEach(this::deleteQuietly);
+      disk.clear();
+      diskBytes = 0;
+    }
+  }
+
+  public Statistics statistics() {
+    final long inMemory;
+    synchronized (memory) {
+      inMemory = memoryBytes;
+    }
+    final long onDisk;
+    synchronized (disk) {
+      onDisk = diskBytes;
+    }
+    return new Statistics(memoryHits.sum(), diskHits.sum(), misses.sum(), evictions.sum(), expirations.sum(), inMemory, onDisk);
+  }
+
+  /**
+   * Picks up the results left on disk by an earlier run, on first use.
+   */
+  private synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    if (diskDirectory == null) {
+      return;
+    }
+
+    try {
+      Files.createDirectories(diskDirectory);
+      try (final Stream<Path> files = Files.list(diskDirectory)) {
+        final Collection<Path> results = files.filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX))
+            .sorted((a, b) -> Long.compare(lastModified(a), lastModified(b)))
+            .collect(Collectors.toList());
+        synchronized (disk) {
+          for (final Path file : results) {
+            final String name = file.getFileName().toString();
+            final long size = Files.size(file);
+            disk.put(name.substring(0, name.length() - FILE_SUFFIX.length()), new DiskEntry(size, lastModified(file)));
+            diskBytes += size;
+          }
+          evictFromDisk();
+        }
+      }
+      LOG.info("Export cache found {} results on disk in {}.", disk.size(), diskDirectory);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void putInMemory(final String key, final byte[] result, final long now) {
+    if (result.length > memoryBytesCap) {
+      return;
+    }
+    synchronized (memory) {
+      removeMemory(key);
+      memory.put(key, new MemoryEntry(result.clone(), now));
+      memoryBytes += result.length;
+
+      final Iterator<Map.Entry<String, MemoryEntry>> iterator = memory.entrySet().iterator();
+      while (memoryBytes > memoryBytesCap && iterator.hasNext()) {
+        memoryBytes -= iterator.next().getValue().result().length;
+        iterator.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  private void removeMemory(final String key) {
+    final MemoryEntry removed = memory.remove(key);
+    if (removed != null) {
+      memoryBytes -= removed.result().length;
+    }
+  }
+
+  private byte[] getFromDisk(final String key, final long now) {
+    if (diskDirectory == null) {
+      return null;
+    }
+    synchronized (disk) {
+      final DiskEntry entry = disk.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (expired(entry.created(), now)) {
+        removeDisk(key);
+        expirations.increment();
+        return null;
+      }
+    }
+
+    try {
+      final byte[] result = Files.readAllBytes(file(key));
+      // Promote to memory, so the next lookup does not need the disk
+      putInMemory(key, result, now);
+      return result;
+    } catch (final IOException e) {
+      LOG.warn("Could not read cached export {}, dropping it.", key, e);
+      synchronized (disk) {
+        removeDisk(key);
+      }
+      return null;
+    }
+  }
+
+  private void putOnDisk(final String key, final byte[] result, final long now) {
+    if (diskDirectory == null || result.length > diskBytesCap) {
+      return;
+    }
+    try {
+      // Write next to the final file and move it in place, so a reader never sees a partial result
+      final Path temporary = Files.createTempFile(diskDirectory, key, ".tmp");
+      Files.write(temporary, result);
+      Files.move(temporary, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException e) {
+      LOG.warn("Could not write export {} to the cache on disk.", key, e);
+      return;
+    }
+
+    synchronized (disk) {
+      final DiskEntry previous = disk.put(key, new DiskEntry(result.length, now));
+      diskBytes += result.length - (previous == null ? 0 : previous.size());
+      evictFromDisk();
+    }
+  }
+
+  private void evictFromDisk() {
+    final Iterator<Map.Entry<String, DiskEntry>> iterator = disk.entrySet().iterator();
+    while (diskBytes > diskBytesCap && iterator.hasNext()) {
+      final Map.Entry<String, DiskEntry> eldest = iterator.next();
+      iterator.remove();
+      diskBytes -= eldest.getValue().size();
+      deleteQuietly(eldest.getKey());
+      evictions.increment();
+    }
+  }
+
+  private void removeDisk(final String key) {
+    final DiskEntry removed = disk.remove(key);
+    if (removed != null) {
+      diskBytes -= removed.size();
+      deleteQuietly(key);
+    }
+  }
+
+  private boolean expired(final long created, final long now) {
+    return now - created > ttl.toMillis();
+  }
+
+  private Path file(final String key) {
+    return diskDirectory.resolve(key + FILE_SUFFIX);
+  }
+
+  private void deleteQuietly(final String key) {
+    try {
+      Files.deleteIfExists(file(key));
+    } catch (final IOException e) {
+      LOG.warn("Could not remove cached export {}.", key, e);
+    }
+  }
+
+  private static long lastModified(final Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (final IOException e) {
+      return 0;
+    }
+  }
+
+  private static String canonical(final Object value) {
+    if (value instanceof final Map<?, ?> map) {
+      final Map<String, String> sorted = new TreeMap<>();
+      map.forEach((k, v) -> sorted.put(String.valueOf(k), canonical(v)));
+      return sorted.toString();
+    } else if (value instanceof final Collection<?> collection) {
+      return collection.stream().map(ExportCache::canonical).collect(Collectors.joining(",", "[", "]"));
+    }
+    return String.valueOf(value);
+  }
+
+  private void checkStarted() {
+    if (started) {
+      throw new IllegalStateException("Cannot mutate a cache that is already in use.");
+    }
+  }
+}
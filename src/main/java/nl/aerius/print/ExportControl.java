@@ -0,0 +1,196 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.aerius.metrics.ExportMetrics;
+import nl.aerius.metrics.ExportPhase;
+import nl.aerius.pdf.ExportAbortedException;
+
+/**
+ * Deadline and cancellation of a single export.
+ *
+ * The exporting thread registers itself and the page it works on, so the export can be aborted from the deadline timer or from another
+ * thread: the page is told to stop loading and is closed, and the exporting thread is interrupted to wake it from whatever it waits for.
+ * The export then fails with an {@link ExportAbortedException} naming the phase that was running, which is tracked by passing the
+ * phases on to the metrics of the job through this class.
+ */
+final class ExportControl implements ExportMetrics {
+  private static final Logger LOG = LoggerFactory.getLogger(ExportControl.class);
+
+  private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+  private String url;
+  private ExportMetrics metrics = ExportMetrics.NONE;
+  private Duration deadline;
+  private ScheduledFuture<?> deadlineTask;
+
+  // Guarded by this
+  private Thread thread;
+  private PageLease lease;
+  private boolean interrupted;
+  private boolean aborted;
+  private boolean cancelled;
+  private ExportPhase abortedPhase;
+
+  private volatile ExportPhase lastCompleted;
+
+  /**
+   * Starts controlling the export on the calling thread, which must call {@link #finish()} once the export is done.
+   *
+   * @param deadline maximum duration of the export, or null for none
+   */
+  void start(final String url, final ExportMetrics metrics, final Duration deadline) {
+    synchronized (this) {
+      this.url = url;
+      this.metrics = metrics;
+      this.deadline = deadline;
+      thread = Thread.currentThread();
+      if (aborted) {
+        throw failure(null);
+      }
+    }
+    if (deadline != null) {
+      deadlineTask = TIMER.schedule(() -> abort(false), deadline.toNanos(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Marks the start of an attempt, whose phases start over.
+   */
+  void attempt() {
+    lastCompleted = null;
+    synchronized (this) {
+      if (aborted) {
+        throw failure(null);
+      }
+    }
+  }
+
+  @Override
+  public void onPhase(final ExportPhase phase, final Duration duration, final long bytes) {
+    lastCompleted = phase;
+    metrics.onPhase(phase, duration, bytes);
+  }
+
+  synchronized void attach(final PageLease lease) {
+    this.lease = lease;
+    if (aborted) {
+      abortPage(lease);
+    }
+  }
+
+  synchronized void detach() {
+    lease = null;
+  }
+
+  /**
+   * Aborts the export, if it has not finished yet.
+   *
+   * @param cancel whether the export is cancelled, rather than exceeding its deadline
+   * @return whether the export was aborted by this call
+   */
+  boolean abort(final boolean cancel) {
+    synchronized (this) {
+      if (aborted) {
+        return false;
+      }
+      aborted = true;
+      cancelled = cancel;
+      abortedPhase = runningPhase();
+      LOG.warn("Aborting export of {} during {}, {}.", url, abortedPhase, cancel ? "cancelled" : "deadline of " + deadline + " exceeded");
+      if (lease != null) {
+        abortPage(lease);
+      }
+      if (thread != null) {
+        interrupted = true;
+        thread.interrupt();
+      }
+    }
+    return true;
+  }
+
+  synchronized boolean isAborted() {
+    return aborted;
+  }
+
+  /**
+   * @return the failure to report for the given failure of the export: an {@link ExportAbortedException} if the export was aborted, the
+   *         given failure otherwise
+   */
+  synchronized RuntimeException failure(final RuntimeException cause) {
+    if (!aborted || cause instanceof ExportAbortedException) {
+      return cause;
+    }
+    // The interrupt has done its job, and should not disturb the cleanup that follows
+    clearInterrupt();
+    final String message = cancelled
+        ? "Export of " + url + " was cancelled during " + abortedPhase + "."
+        : "Export of " + url + " exceeded its deadline of " + deadline + " during " + abortedPhase + ".";
+    return new ExportAbortedException(message, abortedPhase, cancelled, cause);
+  }
+
+  /**
+   * Stops controlling the export, called on the exporting thread.
+   */
+  void finish() {
+    if (deadlineTask != null) {
+      deadlineTask.cancel(false);
+    }
+    synchronized (this) {
+      clearInterrupt();
+      thread = null;
+      lease = null;
+    }
+  }
+
+  private void clearInterrupt() {
+    if (interrupted && thread == Thread.currentThread()) {
+      interrupted = false;
+      Thread.interrupted();
+    }
+  }
+
+  private ExportPhase runningPhase() {
+    final ExportPhase completed = lastCompleted;
+    return completed == null
+        ? ExportPhase.ACQUIRE
+        : ExportPhase.values()[Math.min(completed.ordinal() + 1, ExportPhase.TRANSFER.ordinal())];
+  }
+
+  private static void abortPage(final PageLease lease) {
+    lease.markBroken();
+    lease.chrome().abort();
+  }
+
+  private static ScheduledThreadPoolExecutor createTimer() {
+    final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+      final Thread thread = new Thread(r, "export-deadline");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+}
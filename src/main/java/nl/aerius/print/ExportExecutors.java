@@ -0,0 +1,78 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the executor the asynchronous export methods run on by default.
+ *
+ * On a Java 21+ runtime every export runs on its own virtual thread, so a blocked export does not hold a platform thread. On older
+ * runtimes a bounded pool of daemon threads is used instead, with as many threads as exports may run against a single Chrome host (see
+ * {@link ChromeHostLimiter}). Once its queue is full, further exports are rejected: the asynchronous export methods then return a future
+ * that fails with an {@link nl.aerius.pdf.ExportRejectedException}, rather than running the export on the calling thread.
+ */
+public final class ExportExecutors {
+  private static final Logger LOG = LoggerFactory.getLogger(ExportExecutors.class);
+
+  private static final String THREAD_NAME_PREFIX = "export-";
+  private static final int QUEUED_EXPORTS_PER_THREAD = 16;
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static ExecutorService defaultExecutor;
+
+  private ExportExecutors() {}
+
+  public static synchronized ExecutorService defaultExecutor() {
+    if (defaultExecutor == null) {
+      defaultExecutor = createDefaultExecutor();
+    }
+    return defaultExecutor;
+  }
+
+  private static ExecutorService createDefaultExecutor() {
+    try {
+      final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      LOG.debug("Running asynchronous exports on virtual threads.");
+      return executor;
+    } catch (final ReflectiveOperationException e) {
+      final int threads = ChromeHostLimiter.defaultLimit();
+      LOG.debug("Virtual threads not available, running asynchronous exports on a pool of {} threads.", threads);
+      return createThreadPool(threads, threads * QUEUED_EXPORTS_PER_THREAD);
+    }
+  }
+
+  static ExecutorService createThreadPool(final int threads, final int queueCapacity) {
+    final AtomicInteger counter = new AtomicInteger();
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(queueCapacity), r -> {
+          final Thread thread = new Thread(r, THREAD_NAME_PREFIX + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -17,11 +17,23 @@
 package nl.aerius.print;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,13 +42,32 @@ import com.intuit.karate.FileUtils;
 import com.intuit.karate.core.Config;
 import com.intuit.karate.driver.DevToolsDriver;
 
+import nl.aerius.metrics.ExportMetrics;
+import nl.aerius.metrics.ExportPhase;
+import nl.aerius.pdf.ExportAbortedException;
+import nl.aerius.pdf.ExportRejectedException;
 import nl.aerius.pdf.FailureIndicatorException;
+import nl.aerius.pdf.PageCrashedException;
 
 public class ExportJob {
   private static final Logger LOG = LoggerFactory.getLogger(ExportJob.class);
 
   private static final String TMP = "/tmp/";
 
+  private static final String NETWORK_IDLE = "networkIdle";
+  private static final String NETWORK_ALMOST_IDLE = "networkAlmostIdle";
+  private static final Duration NETWORK_QUIET_PERIOD = Duration.ofMillis(500);
+  private static final Duration DEFAULT_SNAPSHOT_WAIT = Duration.ofSeconds(4);
+  private static final String DEFAULT_READY_PROMISE = "window.exportReady";
+  private static final String INDICATOR_OBSERVER_SCRIPT = "new Promise(resolve => {"
+      + " const find = () => document.querySelector('#complete-indicator');"
+      + " const done = indicator => resolve(indicator.classList.contains('failure'));"
+      + " const existing = find();"
+      + " if (existing) { done(existing); return; }"
+      + " const observer = new MutationObserver(() => {"
+      + "   const indicator = find(); if (indicator) { observer.disconnect(); done(indicator); } });"
+      + " observer.observe(document, { childList: true, subtree: true, attributes: true, attributeFilter: ['id'] }); })";
+
   private String host;
   private String url;
   private String handle;
@@ -56,6 +87,23 @@ public class ExportJob {
   private boolean saved;
 
   private boolean trackNetworkFailures;
+  private boolean isolatedContext;
+  private boolean sharedConnection;
+
+  private ChromeTabPool tabPool;
+  private ChromeCluster chromeCluster;
+
+  private Executor executor;
+  private ExportMetrics metrics = ExportMetrics.NONE;
+  private RequestPolicy requestPolicy;
+  private AssetCache assetCache;
+  private ExportCache cache;
+  private String cacheVersion;
+  private RetryPolicy retryPolicy;
+  private CircuitBreaker circuitBreaker;
+  private Duration deadline;
+
+  private final ExportControl control = new ExportControl();
 
   // Hooks for custom behavior on complete and failure before the driver quits
   private DriverHook completeHook;
@@ -106,51 +154,338 @@ public class ExportJob {
     return this;
   }
 
+  /**
+   * Borrow the page from the given pool instead of creating (and closing) a new page for this job. The host, driver options and network
+   * failure tracking of the pool apply to this job.
+   * @param tabPool pool to borrow the page from
+   */
+  public ExportJob tabPool(final ChromeTabPool tabPool) {
+    checkExported();
+    this.tabPool = tabPool;
+    return this;
+  }
+
+  /**
+   * Export on the least loaded healthy host of the given cluster, instead of on a single Chrome host. If the cluster keeps tab pools,
+   * the page is borrowed from the pool of the selected host.
+   * @param chromeCluster cluster to export on
+   */
+  public ExportJob chromeCluster(final ChromeCluster chromeCluster) {
+    checkExported();
+    this.chromeCluster = chromeCluster;
+    return this;
+  }
+
+  /**
+   * Executor to run {@link #printAsync()} and {@link #snapshotAsync()} on, defaults to {@link ExportExecutors#defaultExecutor()}. If the
+   * executor rejects the export, the returned future fails with an {@link ExportRejectedException}.
+   * @param executor executor to run the export on
+   */
+  public ExportJob executor(final Executor executor) {
+    checkExported();
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Report the duration and size of each phase of the export, and of saving and post-processing its result, to the given metrics.
+   */
+  public ExportJob metrics(final ExportMetrics metrics) {
+    checkExported();
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Block, stub or rewrite requests of the page according to the given policy, so the export does not wait for resources the document
+   * does not need.
+   * @param requestPolicy policy to apply to the requests of the page
+   */
+  public ExportJob requestPolicy(final RequestPolicy requestPolicy) {
+    checkExported();
+    this.requestPolicy = requestPolicy;
+    return this;
+  }
+
+  /**
+   * Answer requests of the page for assets from the given cache, which is shared with the other jobs using it.
+   * @param assetCache cache of assets such as scripts, style sheets, fonts and map tiles
+   */
+  public ExportJob assetCache(final AssetCache assetCache) {
+    checkExported();
+    this.assetCache = assetCache;
+    return this;
+  }
+
+  /**
+   * Look up the result in the given cache before exporting, and store it there afterwards. The cache is consulted by {@link #print(Map)}
+   * and {@link #snapshot(Map)}, not by the streaming print methods.
+   * @param cache cache to use
+   * @param version version token of the content behind the URL, which should change whenever that content changes
+   */
+  public ExportJob cache(final ExportCache cache, final String version) {
+    checkExported();
+    this.cache = cache;
+    this.cacheVersion = version;
+    return this;
+  }
+
+  /**
+   * @param retryCount number of times the driver retries a lookup while waiting for the page, see {@link #retryPolicy(RetryPolicy)} for
+   *          retrying the export as a whole
+   */
   public ExportJob retry(final int retryCount) {
     checkExported();
     this.retryCount = retryCount;
     return this;
   }
 
+  /**
+   * Try the export again on a new page when it fails in a way the policy retries, such as a Chrome host that cannot be reached. Exports
+   * streamed to a target are not retried, as part of the document may already have been written. The failure hook is called for every
+   * failed attempt.
+   * @param retryPolicy policy deciding when and how often to retry
+   */
+  public ExportJob retryPolicy(final RetryPolicy retryPolicy) {
+    checkExported();
+    this.retryPolicy = retryPolicy;
+    return this;
+  }
+
+  /**
+   * Fail fast while the Chrome host has failed too many exports in a row, as tracked by the given breaker which is shared with the other
+   * jobs using it.
+   * @param circuitBreaker breaker tracking the health of the Chrome hosts
+   */
+  public ExportJob circuitBreaker(final CircuitBreaker circuitBreaker) {
+    checkExported();
+    this.circuitBreaker = circuitBreaker;
+    return this;
+  }
+
+  /**
+   * Abort the export when it takes longer than the given time, including any retries. The page is closed and its slot released, and the
+   * export fails with an {@link ExportAbortedException} naming the phase that overran. For {@link #open()} the deadline covers loading the
+   * page, not the outputs taken from the session.
+   * @param deadline maximum duration of the export
+   */
+  public ExportJob deadline(final Duration deadline) {
+    checkExported();
+    this.deadline = deadline;
+    return this;
+  }
+
+  /**
+   * Cancels the export, from any thread. A running export is aborted as if it exceeded its deadline, but fails with an
+   * {@link ExportAbortedException} that reports it was cancelled. An export that has not started yet fails as soon as it starts.
+   * Cancelling the future returned by one of the asynchronous methods cancels the export as well.
+   * @return false if the export was already cancelled or aborted
+   */
+  public boolean cancel() {
+    return control.abort(true);
+  }
+
+  /**
+   * Captures the viewport of the page as a PNG image.
+   */
   public SnapshotJob snapshot() {
-    final Map<String, Object> dimensions = new HashMap<>();
-    dimensions.put("x", 0);
-    dimensions.put("y", 0);
-    dimensions.put("width", 1920);
-    dimensions.put("height", 1080);
-    return snapshot(dimensions);
+    return snapshot(SnapshotSpec.create());
   }
 
+  /**
+   * Captures the rectangle described by the x, y, width and height of the given dimensions as a PNG image.
+   */
   public SnapshotJob snapshot(final Map<String, Object> dimensions) {
-    checkExported();
-    ensureHandle();
-    exported = true;
+    return snapshot(SnapshotSpec.fromDimensions(dimensions));
+  }
+
+  /**
+   * Captures the page as described by the given spec.
+   * @param spec area, format and scale of the image
+   */
+  public SnapshotJob snapshot(final SnapshotSpec spec) {
+    startExport();
+    return exportSnapshot(spec);
+  }
 
+  private SnapshotJob exportSnapshot(final SnapshotSpec spec) {
     LOG.info("Exporting graphic from: {}", url);
 
-    name = handle + ".png";
-    exportResult = runExport(true, d -> d.screenshot(), "snapshot");
+    name = handle + "." + spec.format().extension();
+    exportResult = cachedExport(spec.format().extension(), spec.toMap(),
+        () -> runExport(true, d -> asQuittableChrome(d).screenshot(spec, control), "snapshot"));
 
     return new SnapshotJob(this);
   }
 
+  /**
+   * Same as {@link #snapshot()}, but runs the export on the job's executor instead of the calling thread.
+   */
+  public CompletableFuture<SnapshotJob> snapshotAsync() {
+    return snapshotAsync(SnapshotSpec.create());
+  }
+
+  public CompletableFuture<SnapshotJob> snapshotAsync(final Map<String, Object> dimensions) {
+    return snapshotAsync(SnapshotSpec.fromDimensions(dimensions));
+  }
+
+  public CompletableFuture<SnapshotJob> snapshotAsync(final SnapshotSpec spec) {
+    startExport();
+    return cancellable(submit(() -> exportSnapshot(spec)));
+  }
+
   public PrintJob print() {
-    final HashMap<String, Object> printParams = new HashMap<>();
-    printParams.put("printBackground", true);
-    return print(printParams);
+    return print(defaultPrintParams());
   }
 
+  /**
+   * Prints the document. Like every export, this waits for a free slot on the Chrome host first, see {@link ChromeHostLimiter}.
+   * @param printParams parameters for Page.printToPDF
+   */
   public PrintJob print(final Map<String, Object> printParams) {
-    checkExported();
-    ensureHandle();
-    exported = true;
+    startExport();
+    return exportPdf(printParams);
+  }
 
+  private PrintJob exportPdf(final Map<String, Object> printParams) {
     name = handle + ".pdf";
-    exportResult = runExport(false, d -> d.pdf(printParams), "print");
+    exportResult = cachedExport("pdf", printParams, () -> runExport(false, d -> asQuittableChrome(d).pdf(printParams, control), "print"));
 
     return new PrintJob(this);
   }
 
+  /**
+   * Prints the document with the default print parameters, streaming it into the given target. See
+   * {@link #print(Map, OutputStream)}.
+   */
+  public PrintJob print(final OutputStream target) {
+    return print(defaultPrintParams(), target);
+  }
+
+  /**
+   * Prints the document, streaming it from Chrome into the given target in chunks. The document is never held in memory as a whole, so
+   * {@link PrintJob#result()} returns null and the job cannot be saved.
+   * @param printParams parameters for Page.printToPDF
+   * @param target stream to write the document to, left open
+   */
+  public PrintJob print(final Map<String, Object> printParams, final OutputStream target) {
+    startExport();
+
+    name = handle + ".pdf";
+    controlled(() -> exportOnce(false, d -> {
+      try {
+        asQuittableChrome(d).pdf(printParams, target, control);
+        return null;
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, "print"));
+
+    return new PrintJob(this);
+  }
+
+  /**
+   * Prints the document, streaming it into the given channel. See {@link #print(Map, OutputStream)}.
+   */
+  public PrintJob print(final Map<String, Object> printParams, final WritableByteChannel target) {
+    return print(printParams, Channels.newOutputStream(target));
+  }
+
+  /**
+   * Prints the document, streaming it into the given file. The job is considered saved to that file afterwards, so it can be post-processed
+   * through {@link PrintJob#toProcessor()}.
+   * @param printParams parameters for Page.printToPDF
+   * @param target file to write the document to
+   */
+  public PrintJob print(final Map<String, Object> printParams, final Path target) {
+    try (final OutputStream os = Files.newOutputStream(target)) {
+      final PrintJob job = print(printParams, os);
+      saved = true;
+      outputDocument = target.toString();
+      return job;
+    } catch (final IOException e) {
+      deleteQuietly(target);
+      throw new UncheckedIOException(e);
+    } catch (final RuntimeException e) {
+      deleteQuietly(target);
+      throw e;
+    }
+  }
+
+  private static void deleteQuietly(final Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (final IOException e) {
+      LOG.warn("Could not remove incomplete document: {}", file, e);
+    }
+  }
+
+  /**
+   * Loads the page and waits for it to complete once, after which any number of documents, images and HTML can be taken from it through
+   * the returned session. The session holds on to the page until it is closed.
+   *
+   * Unless another strategy is configured, the session waits for the complete indicator, like {@link #print()}. The cache is not used.
+   */
+  public ExportSession open() {
+    startExport();
+
+    LOG.info("Opening export session for: {}", url);
+    return controlled(() -> withRetry("session", () -> {
+      final PageLease lease = openPage();
+      control.attach(lease);
+      try {
+        load(lease.chrome(), false);
+      } catch (final RuntimeException e) {
+        final RuntimeException failure = control.failure(crashFailure(lease.chrome(), "session", e));
+        failed(lease, "session", failure);
+        lease.close();
+        throw failure;
+      } finally {
+        control.detach();
+      }
+      return new ExportSession(this, lease);
+    }));
+  }
+
+  /**
+   * Same as {@link #print()}, but runs the export on the job's executor instead of the calling thread.
+   */
+  public CompletableFuture<PrintJob> printAsync() {
+    return printAsync(defaultPrintParams());
+  }
+
+  public CompletableFuture<PrintJob> printAsync(final Map<String, Object> printParams) {
+    startExport();
+    return cancellable(submit(() -> exportPdf(printParams)));
+  }
+
+  static Map<String, Object> defaultPrintParams() {
+    final Map<String, Object> printParams = new HashMap<>();
+    printParams.put("printBackground", true);
+    return printParams;
+  }
+
+  private <T> CompletableFuture<T> cancellable(final CompletableFuture<T> future) {
+    future.whenComplete((result, e) -> {
+      if (future.isCancelled()) {
+        cancel();
+      }
+    });
+    return future;
+  }
+
+  private <T> CompletableFuture<T> submit(final Supplier<T> export) {
+    try {
+      return CompletableFuture.supplyAsync(export, executor());
+    } catch (final RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(new ExportRejectedException("Executor is saturated, not running export of: " + url, e));
+    }
+  }
+
+  private Executor executor() {
+    return executor == null ? ExportExecutors.defaultExecutor() : executor;
+  }
+
   private void ensureHandle() {
     // Set the handle if none is set
     if (handle == null) {
@@ -158,6 +493,12 @@ public class ExportJob {
     }
   }
 
+  private void startExport() {
+    checkExported();
+    ensureHandle();
+    exported = true;
+  }
+
   private void checkExported() {
     if (exported) {
       throw new IllegalStateException("Cannot mutate an already-exported job.");
@@ -165,12 +506,7 @@ public class ExportJob {
   }
 
   public ExportJob completeOrFailViaIndicator() {
-    return waitForComplete(chrome -> {
-      chrome.waitFor("#complete-indicator");
-      if (chrome.exists("#complete-indicator.failure")) {
-        throw new FailureIndicatorException();
-      }
-    });
+    return waitForComplete(ExportJob::waitForIndicator);
   }
 
   @Deprecated
@@ -189,6 +525,88 @@ public class ExportJob {
     });
   }
 
+  /**
+   * Complete once the page fired the networkIdle lifecycle event and no request has been in flight for a short while, or once the
+   * maximum wait time has passed, whichever comes first.
+   * @param maxWait maximum time to wait for the page to become idle
+   */
+  public ExportJob completeViaNetworkIdle(final Duration maxWait) {
+    return waitForComplete(networkIdleWait(NETWORK_IDLE, maxWait));
+  }
+
+  /**
+   * Same as {@link #completeViaNetworkIdle(Duration)}, but waits for the networkAlmostIdle lifecycle event, which allows for two
+   * long-lived connections (such as websockets or long polling) to remain open.
+   * @param maxWait maximum time to wait for the page to become idle
+   */
+  public ExportJob completeViaNetworkAlmostIdle(final Duration maxWait) {
+    return waitForComplete(networkIdleWait(NETWORK_ALMOST_IDLE, maxWait));
+  }
+
+  /**
+   * Complete once the {@code window.exportReady} promise provided by the page resolves, fail if it rejects.
+   * @param deadline maximum time to wait for the promise to settle
+   */
+  public ExportJob completeViaReadyPromise(final Duration deadline) {
+    return completeViaReadyPromise(DEFAULT_READY_PROMISE, deadline);
+  }
+
+  /**
+   * Complete once the promise the given expression evaluates to resolves, fail if it rejects. The expression is re-evaluated in the page
+   * until it returns a value, so the page may define the promise at any point during loading.
+   * @param expression expression evaluating to the readiness promise, for example {@code window.exportReady}
+   * @param deadline maximum time to wait for the promise to settle
+   */
+  public ExportJob completeViaReadyPromise(final String expression, final Duration deadline) {
+    final String script = "new Promise((resolve, reject) => {"
+        + " const check = () => { const ready = (" + expression + ");"
+        + " if (ready === undefined || ready === null) { setTimeout(check, 25); } else { Promise.resolve(ready).then(resolve, reject); } };"
+        + " check(); })";
+    return waitForComplete(chrome -> {
+      try {
+        asQuittableChrome(chrome).evaluateAwait(script, deadline);
+      } catch (final IllegalStateException e) {
+        throw new FailureIndicatorException("Page readiness promise was rejected.", e);
+      }
+    });
+  }
+
+  /**
+   * Same as {@link #completeOrFailViaIndicator()}, but watches for the indicator with a mutation observer inside the page instead of
+   * polling for it.
+   * @param deadline maximum time to wait for the indicator to appear
+   */
+  public ExportJob completeOrFailViaIndicatorObserver(final Duration deadline) {
+    return waitForComplete(chrome -> {
+      final Object failure = asQuittableChrome(chrome).evaluateAwait(INDICATOR_OBSERVER_SCRIPT, deadline);
+      if (Boolean.TRUE.equals(failure)) {
+        throw new FailureIndicatorException();
+      }
+    });
+  }
+
+  private static void waitForIndicator(final DevToolsDriver chrome) {
+    chrome.waitFor("#complete-indicator");
+    if (chrome.exists("#complete-indicator.failure")) {
+      throw new FailureIndicatorException();
+    }
+  }
+
+  private static Consumer<DevToolsDriver> networkIdleWait(final String lifecycleEvent, final Duration maxWait) {
+    return chrome -> {
+      if (!asQuittableChrome(chrome).awaitNetworkIdle(lifecycleEvent, NETWORK_QUIET_PERIOD, maxWait)) {
+        LOG.debug("Page did not reach {} within {}, continuing.", lifecycleEvent, maxWait);
+      }
+    };
+  }
+
+  private static QuittableChrome asQuittableChrome(final DevToolsDriver chrome) {
+    if (chrome instanceof final QuittableChrome quittableChrome) {
+      return quittableChrome;
+    }
+    throw new IllegalArgumentException("Wait strategy requires a QuittableChrome driver, got: " + chrome.getClass());
+  }
+
   /**
    * Add more driver options, see {@link com.intuit.karate.driver.DriverOptions} for available options.
    * @param driverOptions additional driver options
@@ -216,8 +634,25 @@ public class ExportJob {
     return this;
   }
 
-  private void waitForComplete(final DevToolsDriver driver) {
-    waitForComplete.accept(driver);
+  /**
+   * Opens the page in a browser context of its own, which shares no cookies, storage or cache with other exports and is disposed as a
+   * whole afterwards. Applies to pages opened for this export, see {@link ChromeTabPool#isolatedContexts(boolean)} for pooled pages.
+   */
+  public ExportJob isolatedContext(final boolean isolatedContext) {
+    checkExported();
+    this.isolatedContext = isolatedContext;
+    return this;
+  }
+
+  /**
+   * Talks to the page through a single connection to the browser shared by all exports on the host, instead of through a connection of
+   * its own. Keeps the number of sockets and threads flat as the number of concurrent exports grows. Applies to pages opened for this
+   * export, see {@link ChromeTabPool#sharedConnection(boolean)} for pooled pages.
+   */
+  public ExportJob sharedConnection(final boolean sharedConnection) {
+    checkExported();
+    this.sharedConnection = sharedConnection;
+    return this;
   }
 
   /**
@@ -228,10 +663,16 @@ public class ExportJob {
       return this;
     }
 
+    if (exportResult == null) {
+      throw new IllegalStateException("Cannot save a job that was streamed to a target or not exported yet.");
+    }
+
     saved = true;
     outputDocument = destination + name;
     LOG.info("Writing file to: {}", outputDocument);
+    final long start = System.nanoTime();
     FileUtils.writeToFile(new File(outputDocument), exportResult);
+    metrics.onPhase(ExportPhase.SAVE, start, exportResult.length);
     return this;
   }
 
@@ -239,51 +680,145 @@ public class ExportJob {
     return exportResult;
   }
 
-  private QuittableChrome fetchChrome() {
-    final Map<String, Object> options = new HashMap<>(driverOptions);
-    options.put("start", false);
-    options.put("headless", true);
-    options.put("host", host);
+  ExportMetrics exportMetrics() {
+    return metrics;
+  }
+
+  private byte[] cachedExport(final String type, final Map<String, Object> parameters, final Supplier<byte[]> export) {
+    if (cache == null) {
+      return export.get();
+    }
 
-    final QuittableChrome chrome = QuittableChrome.prepareAndStart(options, trackNetworkFailures);
-    chrome.retry(retryCount);
+    final String key = ExportCache.key(type, url, parameters, cacheVersion);
+    final byte[] cached = cache.get(key);
+    if (cached != null) {
+      LOG.info("Using cached export of: {}", url);
+      return cached;
+    }
 
-    return chrome;
+    final byte[] result = export.get();
+    cache.put(key, result);
+    return result;
   }
 
-  private byte[] runExport(final boolean useSleepWait, final Function<DevToolsDriver, byte[]> exporter,
+  private byte[] runExport(final boolean useIdleWait, final Function<DevToolsDriver, byte[]> exporter,
       final String failurePhase) {
-    final QuittableChrome chrome = fetchChrome();
-    try {
-      chrome.setUrl(url);
+    return controlled(() -> withRetry(failurePhase, () -> exportOnce(useIdleWait, exporter, failurePhase)));
+  }
 
-      if (waitForComplete == null) {
-        if (useSleepWait) {
-          completeViaSleep();
-        } else {
-          completeViaIndicator();
-        }
+  private byte[] exportOnce(final boolean useIdleWait, final Function<DevToolsDriver, byte[]> exporter,
+      final String failurePhase) {
+    try (final PageLease lease = openPage()) {
+      final QuittableChrome chrome = lease.chrome();
+      control.attach(lease);
+      try {
+        load(chrome, useIdleWait);
+        return exporter.apply(chrome);
+      } catch (final RuntimeException e) {
+        final RuntimeException failure = control.failure(crashFailure(chrome, failurePhase, e));
+        failed(lease, failurePhase, failure);
+        throw failure;
+      } finally {
+        control.detach();
       }
-      waitForComplete(chrome);
+    }
+  }
+
+  /**
+   * Runs the export under the deadline of the job, and so that it can be cancelled.
+   */
+  private <T> T controlled(final Supplier<T> export) {
+    control.start(url, metrics, deadline);
+    try {
+      return export.get();
+    } catch (final RuntimeException e) {
+      throw control.failure(e);
+    } finally {
+      control.finish();
+    }
+  }
 
-      if (completeHook != null) {
+  /**
+   * Runs the attempt, and runs it again for as long as it fails in a way the retry policy retries.
+   */
+  private <T> T withRetry(final String failurePhase, final Supplier<T> attempt) {
+    for (int attemptNumber = 1;; attemptNumber++) {
+      try {
+        control.attempt();
+        return attempt.get();
+      } catch (final RuntimeException e) {
+        if (retryPolicy == null || control.isAborted() || !retryPolicy.shouldRetry(e, attemptNumber)) {
+          throw e;
+        }
+        final Duration backoff = retryPolicy.backoff(attemptNumber);
+        LOG.warn("Attempt {} of {} failed with {} failure, retrying in {} ms: {}", attemptNumber, failurePhase, RetryPolicy.classify(e),
+            backoff.toMillis(), e.getMessage());
         try {
-          completeHook.accept(chrome, url, "complete", null);
-        } catch (final RuntimeException ignored) {
-          LOG.warn("Failure during completeHook execution, ignoring.", ignored);
+          Thread.sleep(backoff.toMillis());
+        } catch (final InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
         }
       }
+    }
+  }
 
-      return exporter.apply(chrome);
-    } catch (final FailureIndicatorException e) {
-      fail(chrome, failurePhase, e);
-      throw e;
-    } catch (final RuntimeException e) {
-      fail(chrome, failurePhase, e);
+  /**
+   * The driver only notices a crashed page as commands that fail or time out, so report such failures as the crash they are.
+   */
+  private RuntimeException crashFailure(final QuittableChrome chrome, final String failurePhase, final RuntimeException e) {
+    return chrome.isCrashed() && !(e instanceof PageCrashedException)
+        ? new PageCrashedException("Page crashed during " + failurePhase + " of: " + url, e)
+        : e;
+  }
+
+  private PageLease openPage() {
+    return PageLease.open(host, driverOptions, trackNetworkFailures, isolatedContext, sharedConnection, retryCount, tabPool, chromeCluster,
+        circuitBreaker, control);
+  }
+
+  /**
+   * Navigates to the URL and waits for the document to complete.
+   */
+  private void load(final QuittableChrome chrome, final boolean useIdleWait) {
+    final long navigateStart = System.nanoTime();
+    if (requestPolicy != null || assetCache != null) {
+      chrome.intercept(requestPolicy, assetCache);
+    }
+    chrome.setUrl(url);
+    control.onPhase(ExportPhase.NAVIGATE, navigateStart, 0);
+
+    final long waitStart = System.nanoTime();
+    if (waitForComplete != null) {
+      waitForComplete.accept(chrome);
+    } else if (useIdleWait) {
+      networkIdleWait(NETWORK_IDLE, DEFAULT_SNAPSHOT_WAIT).accept(chrome);
+    } else {
+      waitForIndicator(chrome);
+    }
+    control.onPhase(ExportPhase.WAIT_FOR_COMPLETE, waitStart, 0);
+
+    if (completeHook != null) {
+      try {
+        completeHook.accept(chrome, url, "complete", null);
+      } catch (final RuntimeException ignored) {
+        LOG.warn("Failure during completeHook execution, ignoring.", ignored);
+      }
+    }
+  }
+
+  /**
+   * Handles a failure of the export on the leased page: reports it to the failure hook and, unless the page itself indicated the
+   * failure, marks the page as broken.
+   */
+  void failed(final PageLease lease, final String failurePhase, final RuntimeException e) {
+    lease.failed(e);
+    if (e instanceof FailureIndicatorException) {
+      fail(lease.chrome(), failurePhase, e);
+    } else {
+      lease.markBroken();
+      fail(lease.chrome(), failurePhase, e);
       LOG.error("Unrecoverable failure while executing export.", e);
-      throw e;
-    } finally {
-      chrome.quit();
     }
   }
 
@@ -292,6 +827,9 @@ public class ExportJob {
       LOG.warn("Network failure during {}: url={} error={} status={} referer={} body={}",
           failurePhase, failure.url(), failure.errorText(), failure.responseStatus(), failure.referer(), failure.responseBody());
     }
+    if (chrome.getDroppedNetworkFailures() > 0) {
+      LOG.warn("{} more network failures during {} were not retained.", chrome.getDroppedNetworkFailures(), failurePhase);
+    }
     if (failureHook != null) {
       failureHook.accept(chrome, url, failurePhase, cause);
     }
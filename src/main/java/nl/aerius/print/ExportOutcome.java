@@ -0,0 +1,34 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+/**
+ * Result of a single export in an {@link ExportBatch}. Either the job or the failure is set.
+ *
+ * @param spec the spec that was exported
+ * @param job the printed document, null if the export failed
+ * @param failure the cause of the failure, null if the export succeeded
+ */
+public record ExportOutcome(
+    ExportSpec spec,
+    PrintJob job,
+    Throwable failure) {
+
+  public boolean succeeded() {
+    return failure == null;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A loaded and completed page, from which several outputs can be taken without loading the page again. Obtained through
+ * {@link ExportJob#open()}, and must be closed to hand back the page.
+ *
+ * <pre>
+ * try (ExportSession session = ExportJob.create(url).open()) {
+ *   byte[] report = session.pdf();
+ *   byte[] chart = session.snapshot(SnapshotSpec.create().selector("#chart"));
+ *   String html = session.html();
+ * }
+ * </pre>
+ *
+ * A session is not thread-safe; outputs are taken one after another from the same page.
+ */
+public class ExportSession implements AutoCloseable {
+  private static final Duration HTML_TIMEOUT = Duration.ofSeconds(10);
+  private static final String HTML_SCRIPT = "(document.doctype ? new XMLSerializer().serializeToString(document.doctype) : '')"
+      + " + document.documentElement.outerHTML";
+
+  private final ExportJob job;
+  private final PageLease lease;
+
+  private boolean closed;
+
+  ExportSession(final ExportJob job, final PageLease lease) {
+    this.job = job;
+    this.lease = lease;
+  }
+
+  /**
+   * Prints the page with the default print parameters.
+   */
+  public byte[] pdf() {
+    return pdf(ExportJob.defaultPrintParams());
+  }
+
+  /**
+   * @param printParams parameters for Page.printToPDF
+   */
+  public byte[] pdf(final Map<String, Object> printParams) {
+    return output("print", chrome -> chrome.pdf(printParams, job.exportMetrics()));
+  }
+
+  /**
+   * Captures the page as described by the given spec.
+   */
+  public byte[] snapshot(final SnapshotSpec spec) {
+    return output("snapshot", chrome -> chrome.screenshot(spec, job.exportMetrics()));
+  }
+
+  /**
+   * @return the HTML of the page as it currently is, including changes made by scripts
+   */
+  public String html() {
+    return output("html", chrome -> String.valueOf(chrome.evaluateAwait(HTML_SCRIPT, HTML_TIMEOUT)));
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      lease.close();
+    }
+  }
+
+  private <T> T output(final String phase, final Function<QuittableChrome, T> output) {
+    if (closed) {
+      throw new IllegalStateException("Cannot take output from a closed session.");
+    }
+    try {
+      return output.apply(lease.chrome());
+    } catch (final RuntimeException e) {
+      job.failed(lease, phase, e);
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.intuit.karate.driver.DevToolsDriver;
+
+/**
+ * Description of a single print export in an {@link ExportBatch}.
+ *
+ * @param url url of the document to print
+ * @param handle handle (file name without extension) of the document, generated if null
+ * @param printParams parameters for Page.printToPDF, the default print parameters are used if null
+ * @param waitForComplete wait strategy, waits for the complete indicator if null
+ */
+public record ExportSpec(
+    String url,
+    String handle,
+    Map<String, Object> printParams,
+    Consumer<DevToolsDriver> waitForComplete) {
+
+  public static ExportSpec of(final String url) {
+    return new ExportSpec(url, null, null, null);
+  }
+
+  public static ExportSpec of(final String url, final String handle) {
+    return new ExportSpec(url, handle, null, null);
+  }
+}
@@ -16,27 +16,69 @@
  */
 package nl.aerius.print;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Keeps track of failed network requests of a page, from the Network domain events.
+ *
+ * Only requests in flight are kept until they finish, so pages with many (successful) requests do not accumulate bookkeeping. At most
+ * {@code maxFailures} failures are retained, further failures are only counted.
+ */
 public class NetworkFailureTracker {
   private static final Logger LOG = LoggerFactory.getLogger(NetworkFailureTracker.class);
 
+  private static final int DEFAULT_MAX_FAILURES = 100;
+  private static final int DEFAULT_MAX_BODY_BYTES = 4 * 1024;
+  private static final Duration DEFAULT_BODY_FETCH_BUDGET = Duration.ofSeconds(2);
+
   private record RequestData(String url, String method, String referer) {}
-  private record FailureData(String requestId, String errorText, String resourceType, boolean canceled) {}
 
+  private record FailureData(String requestId, RequestData request, Integer status, String errorText, String resourceType,
+      boolean canceled) {}
+
+  private final int maxFailures;
+  private final int maxBodyBytes;
+  private final Duration bodyFetchBudget;
+
+  // Requests in flight
   private final Map<String, RequestData> requests = new ConcurrentHashMap<>();
   private final Map<String, Integer> responseStatuses = new ConcurrentHashMap<>();
-  private final List<FailureData> failures = new CopyOnWriteArrayList<>();
-  private final Set<String> httpErrorRequestIds = ConcurrentHashMap.newKeySet();
+  // Retained failures in order of occurrence, keyed by request ID, guarded by itself
+  private final Map<String, FailureData> failures = new LinkedHashMap<>();
+  private final AtomicLong droppedFailures = new AtomicLong();
+  private final AtomicLong anonymousFailures = new AtomicLong();
+
+  public NetworkFailureTracker() {
+    this(DEFAULT_MAX_FAILURES, DEFAULT_MAX_BODY_BYTES, DEFAULT_BODY_FETCH_BUDGET);
+  }
+
+  /**
+   * @param maxFailures maximum number of failures retained
+   * @param maxBodyBytes maximum number of bytes kept of each response body
+   * @param bodyFetchBudget maximum time spent fetching response bodies in {@link #getFailures(Function)}
+   */
+  public NetworkFailureTracker(final int maxFailures, final int maxBodyBytes, final Duration bodyFetchBudget) {
+    this.maxFailures = maxFailures;
+    this.maxBodyBytes = maxBodyBytes;
+    this.bodyFetchBudget = bodyFetchBudget;
+  }
 
   public void onRequest(final String requestId, final String url, final String method, final String referer) {
     if (requestId != null) {
@@ -48,63 +90,138 @@ public class NetworkFailureTracker {
     if (requestId != null && status != null) {
       responseStatuses.put(requestId, status);
       if (status >= 400) {
-        httpErrorRequestIds.add(requestId);
         final RequestData req = requests.get(requestId);
-        LOG.warn("HTTP error response: url={} status={}",
-            req != null ? req.url() : "unknown", status);
+        if (retain(requestId, new FailureData(requestId, req, status, null, null, false))) {
+          LOG.warn("HTTP error response: url={} status={}", req != null ? req.url() : "unknown", status);
+        }
       }
     }
   }
 
+  /**
+   * Forgets the bookkeeping of a request that finished loading. A failure already recorded for the request is kept.
+   */
+  public void onLoadingFinished(final String requestId) {
+    if (requestId != null) {
+      requests.remove(requestId);
+      responseStatuses.remove(requestId);
+    }
+  }
+
   public void onLoadingFailed(final String requestId, final String errorText, final String resourceType, final Boolean canceled) {
     final boolean isCanceled = canceled != null && canceled;
-    failures.add(new FailureData(requestId, errorText, resourceType, isCanceled));
-    // Remove from httpErrorRequestIds to avoid duplicate reporting
-    if (requestId != null) {
-      httpErrorRequestIds.remove(requestId);
+    final RequestData req = requestId != null ? requests.remove(requestId) : null;
+    final Integer status = requestId != null ? responseStatuses.remove(requestId) : null;
+    // Replaces the HTTP error recorded for the same request, if any, to avoid duplicate reporting
+    final String key = requestId != null ? requestId : "anonymous-" + anonymousFailures.incrementAndGet();
+    if (retain(key, new FailureData(requestId, req, status, errorText, resourceType, isCanceled))) {
+      LOG.warn("Network request failed: url={} error={} type={} canceled={} referer={}",
+          req != null ? req.url() : "unknown", errorText, resourceType, isCanceled,
+          req != null ? req.referer() : "unknown");
+    }
+  }
+
+  public void clear() {
+    requests.clear();
+    responseStatuses.clear();
+    synchronized (failures) {
+      failures.clear();
     }
+    droppedFailures.set(0);
+  }
+
+  /**
+   * @return the number of failures that were not retained because the maximum was reached
+   */
+  public long getDroppedFailures() {
+    return droppedFailures.get();
+  }
 
-    final RequestData req = requestId != null ? requests.get(requestId) : null;
-    LOG.warn("Network request failed: url={} error={} type={} canceled={} referer={}",
-        req != null ? req.url() : "unknown", errorText, resourceType, isCanceled,
-        req != null ? req.referer() : "unknown");
+  /**
+   * @return the number of requests in flight
+   */
+  int getRequestsInFlight() {
+    return requests.size();
   }
 
-  public List<NetworkFailure> getFailures(final Function<String, String> bodyFetcher) {
-    final List<NetworkFailure> result = new ArrayList<>();
+  /**
+   * Returns the retained failures. Response bodies are fetched all at once through the given fetcher, and only bodies that arrive within
+   * the fetch budget are included, truncated to the maximum number of bytes.
+   *
+   * @param bodyFetcher starts fetching the response body of the request with the given ID
+   */
+  public List<NetworkFailure> getFailures(final Function<String, CompletableFuture<String>> bodyFetcher) {
+    final List<FailureData> retained;
+    synchronized (failures) {
+      retained = new ArrayList<>(failures.values());
+    }
+
+    final List<CompletableFuture<String>> bodies = new ArrayList<>(retained.size());
+    for (final FailureData failure : retained) {
+      bodies.add(failure.requestId() == null ? CompletableFuture.completedFuture(null) : fetch(bodyFetcher, failure.requestId()));
+    }
+    awaitBodies(bodies);
 
-    // Network-level failures (loadingFailed)
-    for (final FailureData failure : failures) {
-      final RequestData req = failure.requestId() != null ? requests.get(failure.requestId()) : null;
-      final Integer status = failure.requestId() != null ? responseStatuses.get(failure.requestId()) : null;
-      final String body = bodyFetcher.apply(failure.requestId());
+    final List<NetworkFailure> result = new ArrayList<>(retained.size());
+    for (int i = 0; i < retained.size(); i++) {
+      final FailureData failure = retained.get(i);
+      final RequestData req = failure.request();
+      final CompletableFuture<String> body = bodies.get(i);
+      body.cancel(false);
       result.add(new NetworkFailure(
           req != null ? req.url() : "unknown",
           req != null ? req.method() : "unknown",
           failure.errorText(),
           failure.resourceType(),
           failure.canceled(),
-          status,
-          body,
+          failure.status(),
+          truncate(body.isDone() && !body.isCompletedExceptionally() ? body.join() : null),
           req != null ? req.referer() : null));
     }
+    return result;
+  }
 
-    // HTTP error responses (4xx/5xx) that didn't also trigger loadingFailed
-    for (final String requestId : httpErrorRequestIds) {
-      final RequestData req = requests.get(requestId);
-      final Integer status = responseStatuses.get(requestId);
-      final String body = bodyFetcher.apply(requestId);
-      result.add(new NetworkFailure(
-          req != null ? req.url() : "unknown",
-          req != null ? req.method() : "unknown",
-          null,
-          null,
-          false,
-          status,
-          body,
-          req != null ? req.referer() : null));
+  private boolean retain(final String key, final FailureData failure) {
+    synchronized (failures) {
+      if (failures.containsKey(key) || failures.size() < maxFailures) {
+        failures.put(key, failure);
+        return true;
+      }
     }
+    if (droppedFailures.incrementAndGet() == 1) {
+      LOG.warn("More than {} network failures, only counting further failures.", maxFailures);
+    }
+    return false;
+  }
 
-    return result;
+  private static CompletableFuture<String> fetch(final Function<String, CompletableFuture<String>> bodyFetcher, final String requestId) {
+    try {
+      return bodyFetcher.apply(requestId);
+    } catch (final RuntimeException e) {
+      LOG.trace("Could not fetch response body for requestId={}: {}", requestId, e.getMessage());
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  private void awaitBodies(final List<CompletableFuture<String>> bodies) {
+    try {
+      // Failed fetches have no body, so they should not end the wait for the others
+      CompletableFuture.allOf(bodies.stream().map(body -> body.exceptionally(e -> null)).toArray(CompletableFuture[]::new))
+          .get(bodyFetchBudget.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException | TimeoutException e) {
+      // Bodies still being fetched when the budget runs out are left out
+      LOG.debug("Not all response bodies fetched within {}.", bodyFetchBudget);
+    }
+  }
+
+  private String truncate(final String body) {
+    if (body == null || body.length() * 3L <= maxBodyBytes) {
+      return body;
+    }
+    final CharBuffer chars = CharBuffer.wrap(body);
+    StandardCharsets.UTF_8.newEncoder().encode(chars, ByteBuffer.allocate(maxBodyBytes), true);
+    return chars.hasRemaining() ? body.substring(0, chars.position()) + "... (truncated)" : body;
   }
 }
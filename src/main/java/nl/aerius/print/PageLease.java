@@ -0,0 +1,161 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.aerius.metrics.ExportPhase;
+import nl.aerius.pdf.SlotTimeoutException;
+
+/**
+ * A Chrome page in use by a single export, together with everything that has to be handed back once the export is done: the slot in the
+ * {@link ChromeHostLimiter}, the page in its {@link ChromeTabPool}, the export in flight on its {@link ChromeCluster} host and the outcome
+ * of the export to the {@link CircuitBreaker} of the host.
+ */
+final class PageLease implements AutoCloseable {
+  private final ChromeCluster cluster;
+  private final ChromeCluster.Node node;
+  private final ChromeTabPool tabPool;
+  private final String limiterHost;
+  private final CircuitBreaker circuitBreaker;
+  private final boolean probe;
+  private final QuittableChrome chrome;
+
+  private volatile boolean broken;
+  private RuntimeException failure;
+
+  private PageLease(final ChromeCluster cluster, final ChromeCluster.Node node, final ChromeTabPool tabPool, final String limiterHost,
+      final CircuitBreaker circuitBreaker, final boolean probe, final QuittableChrome chrome) {
+    this.cluster = cluster;
+    this.node = node;
+    this.tabPool = tabPool;
+    this.limiterHost = limiterHost;
+    this.circuitBreaker = circuitBreaker;
+    this.probe = probe;
+    this.chrome = chrome;
+  }
+
+  /**
+   * Opens a page, either on the least loaded host of the cluster, from the pool, or as a new page on the given host, in that order of
+   * preference. Fails fast if the circuit of the host is open.
+   */
+  static PageLease open(final String host, final Map<String, Object> driverOptions, final boolean trackNetworkFailures,
+      final boolean isolatedContext, final boolean sharedConnection, final int retryCount, final ChromeTabPool tabPool,
+      final ChromeCluster cluster, final CircuitBreaker circuitBreaker, final ExportControl control) {
+    final long acquireStart = System.nanoTime();
+    final ChromeCluster.Node node = cluster == null ? null : cluster.acquire();
+    final ChromeTabPool pool = node == null ? tabPool : node.tabPool();
+    final String limiterHost = node != null ? node.address()
+        : pool != null ? pool.address() : ChromeHostLimiter.address(host, driverOptions);
+
+    final boolean probe;
+    try {
+      probe = circuitBreaker != null && circuitBreaker.acquire(limiterHost);
+    } catch (final RuntimeException e) {
+      if (node != null) {
+        cluster.release(node, false);
+      }
+      throw e;
+    }
+
+    try {
+      ChromeHostLimiter.acquire(limiterHost);
+    } catch (final RuntimeException e) {
+      final RuntimeException failure = control.failure(e);
+      if (circuitBreaker != null) {
+        circuitBreaker.release(limiterHost, probe, failure);
+      }
+      if (node != null) {
+        cluster.release(node, false);
+      }
+      throw failure;
+    }
+    control.onPhase(ExportPhase.ACQUIRE, acquireStart, 0);
+
+    final long openStart = System.nanoTime();
+    final QuittableChrome chrome;
+    try {
+      if (pool == null) {
+        final Map<String, Object> options = new HashMap<>(driverOptions);
+        options.put("start", false);
+        options.put("headless", true);
+        options.put("host", node == null ? host : node.host());
+        if (node != null) {
+          options.put("port", node.port());
+        }
+        chrome = QuittableChrome.prepareAndStart(options, trackNetworkFailures, isolatedContext, sharedConnection);
+      } else {
+        chrome = pool.borrow();
+      }
+    } catch (final RuntimeException e) {
+      // Reported as the abort it is if the export was cancelled meanwhile, which says nothing about the host
+      final RuntimeException failure = control.failure(e);
+      ChromeHostLimiter.release(limiterHost);
+      if (circuitBreaker != null) {
+        circuitBreaker.release(limiterHost, probe, failure);
+      }
+      if (node != null) {
+        // Waiting too long for a page of the pool is not the fault of the host
+        cluster.release(node, !(e instanceof SlotTimeoutException));
+      }
+      throw failure;
+    }
+
+    control.onPhase(ExportPhase.OPEN_PAGE, openStart, 0);
+
+    chrome.retry(retryCount);
+    return new PageLease(cluster, node, pool, limiterHost, circuitBreaker, probe, chrome);
+  }
+
+  QuittableChrome chrome() {
+    return chrome;
+  }
+
+  /**
+   * Marks the page as being in an unknown state, so it is closed instead of reused.
+   */
+  void markBroken() {
+    broken = true;
+  }
+
+  /**
+   * Records the failure the export ended in, reported to the circuit breaker on close.
+   */
+  void failed(final RuntimeException failure) {
+    this.failure = failure;
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (tabPool == null) {
+        chrome.quit();
+      } else {
+        tabPool.release(chrome, broken);
+      }
+    } finally {
+      ChromeHostLimiter.release(limiterHost);
+      if (circuitBreaker != null) {
+        circuitBreaker.release(limiterHost, probe, failure);
+      }
+      if (node != null) {
+        cluster.release(node, false);
+      }
+    }
+  }
+}
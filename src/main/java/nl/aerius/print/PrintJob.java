@@ -24,15 +24,17 @@ public class PrintJob extends OutputJob {
   }
 
   public PdfProcessingHandle toProcessor() {
-    // The processor assumes the document is saved to disk
-    if (!job.saved()) {
-      job.save();
+    // Process straight from memory if possible, a streamed document is only available on disk
+    if (job.result() != null) {
+      return PdfProcessingHandle.create(job.result())
+          .metrics(job.exportMetrics());
     }
 
     if (job.outputDocument() == null) {
       throw new IllegalStateException("Cannot move to processor without first printing a document.");
     }
 
-    return PdfProcessingHandle.create(job.outputDocument());
+    return PdfProcessingHandle.create(job.outputDocument())
+        .metrics(job.exportMetrics());
   }
 }
@@ -16,9 +16,21 @@
  */
 package nl.aerius.print;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,27 +52,75 @@ import com.intuit.karate.http.HttpClientFactory;
 import com.intuit.karate.http.Response;
 import com.intuit.karate.shell.Command;
 
+import nl.aerius.metrics.ExportMetrics;
+import nl.aerius.metrics.ExportPhase;
+import nl.aerius.pdf.PageCrashedException;
+import nl.aerius.pdf.TimeoutException;
+
 public class QuittableChrome extends DevToolsDriver {
   private static final Logger LOG = LoggerFactory.getLogger(QuittableChrome.class);
 
+  private static final String BLANK_PAGE = "about:blank";
+  private static final int STREAM_CHUNK_SIZE = 512 * 1024;
+  private static final Duration ELEMENT_LOOKUP_TIMEOUT = Duration.ofSeconds(5);
+  private static final String ELEMENT_CLIP_SCRIPT = "(() => { const element = document.querySelector('%s');"
+      + " if (!element) { return null; } const rect = element.getBoundingClientRect();"
+      + " return { x: rect.left + window.scrollX, y: rect.top + window.scrollY, width: rect.width, height: rect.height }; })()";
+
   private final String id;
+  private final String browserContextId;
+  private final BrowserConnection browser;
+  private final BrowserConnection.Session session;
   private final boolean trackNetworkFailures;
   private final NetworkFailureTracker networkFailureTracker;
 
+  // Lifecycle events of the current document in the root frame, and network requests in flight, guarded by the lock
+  private final Object pageStateLock = new Object();
+  private final Set<String> lifecycleEvents = new HashSet<>();
+  private final Set<String> requestsInFlight = new HashSet<>();
+  private long lastNetworkActivity = System.nanoTime();
+  private volatile RequestPolicy requestPolicy;
+  private volatile AssetCache assetCache;
+  private boolean intercepting;
+  // Replies to commands sent through sendAsync, by message ID
+  private final Map<Integer, CompletableFuture<DevToolsMessage>> pendingReplies = new ConcurrentHashMap<>();
+  private boolean networkEventsEnabled;
+  private volatile boolean crashed;
+  private final AtomicBoolean targetClosed = new AtomicBoolean();
+  private volatile boolean aborted;
+
   public QuittableChrome(final Response res, final DriverOptions options, final Command command, final String webSocketUrl,
       final boolean trackNetworkFailures) {
+    // Fetch the page ID
+    this(res.json().get("$.id"), null, null, false, options, command, webSocketUrl, trackNetworkFailures);
+  }
+
+  private QuittableChrome(final String id, final String browserContextId, final BrowserConnection browser, final boolean sharedConnection,
+      final DriverOptions options, final Command command, final String webSocketUrl, final boolean trackNetworkFailures) {
     super(options, command, webSocketUrl);
 
+    this.id = id;
+    this.browserContextId = browserContextId;
+    this.browser = browser;
     this.trackNetworkFailures = trackNetworkFailures;
     this.networkFailureTracker = trackNetworkFailures ? new NetworkFailureTracker() : null;
-
-    // Fetch the page ID
-    id = res.json().get("$.id");
     LOG.info("Page ID created: {}", id);
 
-    activate();
+    if (sharedConnection) {
+      // The driver always connects when it is created, which was to the detached page endpoint rather than to the page itself. From here
+      // on the page is only talked to through the browser connection
+      client.close();
+      session = browser.attach(id, message -> receive(new DevToolsMessage(this, message)), this::onDetached);
+      sessionId = session.id();
+      // Unlike activate(), does not discover targets, which would send every page the events of all others over the shared connection
+      method("Target.activateTarget").param("targetId", id).send();
+    } else {
+      session = null;
+      activate();
+    }
     enablePageEvents();
     enableRuntimeEvents();
+    method("Page.setLifecycleEventsEnabled").param("enabled", true).send();
     if (trackNetworkFailures) {
       enableNetworkEvents();
     }
@@ -74,6 +134,26 @@ public class QuittableChrome extends DevToolsDriver {
   }
 
   public static QuittableChrome prepareAndStart(final Map<String, Object> map, final boolean trackNetworkFailures) {
+    return prepareAndStart(map, trackNetworkFailures, false);
+  }
+
+  /**
+   * @param isolatedContext whether to open the page in a browser context of its own, disposed when the page is closed, instead of in the
+   *          default context shared by all pages of the browser
+   */
+  public static QuittableChrome prepareAndStart(final Map<String, Object> map, final boolean trackNetworkFailures,
+      final boolean isolatedContext) {
+    return prepareAndStart(map, trackNetworkFailures, isolatedContext, false);
+  }
+
+  /**
+   * @param isolatedContext whether to open the page in a browser context of its own, disposed when the page is closed, instead of in the
+   *          default context shared by all pages of the browser
+   * @param sharedConnection whether to talk to the page through the {@link BrowserConnection} shared by all pages on the host, instead of
+   *          through a connection of its own
+   */
+  public static QuittableChrome prepareAndStart(final Map<String, Object> map, final boolean trackNetworkFailures,
+      final boolean isolatedContext, final boolean sharedConnection) {
     final Map<String, Object> props = new HashMap<>();
     if (map != null) {
       props.putAll(map);
@@ -90,12 +170,49 @@ public class QuittableChrome extends DevToolsDriver {
       options.arg("--headless");
     }
     // Create a page
-    final Http http = options.getHttp();
-    Command.waitForHttp(http.urlBase);
-    final Response res = http.path("json", "new").put(null);
+    if (!isolatedContext && !sharedConnection) {
+      final Http http = options.getHttp();
+      Command.waitForHttp(http.urlBase);
+      final Response res = http.path("json", "new").put(null);
 
-    final String webSocketUrl = res.json().get("$.webSocketDebuggerUrl");
-    return new QuittableChrome(res, options, null, webSocketUrl, trackNetworkFailures);
+      final String webSocketUrl = res.json().get("$.webSocketDebuggerUrl");
+      return new QuittableChrome(res, options, null, webSocketUrl, trackNetworkFailures);
+    }
+
+    // Pages in another browser context cannot be created through the HTTP endpoint
+    final BrowserConnection browser = BrowserConnection.of(options.host, options.port);
+    final String browserContextId = isolatedContext ? browser.createBrowserContext() : null;
+    String targetId = null;
+    try {
+      targetId = browser.createTarget(browserContextId);
+      final String webSocketUrl = sharedConnection
+          ? DetachedPageEndpoint.url(targetId)
+          : "ws://" + options.host + ":" + options.port + "/devtools/page/" + targetId;
+      return new QuittableChrome(targetId, browserContextId, browser, sharedConnection, options, null, webSocketUrl, trackNetworkFailures);
+    } catch (final RuntimeException e) {
+      if (browserContextId != null) {
+        disposeQuietly(browser, browserContextId);
+      } else if (targetId != null) {
+        closeQuietly(browser, targetId);
+      }
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(final BrowserConnection browser, final String targetId) {
+    try {
+      browser.closeTarget(targetId);
+    } catch (final RuntimeException e) {
+      LOG.debug("Could not close page ID {}: {}", targetId, e.getMessage());
+    }
+  }
+
+  private static void disposeQuietly(final BrowserConnection browser, final String browserContextId) {
+    try {
+      browser.disposeBrowserContext(browserContextId);
+    } catch (final RuntimeException e) {
+      LOG.debug("Could not dispose browser context {}: {}", browserContextId, e.getMessage());
+    }
   }
 
   private static synchronized ScenarioRuntime createRuntime() {
@@ -117,12 +234,27 @@ public class QuittableChrome extends DevToolsDriver {
 
   @Override
   public void receive(final DevToolsMessage dtm) {
+    final CompletableFuture<DevToolsMessage> reply = dtm.getId() == null ? null : pendingReplies.get(dtm.getId());
+    if (reply != null) {
+      reply.complete(dtm);
+      return;
+    }
+    if (dtm.methodIs("Fetch.requestPaused")) {
+      continuePausedRequest(dtm);
+      return;
+    }
+    if (dtm.methodIs("Inspector.targetCrashed")) {
+      onCrashed();
+    }
+    trackPageState(dtm);
     if (trackNetworkFailures) {
       if (dtm.methodIs("Network.requestWillBeSent")) {
         networkFailureTracker.onRequest(dtm.getParam("requestId"), dtm.getParam("request.url"), dtm.getParam("request.method"),
             dtm.getParam("request.headers.Referer"));
       } else if (dtm.methodIs("Network.responseReceived")) {
         networkFailureTracker.onResponse(dtm.getParam("requestId"), dtm.getParam("response.status"));
+      } else if (dtm.methodIs("Network.loadingFinished")) {
+        networkFailureTracker.onLoadingFinished(dtm.getParam("requestId"));
       } else if (dtm.methodIs("Network.loadingFailed")) {
         networkFailureTracker.onLoadingFailed(dtm.getParam("requestId"), dtm.getParam("errorText"), dtm.getParam("type"),
             dtm.getParam("canceled"));
@@ -131,39 +263,559 @@ public class QuittableChrome extends DevToolsDriver {
     super.receive(dtm);
   }
 
+  private void onDetached() {
+    if (!targetClosed.get()) {
+      onCrashed();
+    }
+  }
+
+  private void onCrashed() {
+    LOG.warn("Page ID {} crashed.", id);
+    crashed = true;
+    // Nothing will answer anymore, so stop waiting
+    pendingReplies.values().forEach(reply -> reply.completeExceptionally(new PageCrashedException("Page ID " + id + " crashed.")));
+    synchronized (pageStateLock) {
+      pageStateLock.notifyAll();
+    }
+  }
+
+  /**
+   * @return whether the page crashed, after which it no longer responds
+   */
+  public boolean isCrashed() {
+    return crashed;
+  }
+
+  private void trackPageState(final DevToolsMessage dtm) {
+    if (dtm.methodIs("Page.lifecycleEvent")) {
+      if (rootFrameId.equals(dtm.getParam("frameId"))) {
+        final String name = dtm.getParam("name");
+        synchronized (pageStateLock) {
+          // Each new document in the root frame starts with an init event
+          if ("init".equals(name)) {
+            lifecycleEvents.clear();
+          }
+          lifecycleEvents.add(name);
+          pageStateLock.notifyAll();
+        }
+      }
+    } else if (dtm.methodIs("Network.requestWillBeSent")) {
+      updateRequestsInFlight(dtm.getParam("requestId"), true);
+    } else if (dtm.methodIs("Network.loadingFinished") || dtm.methodIs("Network.loadingFailed")) {
+      updateRequestsInFlight(dtm.getParam("requestId"), false);
+    }
+  }
+
+  private void updateRequestsInFlight(final String requestId, final boolean started) {
+    synchronized (pageStateLock) {
+      if (started) {
+        requestsInFlight.add(requestId);
+      } else {
+        requestsInFlight.remove(requestId);
+      }
+      lastNetworkActivity = System.nanoTime();
+      pageStateLock.notifyAll();
+    }
+  }
+
+  @Override
+  public void enableNetworkEvents() {
+    if (!networkEventsEnabled) {
+      networkEventsEnabled = true;
+      super.enableNetworkEvents();
+    }
+  }
+
+  /**
+   * Intercepts the requests the page makes from now on through the Fetch domain, to apply the given policy and to answer requests for
+   * assets from the given cache. Requests the policy lets through are answered from the cache if it holds them.
+   *
+   * @param policy policy to apply, or null
+   * @param cache cache to answer asset requests from, or null
+   */
+  public void intercept(final RequestPolicy policy, final AssetCache cache) {
+    final List<Map<String, Object>> patterns = new ArrayList<>();
+    if (policy != null) {
+      patterns.addAll(policy.fetchPatterns());
+    }
+    if (cache != null) {
+      patterns.addAll(cache.fetchPatterns());
+    }
+
+    if (patterns.isEmpty()) {
+      requestPolicy = null;
+      assetCache = null;
+      if (intercepting) {
+        intercepting = false;
+        method("Fetch.disable").send();
+      }
+    } else {
+      requestPolicy = policy;
+      assetCache = cache;
+      intercepting = true;
+      method("Fetch.enable").param("patterns", patterns).send();
+    }
+  }
+
+  private void continuePausedRequest(final DevToolsMessage dtm) {
+    final String requestId = dtm.getParam("requestId");
+    final String url = dtm.getParam("request.url");
+    final RequestPolicy policy = requestPolicy;
+    final AssetCache cache = assetCache;
+    try {
+      final RequestPolicy.Decision decision = policy == null
+          ? RequestPolicy.Decision.CONTINUE
+          : policy.decide(url, dtm.getParam("resourceType"));
+      LOG.debug("Request policy: {} {}", decision.action(), url);
+      if (decision.action() == RequestPolicy.Action.CONTINUE && cache != null && "GET".equals(dtm.getParam("request.method"))
+          && cache.matches(url)) {
+        fulfillFromCache(cache, requestId, url, dtm.getParam("request.headers"));
+        return;
+      }
+      final DevToolsMessage reply = switch (decision.action()) {
+      case BLOCK -> method("Fetch.failRequest").param("requestId", requestId).param("errorReason", "BlockedByClient");
+      case STUB -> method("Fetch.fulfillRequest").param("requestId", requestId).param("responseCode", 200)
+          .param("responseHeaders", List.of(Map.of("name", "Content-Type", "value", decision.value()))).param("body", "");
+      case REWRITE -> method("Fetch.continueRequest").param("requestId", requestId).param("url", decision.value());
+      case CONTINUE -> method("Fetch.continueRequest").param("requestId", requestId);
+      };
+      // This runs on the thread receiving the replies, so it cannot wait for one
+      reply.sendWithoutWaiting();
+    } catch (final RuntimeException e) {
+      // A paused request that is never answered stalls the page, so let Chrome load it as is
+      LOG.warn("Could not apply request policy, continuing paused request: {}", url, e);
+      continueRequest(requestId, url);
+    }
+  }
+
+  private void continueRequest(final String requestId, final String url) {
+    try {
+      method("Fetch.continueRequest").param("requestId", requestId).sendWithoutWaiting();
+    } catch (final RuntimeException e) {
+      LOG.warn("Could not continue paused request: {}", url, e);
+    }
+  }
+
+  private void fulfillFromCache(final AssetCache cache, final String requestId, final String url, final Map<String, Object> headers) {
+    cache.get(url, headers == null ? Map.of() : headers).whenComplete((response, e) -> {
+      if (e != null || response == null) {
+        // Let Chrome load the asset itself, with the cookies of the page
+        LOG.debug("Could not answer request from the asset cache: {}", url, e);
+        continueRequest(requestId, url);
+        return;
+      }
+      try {
+        method("Fetch.fulfillRequest")
+            .param("requestId", requestId)
+            .param("responseCode", response.status())
+            .param("responseHeaders", response.headers())
+            .param("body", response.body())
+            .sendWithoutWaiting();
+      } catch (final RuntimeException failure) {
+        LOG.warn("Could not answer request from the asset cache, continuing it: {}", url, failure);
+        continueRequest(requestId, url);
+      }
+    });
+  }
+
+  @Override
+  public DevToolsMessage sendAndWait(final DevToolsMessage dtm, final Predicate<DevToolsMessage> condition) {
+    if (aborted) {
+      throw new IllegalStateException("Page ID " + id + " was aborted, not sending: " + dtm.getMethod());
+    }
+    if (session != null && session.isDetached()) {
+      throw new PageCrashedException("Page ID " + id + " is detached, not sending: " + dtm.getMethod());
+    }
+    return super.sendAndWait(dtm, condition);
+  }
+
+  @Override
+  public void send(final DevToolsMessage dtm) {
+    if (session == null) {
+      super.send(dtm);
+    } else {
+      session.send(dtm.toMap());
+    }
+  }
+
+  /**
+   * Message IDs are also taken on the receiving thread, when answering paused requests.
+   */
+  @Override
+  public synchronized int nextId() {
+    return super.nextId();
+  }
+
+  /**
+   * Waits until the root frame of the current document has fired the given page lifecycle event, such as networkIdle or
+   * networkAlmostIdle, and then until no network request has been in flight for the quiet period.
+   *
+   * Requests are counted from the moment network events are enabled, which happens at the latest when this method is called.
+   *
+   * @param lifecycleEvent name of the lifecycle event to wait for
+   * @param quietPeriod time without any request in flight
+   * @param maxWait maximum time to wait
+   * @return true if the page became idle, false if the maximum wait time passed first
+   * @throws PageCrashedException when the page crashed while waiting
+   */
+  public boolean awaitNetworkIdle(final String lifecycleEvent, final Duration quietPeriod, final Duration maxWait) {
+    enableNetworkEvents();
+
+    final long deadline = System.nanoTime() + maxWait.toNanos();
+    try {
+      synchronized (pageStateLock) {
+        while (!lifecycleEvents.contains(lifecycleEvent)) {
+          if (!waitUntil(deadline)) {
+            return false;
+          }
+        }
+        while (true) {
+          final long quietUntil = lastNetworkActivity + quietPeriod.toNanos();
+          if (requestsInFlight.isEmpty() && System.nanoTime() - quietUntil >= 0) {
+            return true;
+          }
+          if (!waitUntil(requestsInFlight.isEmpty() && quietUntil - deadline < 0 ? quietUntil : deadline)) {
+            return requestsInFlight.isEmpty() && System.nanoTime() - quietUntil >= 0;
+          }
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private boolean waitUntil(final long until) throws InterruptedException {
+    if (crashed) {
+      throw new PageCrashedException("Page ID " + id + " crashed.");
+    }
+    final long remaining = until - System.nanoTime();
+    if (remaining <= 0) {
+      return false;
+    }
+    pageStateLock.wait(Math.max(1, remaining / 1_000_000));
+    return true;
+  }
+
+  /**
+   * Evaluates the given expression in the page and waits for the promise it returns to settle.
+   *
+   * @param expression expression resulting in a promise (or plain value)
+   * @param timeout maximum time to wait for the promise to settle
+   * @return the value the promise resolved to
+   * @throws TimeoutException when the promise did not settle in time
+   * @throws IllegalStateException when the promise was rejected or the expression threw
+   */
+  public Object evaluateAwait(final String expression, final Duration timeout) {
+    // Rejections with a plain value are turned into errors, as only those can be told apart from a resolved value in the reply
+    final DevToolsMessage dtm = method("Runtime.evaluate")
+        .param("expression", "Promise.resolve(" + expression + ").catch(e => { throw e instanceof Error ? e : new Error(String(e)); })")
+        .param("awaitPromise", true)
+        .param("returnByValue", true);
+    dtm.setTimeout((int) timeout.toMillis());
+
+    final DevToolsMessage res;
+    try {
+      res = dtm.send();
+    } catch (final RuntimeException e) {
+      throw new TimeoutException("Page did not settle within " + timeout + " for: " + expression, e);
+    }
+    // Karate unwraps the remote object, so the result is the value itself, or the error object if evaluation failed
+    if (res.isResultError()) {
+      throw new IllegalStateException("Expression rejected: " + (res.getError() == null ? res.getResult().getValue() : res.getError()));
+    }
+    return res.getResult().getValue();
+  }
+
   public List<NetworkFailure> getNetworkFailures() {
     if (!trackNetworkFailures) {
       return List.of();
     }
-    return networkFailureTracker.getFailures(this::tryFetchResponseBody);
+    return networkFailureTracker.getFailures(this::fetchResponseBody);
   }
 
-  private String tryFetchResponseBody(final String requestId) {
-    if (requestId == null) {
-      return null;
-    }
-    try {
-      final DevToolsMessage dtm = method("Network.getResponseBody").param("requestId", requestId).send();
+  /**
+   * @return the number of network failures that occurred beyond those returned by {@link #getNetworkFailures()}
+   */
+  public long getDroppedNetworkFailures() {
+    return trackNetworkFailures ? networkFailureTracker.getDroppedFailures() : 0;
+  }
+
+  private CompletableFuture<String> fetchResponseBody(final String requestId) {
+    return sendAsync(method("Network.getResponseBody").param("requestId", requestId)).thenApply(dtm -> {
+      if (dtm.isResultError()) {
+        LOG.trace("Could not fetch response body for requestId={}: {}", requestId, dtm.getError());
+        return null;
+      }
       final Boolean base64Encoded = dtm.getResultVariable("base64Encoded").getValue();
       if (Boolean.TRUE.equals(base64Encoded)) {
         return "<base64-encoded binary content>";
       }
       return dtm.getResultVariable("body").getValue();
+    });
+  }
+
+  /**
+   * Sends the message without waiting for the reply, so several commands can be in flight at the same time. Karate only waits for one
+   * reply at a time, so replies to these messages are picked up in {@link #receive(DevToolsMessage)} instead.
+   */
+  private CompletableFuture<DevToolsMessage> sendAsync(final DevToolsMessage dtm) {
+    final Integer messageId = dtm.getId();
+    final CompletableFuture<DevToolsMessage> reply = new CompletableFuture<>();
+    pendingReplies.put(messageId, reply);
+    reply.whenComplete((r, e) -> pendingReplies.remove(messageId));
+    try {
+      dtm.sendWithoutWaiting();
+    } catch (final RuntimeException e) {
+      reply.completeExceptionally(e);
+    }
+    return reply;
+  }
+
+  /**
+   * Prints the page to PDF, streaming the document into the given output stream in chunks instead of transferring it as a single message.
+   *
+   * @param printParams parameters for Page.printToPDF
+   * @param target stream to write the document to, left open
+   * @return the number of bytes written
+   */
+  public long pdf(final Map<String, Object> printParams, final OutputStream target) throws IOException {
+    return pdf(printParams, target, ExportMetrics.NONE);
+  }
+
+  /**
+   * Same as {@link #pdf(Map, OutputStream)}, reporting the time spent rendering and transferring the document to the given metrics.
+   */
+  public long pdf(final Map<String, Object> printParams, final OutputStream target, final ExportMetrics metrics) throws IOException {
+    final Map<String, Object> params = new HashMap<>(printParams);
+    params.put("transferMode", "ReturnAsStream");
+    final long renderStart = System.nanoTime();
+    final String handle = sendChecked(method("Page.printToPDF").params(params)).getResultVariable("stream").getAsString();
+    metrics.onPhase(ExportPhase.RENDER, renderStart, 0);
+
+    final long transferStart = System.nanoTime();
+    long written = 0;
+    try {
+      boolean eof = false;
+      while (!eof) {
+        final DevToolsMessage chunk = sendChecked(method("IO.read")
+            .param("handle", handle)
+            .param("size", STREAM_CHUNK_SIZE));
+        final String data = chunk.getResultVariable("data").getAsString();
+        final Boolean base64Encoded = chunk.getResultVariable("base64Encoded").getValue();
+        final byte[] bytes = Boolean.TRUE.equals(base64Encoded)
+            ? Base64.getDecoder().decode(data)
+            : data.getBytes(StandardCharsets.UTF_8);
+        target.write(bytes);
+        written += bytes.length;
+        eof = Boolean.TRUE.equals(chunk.getResultVariable("eof").getValue());
+      }
+    } finally {
+      method("IO.close").param("handle", handle).send();
+    }
+    metrics.onPhase(ExportPhase.TRANSFER, transferStart, written);
+    return written;
+  }
+
+  /**
+   * Prints the page to PDF, transferring it as a single base64 encoded message, and reports the time spent rendering and decoding the
+   * document to the given metrics.
+   *
+   * @param printParams parameters for Page.printToPDF
+   * @return the document
+   */
+  public byte[] pdf(final Map<String, Object> printParams, final ExportMetrics metrics) {
+    final long renderStart = System.nanoTime();
+    final String data = sendChecked(method("Page.printToPDF").params(printParams)).getResultVariable("data").getAsString();
+    metrics.onPhase(ExportPhase.RENDER, renderStart, data.length());
+
+    final long transferStart = System.nanoTime();
+    final byte[] document = Base64.getDecoder().decode(data);
+    metrics.onPhase(ExportPhase.TRANSFER, transferStart, document.length);
+    return document;
+  }
+
+  /**
+   * Sends the command and waits for its reply, failing with a clear cause instead of returning a reply without result.
+   *
+   * @throws TimeoutException when no reply arrived in time
+   * @throws IllegalStateException when Chrome answered with an error
+   */
+  private DevToolsMessage sendChecked(final DevToolsMessage dtm) {
+    final DevToolsMessage res = dtm.send();
+    if (res == null) {
+      throw new TimeoutException("No reply in time to " + dtm.getMethod() + " on page ID " + id);
+    }
+    if (res.isResultError()) {
+      throw new IllegalStateException(dtm.getMethod() + " failed on page ID " + id + ": " + res.getError());
+    }
+    return res;
+  }
+
+  /**
+   * Captures the part of the page described by the given spec, and reports the time spent rendering and decoding the image to the given
+   * metrics.
+   *
+   * @param spec area, format and scale of the image
+   * @return the image
+   * @throws IllegalStateException when the spec refers to an element that is not on the page
+   */
+  public byte[] screenshot(final SnapshotSpec spec, final ExportMetrics metrics) {
+    final Map<String, Object> params = new HashMap<>();
+    params.put("format", spec.format().extension());
+    if (spec.quality() != null && spec.format() != SnapshotSpec.Format.PNG) {
+      params.put("quality", spec.quality());
+    }
+    params.put("captureBeyondViewport", spec.captureBeyondViewport());
+
+    Map<String, Object> clip = spec.selector() == null ? spec.clip() : elementClip(spec.selector());
+    if (clip == null && spec.scale() != 1) {
+      // Chrome only scales a clipped capture, so clip to what would have been captured anyway
+      clip = pageClip(spec.captureBeyondViewport());
+    }
+    if (clip != null) {
+      final Map<String, Object> scaledClip = new HashMap<>(clip);
+      scaledClip.put("scale", spec.scale());
+      params.put("clip", scaledClip);
+    }
+
+    final long renderStart = System.nanoTime();
+    final String data = sendChecked(method("Page.captureScreenshot").params(params)).getResultVariable("data").getAsString();
+    metrics.onPhase(ExportPhase.RENDER, renderStart, data.length());
+
+    final long transferStart = System.nanoTime();
+    final byte[] image = Base64.getDecoder().decode(data);
+    metrics.onPhase(ExportPhase.TRANSFER, transferStart, image.length);
+    return image;
+  }
+
+  private Map<String, Object> elementClip(final String selector) {
+    final String quoted = selector.replace("\\", "\\\\").replace("'", "\\'");
+    if (evaluateAwait(String.format(ELEMENT_CLIP_SCRIPT, quoted), ELEMENT_LOOKUP_TIMEOUT) instanceof final Map<?, ?> rect) {
+      final Map<String, Object> clip = new HashMap<>();
+      rect.forEach((key, value) -> clip.put(String.valueOf(key), value));
+      return clip;
+    }
+    throw new IllegalStateException("No element found to capture for selector: " + selector);
+  }
+
+  private Map<String, Object> pageClip(final boolean beyondViewport) {
+    final Map<String, Object> metrics = method("Page.getLayoutMetrics").send().getResult().getValue();
+    if (beyondViewport) {
+      return toClip((Map<?, ?>) metrics.get("cssContentSize"), "x", "y", "width", "height");
+    }
+    return toClip((Map<?, ?>) metrics.get("cssLayoutViewport"), "pageX", "pageY", "clientWidth", "clientHeight");
+  }
+
+  private static Map<String, Object> toClip(final Map<?, ?> rect, final String x, final String y, final String width, final String height) {
+    return Map.of("x", rect.get(x), "y", rect.get(y), "width", rect.get(width), "height", rect.get(height));
+  }
+
+  /**
+   * Checks whether this page still responds to DevTools commands within the given time.
+   *
+   * @param timeoutMillis maximum time to wait for a reply
+   * @return true if the page replied in time
+   */
+  public boolean ping(final int timeoutMillis) {
+    if (isTerminated() || crashed || targetClosed.get()) {
+      return false;
+    }
+    try {
+      final DevToolsMessage dtm = method("Runtime.evaluate")
+          .param("expression", "1")
+          .param("returnByValue", true);
+      dtm.setTimeout(timeoutMillis);
+      final DevToolsMessage res = dtm.send();
+      return res != null && !res.isResultError();
+    } catch (final RuntimeException e) {
+      LOG.debug("Page ID {} did not respond to ping: {}", id, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Resets the page-local state so the page can be reused for another export. Navigates to about:blank, clears session storage and
+   * navigation history, stops intercepting requests, and forgets any tracked network failures.
+   *
+   * Cookies and local storage are shared between all pages of the browser profile, or of the browser context of the page when it has one
+   * of its own, and are left untouched.
+   */
+  public void reset() {
+    try {
+      script("try { sessionStorage.clear(); } catch (e) {}");
     } catch (final RuntimeException e) {
-      LOG.trace("Could not fetch response body for requestId={}: {}", requestId, e.getMessage());
-      return null;
+      LOG.trace("Could not clear session storage for page ID {}: {}", id, e.getMessage());
+    }
+    intercept(null, null);
+    setUrl(BLANK_PAGE);
+    method("Page.resetNavigationHistory").send();
+    if (trackNetworkFailures) {
+      networkFailureTracker.clear();
     }
   }
 
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Stops loading and closes the page in the background, so Chrome stops working on an export that is abandoned. May be called from any
+   * thread, without blocking; the driver still has to be quit afterwards. Commands sent from then on fail immediately, instead of waiting
+   * for a reply that will not come.
+   */
+  public void abort() {
+    LOG.info("Aborting page ID: {}", id);
+    aborted = true;
+    pendingReplies.values().forEach(reply -> reply.completeExceptionally(new IllegalStateException("Page ID " + id + " was aborted.")));
+    try {
+      method("Page.stopLoading").sendWithoutWaiting();
+    } catch (final RuntimeException e) {
+      LOG.trace("Could not stop loading page ID {}: {}", id, e.getMessage());
+    }
+    CompletableFuture.runAsync(() -> {
+      try {
+        closeTarget();
+      } catch (final RuntimeException e) {
+        LOG.warn("Could not close aborted page ID: {}", id, e);
+      }
+    }, ExportExecutors.defaultExecutor());
+  }
+
   @Override
   public void quit() {
     try {
       LOG.info("Closing page ID: {}", id);
+      closeTarget();
+    } finally {
+      if (session != null) {
+        session.close();
+      }
+      super.quit();
+    }
+  }
+
+  /**
+   * Quits the driver without closing the page, for when the Chrome instance is gone or about to go.
+   */
+  void discard() {
+    targetClosed.set(true);
+    quit();
+  }
+
+  private void closeTarget() {
+    if (!targetClosed.compareAndSet(false, true)) {
+      return;
+    }
+    if (browserContextId != null) {
+      // Closes the page along with the context
+      disposeQuietly(browser, browserContextId);
+    } else if (browser != null) {
+      closeQuietly(browser, id);
+    } else {
       final Http http = options.getHttp();
       Command.waitForHttp(http.urlBase);
       http.path("json", "close", id).get();
-    } finally {
-      super.quit();
     }
   }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Rules for requests the page makes during an export, to block, stub or rewrite subresources the document does not need, such as
+ * analytics, chat widgets or fonts from a CDN. Applied through the DevTools Fetch domain.
+ *
+ * Rules are applied in the order they are added, the first matching rule decides. Requests matching no rule are left alone. URL rules
+ * match the full URL against a glob, where {@code *} matches any sequence of characters and {@code ?} a single character. Resource type
+ * rules match the resource type as named by Chrome, such as Font, Image, Media, Script or XHR.
+ *
+ * <pre>
+ * RequestPolicy policy = RequestPolicy.create()
+ *     .block("*://*.google-analytics.com/*")
+ *     .blockResourceType("Media")
+ *     .stub("*&#47;chat-widget.js", "application/javascript")
+ *     .rewrite("https://cdn.example.com/", "http://cdn.internal/");
+ *
+ * ExportJob.create(url).requestPolicy(policy).print();
+ * </pre>
+ */
+public class RequestPolicy {
+
+  /**
+   * What happens to a matching request.
+   */
+  public enum Action {
+    /** Fail the request, as if blocked by the client. */
+    BLOCK,
+    /** Answer the request with an empty response, without it leaving the browser. */
+    STUB,
+    /** Send the request to another URL, unnoticed by the page. */
+    REWRITE,
+    /** Let the request through. */
+    CONTINUE
+  }
+
+  /**
+   * The outcome of applying the policy to a request.
+   *
+   * @param action what to do with the request
+   * @param value the content type for a stub, or the new URL for a rewrite
+   */
+  public record Decision(Action action, String value) {
+    static final Decision CONTINUE = new Decision(Action.CONTINUE, null);
+  }
+
+  private record Rule(Action action, String glob, Pattern urlPattern, String resourceType, String value, String prefix) {}
+
+  private final List<Rule> rules = new ArrayList<>();
+
+  public static RequestPolicy create() {
+    return new RequestPolicy();
+  }
+
+  /**
+   * Block requests to URLs matching the glob.
+   */
+  public RequestPolicy block(final String urlGlob) {
+    rules.add(new Rule(Action.BLOCK, urlGlob, toPattern(urlGlob), null, null, null));
+    return this;
+  }
+
+  /**
+   * Block requests for resources of the given type, named as in the DevTools protocol, such as Font, Media or XHR.
+   */
+  public RequestPolicy blockResourceType(final String resourceType) {
+    rules.add(new Rule(Action.BLOCK, null, null, resourceType, null, null));
+    return this;
+  }
+
+  /**
+   * Answer requests to URLs matching the glob with an empty response of the given content type, for resources the page expects to load.
+   */
+  public RequestPolicy stub(final String urlGlob, final String contentType) {
+    rules.add(new Rule(Action.STUB, urlGlob, toPattern(urlGlob), null, contentType, null));
+    return this;
+  }
+
+  /**
+   * Send requests to URLs starting with the given prefix to the replacement prefix instead, for example to use an internal host.
+   */
+  public RequestPolicy rewrite(final String urlPrefix, final String replacementPrefix) {
+    // Chrome escapes wildcards in URL patterns with a backslash
+    final String glob = urlPrefix.replace("\\", "\\\\").replace("*", "\\*").replace("?", "\\?") + "*";
+    rules.add(new Rule(Action.REWRITE, glob, Pattern.compile(Pattern.quote(urlPrefix) + ".*"), null, replacementPrefix, urlPrefix));
+    return this;
+  }
+
+  /**
+   * Decides what happens to a request.
+   *
+   * @param url full URL of the request
+   * @param resourceType resource type of the request as reported by Chrome
+   */
+  public Decision decide(final String url, final String resourceType) {
+    for (final Rule rule : rules) {
+      if (rule.resourceType() != null ? rule.resourceType().equals(resourceType) : rule.urlPattern().matcher(url).matches()) {
+        final String value = rule.action() == Action.REWRITE ? rule.value() + url.substring(rule.prefix().length()) : rule.value();
+        return new Decision(rule.action(), value);
+      }
+    }
+    return Decision.CONTINUE;
+  }
+
+  /**
+   * @return the Fetch.enable patterns, so Chrome only pauses requests a rule may apply to
+   */
+  List<Map<String, Object>> fetchPatterns() {
+    final List<Map<String, Object>> patterns = new ArrayList<>();
+    for (final Rule rule : rules) {
+      patterns.add(rule.resourceType() == null
+          ? Map.of("urlPattern", rule.glob(), "requestStage", "Request")
+          : Map.of("urlPattern", "*", "resourceType", rule.resourceType(), "requestStage", "Request"));
+    }
+    return Collections.unmodifiableList(patterns);
+  }
+
+  boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  /**
+   * @return a pattern matching the same URLs as the given glob does in Fetch.enable
+   */
+  static Pattern toPattern(final String glob) {
+    final StringBuilder regex = new StringBuilder();
+    for (final char c : glob.toCharArray()) {
+      switch (c) {
+      case '*' -> regex.append(".*");
+      case '?' -> regex.append('.');
+      default -> regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+}
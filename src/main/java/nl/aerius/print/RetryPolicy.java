@@ -0,0 +1,215 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nl.aerius.pdf.ChromeUnavailableException;
+import nl.aerius.pdf.ExportAbortedException;
+import nl.aerius.pdf.FailureIndicatorException;
+import nl.aerius.pdf.PageCrashedException;
+import nl.aerius.pdf.TimeoutException;
+
+/**
+ * When and how often a failed export is tried again, on a new page.
+ *
+ * Failures are classified by their cause. By default, failures to reach Chrome, crashed pages and timeouts are retried, with an
+ * exponentially growing backoff in between, from which a random part is taken off so that exports failing together do not all retry at
+ * the same moment. Failures indicated by the page itself are never retried, as they would fail the same way again.
+ *
+ * <pre>
+ * RetryPolicy retryPolicy = RetryPolicy.create()
+ *     .maxAttempts(4)
+ *     .initialBackoff(Duration.ofMillis(500))
+ *     .maxBackoff(Duration.ofSeconds(10));
+ *
+ * ExportJob.create(url).retryPolicy(retryPolicy).print();
+ * </pre>
+ */
+public class RetryPolicy {
+
+  /**
+   * The kind of failure an export ended in.
+   */
+  public enum FailureType {
+    /** Chrome could not be reached, or the connection to it was lost. */
+    CONNECTION(true),
+    /** The page crashed. */
+    PAGE_CRASH(true),
+    /** Chrome or the page did not answer in time. */
+    TIMEOUT(true),
+    /** No Chrome host was available to export on, for example because its circuit is open. */
+    UNAVAILABLE(false),
+    /** The page indicated the export failed, never retried. */
+    PAGE_FAILURE(false),
+    /** Any other failure. */
+    OTHER(false);
+
+    private final boolean hostFailure;
+
+    FailureType(final boolean hostFailure) {
+      this.hostFailure = hostFailure;
+    }
+
+    /**
+     * @return whether this kind of failure says something about the health of the Chrome host
+     */
+    public boolean isHostFailure() {
+      return hostFailure;
+    }
+  }
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 3;
+  private static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(500);
+  private static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(10);
+  private static final double DEFAULT_MULTIPLIER = 2;
+  private static final double DEFAULT_JITTER = 0.5;
+
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+  private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+  private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+  private double multiplier = DEFAULT_MULTIPLIER;
+  private double jitter = DEFAULT_JITTER;
+  private Set<FailureType> retryOn = EnumSet.of(FailureType.CONNECTION, FailureType.PAGE_CRASH, FailureType.TIMEOUT);
+
+  public static RetryPolicy create() {
+    return new RetryPolicy();
+  }
+
+  /**
+   * @param maxAttempts total number of attempts, including the first
+   */
+  public RetryPolicy maxAttempts(final int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("Max attempts must be at least 1, got: " + maxAttempts);
+    }
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  /**
+   * @param initialBackoff time to wait before the second attempt
+   */
+  public RetryPolicy initialBackoff(final Duration initialBackoff) {
+    this.initialBackoff = initialBackoff;
+    return this;
+  }
+
+  /**
+   * @param maxBackoff upper limit of the time to wait between attempts
+   */
+  public RetryPolicy maxBackoff(final Duration maxBackoff) {
+    this.maxBackoff = maxBackoff;
+    return this;
+  }
+
+  /**
+   * @param multiplier factor the backoff grows with after each attempt
+   */
+  public RetryPolicy multiplier(final double multiplier) {
+    if (multiplier < 1) {
+      throw new IllegalArgumentException("Multiplier must be at least 1, got: " + multiplier);
+    }
+    this.multiplier = multiplier;
+    return this;
+  }
+
+  /**
+   * @param jitter fraction of the backoff that is randomly taken off, between 0 (none) and 1 (anything up to the whole backoff)
+   */
+  public RetryPolicy jitter(final double jitter) {
+    if (jitter < 0 || jitter > 1) {
+      throw new IllegalArgumentException("Jitter must be between 0 and 1, got: " + jitter);
+    }
+    this.jitter = jitter;
+    return this;
+  }
+
+  /**
+   * Sets the kinds of failure that are retried, replacing the default of connection failures, page crashes and timeouts.
+   */
+  public RetryPolicy retryOn(final FailureType... types) {
+    final Set<FailureType> set = EnumSet.noneOf(FailureType.class);
+    for (final FailureType type : types) {
+      if (type == FailureType.PAGE_FAILURE) {
+        throw new IllegalArgumentException("Failures indicated by the page cannot be retried.");
+      }
+      set.add(type);
+    }
+    this.retryOn = set;
+    return this;
+  }
+
+  public int maxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Classifies the failure by the exceptions in its chain of causes.
+   */
+  public static FailureType classify(final Throwable failure) {
+    // The outermost exception that is recognised decides, as the export wraps the failures of the driver it knows more about
+    for (Throwable e = failure; e != null; e = e.getCause() == e ? null : e.getCause()) {
+      if (e instanceof FailureIndicatorException) {
+        return FailureType.PAGE_FAILURE;
+      } else if (e instanceof PageCrashedException) {
+        return FailureType.PAGE_CRASH;
+      } else if (e instanceof final ExportAbortedException aborted && aborted.cancelled()) {
+        return FailureType.OTHER;
+      } else if (e instanceof ChromeUnavailableException) {
+        return FailureType.UNAVAILABLE;
+      } else if (e instanceof TimeoutException || e instanceof java.util.concurrent.TimeoutException
+          || e instanceof SocketTimeoutException) {
+        return FailureType.TIMEOUT;
+      } else if (e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException
+          || e instanceof SocketException || e instanceof ClosedChannelException) {
+        return FailureType.CONNECTION;
+      } else if (e.getMessage() != null && e.getMessage().toLowerCase(Locale.ROOT).contains("timed out")) {
+        return FailureType.TIMEOUT;
+      }
+    }
+    return FailureType.OTHER;
+  }
+
+  /**
+   * @param failure the failure of the attempt
+   * @param attempt number of the attempt that failed, starting at 1
+   * @return whether another attempt should be made
+   */
+  boolean shouldRetry(final Throwable failure, final int attempt) {
+    return attempt < maxAttempts && retryOn.contains(classify(failure));
+  }
+
+  /**
+   * @param attempt number of the attempt that failed, starting at 1
+   * @return time to wait before the next attempt
+   */
+  Duration backoff(final int attempt) {
+    final double backoff = Math.min(initialBackoff.toNanos() * Math.pow(multiplier, attempt - 1.0), maxBackoff.toNanos());
+    return Duration.ofNanos((long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble())));
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Describes what part of the page a snapshot captures, and how it is encoded. Passed on to Page.captureScreenshot.
+ *
+ * <pre>
+ * ExportJob.create(url).snapshot(SnapshotSpec.create()
+ *     .selector("#map")
+ *     .format(SnapshotSpec.Format.JPEG)
+ *     .quality(80)
+ *     .scale(0.5));
+ * </pre>
+ */
+public class SnapshotSpec {
+
+  /**
+   * Image formats supported by Chrome.
+   */
+  public enum Format {
+    PNG, JPEG, WEBP;
+
+    public String extension() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private Format format = Format.PNG;
+  private Integer quality;
+  private double scale = 1;
+  private boolean captureBeyondViewport;
+  private Map<String, Object> clip;
+  private String selector;
+
+  public static SnapshotSpec create() {
+    return new SnapshotSpec();
+  }
+
+  /**
+   * Creates a spec capturing the rectangle described by the x, y, width and height values of the given map.
+   */
+  public static SnapshotSpec fromDimensions(final Map<String, Object> dimensions) {
+    return new SnapshotSpec()
+        .clip(number(dimensions, "x"), number(dimensions, "y"), number(dimensions, "width"), number(dimensions, "height"));
+  }
+
+  public SnapshotSpec format(final Format format) {
+    this.format = format;
+    return this;
+  }
+
+  /**
+   * @param quality compression quality from 0 to 100, only applies to JPEG and WebP
+   */
+  public SnapshotSpec quality(final int quality) {
+    if (quality < 0 || quality > 100) {
+      throw new IllegalArgumentException("Quality should be between 0 and 100, got: " + quality);
+    }
+    this.quality = quality;
+    return this;
+  }
+
+  /**
+   * @param scale factor to scale the captured area with, for example 2 for a high DPI image or 0.25 for a thumbnail
+   */
+  public SnapshotSpec scale(final double scale) {
+    if (scale <= 0) {
+      throw new IllegalArgumentException("Scale should be positive, got: " + scale);
+    }
+    this.scale = scale;
+    return this;
+  }
+
+  /**
+   * @param captureBeyondViewport whether to capture content outside of the viewport, such as the full length of a scrolling page
+   */
+  public SnapshotSpec captureBeyondViewport(final boolean captureBeyondViewport) {
+    this.captureBeyondViewport = captureBeyondViewport;
+    return this;
+  }
+
+  /**
+   * Capture the given rectangle of the page, in CSS pixels relative to the top left of the document.
+   */
+  public SnapshotSpec clip(final double x, final double y, final double width, final double height) {
+    this.clip = Map.of("x", x, "y", y, "width", width, "height", height);
+    this.selector = null;
+    return this;
+  }
+
+  /**
+   * Capture the bounding box of the first element matching the given CSS selector.
+   */
+  public SnapshotSpec selector(final String selector) {
+    this.selector = selector;
+    this.clip = null;
+    return this;
+  }
+
+  public Format format() {
+    return format;
+  }
+
+  public Integer quality() {
+    return quality;
+  }
+
+  public double scale() {
+    return scale;
+  }
+
+  public boolean captureBeyondViewport() {
+    return captureBeyondViewport;
+  }
+
+  /**
+   * @return the clip rectangle, or null when capturing the viewport or an element
+   */
+  public Map<String, Object> clip() {
+    return clip;
+  }
+
+  public String selector() {
+    return selector;
+  }
+
+  /**
+   * @return all settings of this spec, to tell snapshots apart
+   */
+  Map<String, Object> toMap() {
+    final Map<String, Object> map = new HashMap<>();
+    map.put("format", format.extension());
+    map.put("quality", quality);
+    map.put("scale", scale);
+    map.put("captureBeyondViewport", captureBeyondViewport);
+    map.put("clip", clip);
+    map.put("selector", selector);
+    return map;
+  }
+
+  private static double number(final Map<String, Object> dimensions, final String key) {
+    if (dimensions.get(key) instanceof final Number number) {
+      return number.doubleValue();
+    }
+    throw new IllegalArgumentException("Dimension '" + key + "' should be a number, got: " + dimensions.get(key));
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the statistics kept by {@link HistogramExportMetrics}.
+ */
+class HistogramExportMetricsTest {
+
+  @Test
+  void computesStatisticsPerPhase() {
+    final HistogramExportMetrics metrics = new HistogramExportMetrics();
+    for (int i = 1; i <= 100; i++) {
+      metrics.onPhase(ExportPhase.RENDER, Duration.ofMillis(i), 1000);
+    }
+    metrics.onPhase(ExportPhase.NAVIGATE, Duration.ofMillis(3), 0);
+
+    final HistogramExportMetrics.PhaseStatistics render = metrics.statistics(ExportPhase.RENDER);
+    assertEquals(100, render.count());
+    assertEquals(100_000, render.bytes());
+    assertEquals(Duration.ofMillis(100), render.max());
+    assertEquals(Duration.ofMillis(5050), render.total());
+    // Percentiles are bucket upper bounds: 50 ms falls in the bucket up to 64 ms, 99 ms is capped at the maximum seen
+    assertEquals(Duration.ofMillis(64), render.p50());
+    assertEquals(Duration.ofMillis(100), render.p99());
+
+    assertEquals(Duration.ofMillis(3), metrics.statistics(ExportPhase.NAVIGATE).p50(), "A single sample should not exceed itself");
+    assertTrue(metrics.statistics().containsKey(ExportPhase.NAVIGATE));
+    assertFalse(metrics.statistics().containsKey(ExportPhase.SAVE), "Phases that never completed should be left out");
+  }
+}
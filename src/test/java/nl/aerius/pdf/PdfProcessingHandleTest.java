@@ -0,0 +1,260 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.pdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfOutline;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+import com.itextpdf.kernel.pdf.navigation.PdfExplicitDestination;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+
+import nl.aerius.metrics.ExportPhase;
+import nl.aerius.metrics.HistogramExportMetrics;
+
+/**
+ * Tests post-processing of in-memory documents with {@link PdfProcessingHandle}.
+ */
+class PdfProcessingHandleTest {
+
+  private static final String FONT = StandardFonts.HELVETICA;
+
+  @Test
+  void processesFooterAndMetaDataInMemory() throws IOException {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+    PdfProcessingHandle.create(createDocument(3))
+        .target(target)
+        .font(FONT)
+        .documentTitle("Permit")
+        .documentSubtitle("Project 42")
+        .pageNumbers()
+        .metaData(Map.of("Reference", "ABC-123"))
+        .process();
+
+    try (final PdfDocument result = new PdfDocument(new PdfReader(new ByteArrayInputStream(target.toByteArray())))) {
+      assertEquals(3, result.getNumberOfPages());
+      assertEquals("ABC-123", result.getDocumentInfo().getMoreInfo("Reference"));
+
+      final String text = PdfTextExtractor.getTextFromPage(result.getPage(2));
+      assertTrue(text.contains("Permit"), "Title expected in footer");
+      assertTrue(text.contains("Project 42"), "Subtitle expected in footer");
+      // Page numbers account for the front page that is usually prepended
+      assertTrue(text.contains("3/4"), "Page number expected in footer");
+    }
+  }
+
+  @Test
+  void stampsFooterFromSharedTemplate() throws IOException {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+    PdfProcessingHandle.create(createDocument(3))
+        .target(target)
+        .font(FONT)
+        .footerStamping(true)
+        .documentTitle("Permit")
+        .documentSubtitle("Project 42")
+        .pageNumbers()
+        .process();
+
+    try (final PdfDocument result = new PdfDocument(new PdfReader(new ByteArrayInputStream(target.toByteArray())))) {
+      for (int i = 1; i <= 3; i++) {
+        final String text = PdfTextExtractor.getTextFromPage(result.getPage(i));
+        assertTrue(text.contains("Permit"), "Title expected in footer of page " + i);
+        assertTrue(text.contains("Project 42"), "Subtitle expected in footer of page " + i);
+        assertTrue(text.contains((i + 1) + "/4"), "Page number expected in footer of page " + i);
+      }
+
+      // Every page should refer to the same title template
+      final PdfDictionary firstXObjects = result.getPage(1).getResources().getResource(PdfName.XObject);
+      final PdfDictionary lastXObjects = result.getPage(3).getResources().getResource(PdfName.XObject);
+      assertEquals(2, firstXObjects.size(), "Title and subtitle templates expected");
+      assertEquals(firstXObjects.getAsStream(firstXObjects.keySet().iterator().next()).getIndirectReference(),
+          lastXObjects.getAsStream(firstXObjects.keySet().iterator().next()).getIndirectReference());
+    }
+  }
+
+  @Test
+  void processesPageRangesInParallel() throws IOException {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+    PdfProcessingHandle.create(createDocument(120))
+        .target(target)
+        .font(FONT)
+        .parallelism(3)
+        .documentTitle("Permit")
+        .pageNumbers()
+        .metaData(Map.of("Reference", "ABC-123"))
+        .process();
+
+    try (final PdfDocument result = new PdfDocument(new PdfReader(new ByteArrayInputStream(target.toByteArray())))) {
+      assertEquals(120, result.getNumberOfPages());
+      assertEquals("ABC-123", result.getDocumentInfo().getMoreInfo("Reference"));
+      assertEquals("Generated", result.getDocumentInfo().getTitle(), "Information of the source document should be kept");
+      assertEquals(2, result.getOutlines(false).getAllChildren().size(), "Outline of the source document should be kept");
+
+      // Pages at the start, edges and end of the ranges should carry their absolute page number
+      for (final int page : new int[] {1, 50, 51, 100, 101, 120}) {
+        final String text = PdfTextExtractor.getTextFromPage(result.getPage(page));
+        assertTrue(text.contains("Permit"), "Title expected in footer of page " + page);
+        assertTrue(text.contains((page + 1) + "/121"), "Page number expected in footer of page " + page);
+      }
+    }
+  }
+
+  @Test
+  void downsamplesImagesAndReportsSizes() throws IOException {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    final HistogramExportMetrics metrics = new HistogramExportMetrics();
+    final PdfProcessingHandle handle = PdfProcessingHandle.create(createImageDocument())
+        .target(target)
+        .metrics(metrics)
+        .smartMode(true)
+        .fullCompression(true)
+        .downsampleImages(150);
+    handle.process();
+
+    final PdfSizeReport report = handle.sizeReport();
+    assertEquals(1, report.downsampledImages());
+    assertEquals(target.size(), report.targetSize());
+    assertTrue(report.targetSize() < report.sourceSize() / 2, "Document should be much smaller: " + report);
+    assertEquals(target.size(), metrics.statistics(ExportPhase.POST_PROCESS).bytes());
+
+    try (final PdfDocument result = new PdfDocument(new PdfReader(new ByteArrayInputStream(target.toByteArray())))) {
+      final PdfDictionary xObjects = result.getPage(1).getResources().getResource(PdfName.XObject);
+      final PdfImageXObject image = new PdfImageXObject(xObjects.getAsStream(xObjects.keySet().iterator().next()));
+      // 200 points wide at 150 DPI
+      assertEquals(417, image.getWidth(), 1);
+    }
+  }
+
+  @Test
+  void acceptsByteBufferAndStreamSources() throws IOException {
+    final byte[] document = createDocument(2);
+
+    final ByteArrayOutputStream fromBuffer = new ByteArrayOutputStream();
+    PdfProcessingHandle.create()
+        .source(ByteBuffer.allocateDirect(document.length).put(document).flip())
+        .target(fromBuffer)
+        .font(FONT)
+        .pageNumbers()
+        .process();
+
+    final ByteArrayOutputStream fromStream = new ByteArrayOutputStream();
+    PdfProcessingHandle.create()
+        .source(new ByteArrayInputStream(document))
+        .target(fromStream)
+        .font(FONT)
+        .pageNumbers()
+        .process();
+
+    assertEquals(2, countPages(fromBuffer.toByteArray()));
+    assertEquals(2, countPages(fromStream.toByteArray()));
+  }
+
+  @Test
+  void writesToChannelAndLeavesItOpen() throws IOException {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    try (final WritableByteChannel channel = Channels.newChannel(bos)) {
+      PdfProcessingHandle.create(createDocument(2))
+          .target(channel)
+          .font(FONT)
+          .pageNumbers()
+          .process();
+
+      assertTrue(channel.isOpen(), "Caller-supplied channel should be left open");
+    }
+    assertEquals(2, countPages(bos.toByteArray()));
+  }
+
+  @Test
+  void sharesParsedFontProgram() {
+    FontCache.warmUp(FONT);
+
+    assertSame(FontCache.program(FONT), FontCache.program(FONT));
+  }
+
+  static byte[] createDocument(final int pages) {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final PdfDocument pdfDoc = new PdfDocument(new PdfWriter(bos))) {
+      pdfDoc.getDocumentInfo().setTitle("Generated");
+      for (int i = 0; i < pages; i++) {
+        pdfDoc.addNewPage(PageSize.A4);
+      }
+      final PdfOutline outline = pdfDoc.getOutlines(false);
+      outline.addOutline("First").addDestination(PdfExplicitDestination.createFit(pdfDoc.getFirstPage()));
+      outline.addOutline("Last").addDestination(PdfExplicitDestination.createFit(pdfDoc.getLastPage()));
+    }
+    return bos.toByteArray();
+  }
+
+  /**
+   * Creates a document with a single 2000 pixel wide image, shown 200 points (so at 720 DPI) wide on two pages.
+   */
+  private static byte[] createImageDocument() {
+    final BufferedImage bufferedImage = new BufferedImage(2000, 2000, BufferedImage.TYPE_INT_RGB);
+    final Random random = new Random(42);
+    for (int x = 0; x < bufferedImage.getWidth(); x++) {
+      for (int y = 0; y < bufferedImage.getHeight(); y++) {
+        bufferedImage.setRGB(x, y, ((x / 8) << 16) | ((y / 8) << 8) | random.nextInt(32));
+      }
+    }
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final PdfDocument pdfDoc = new PdfDocument(new PdfWriter(bos))) {
+      final PdfImageXObject image = new PdfImageXObject(ImageDataFactory.create(bufferedImage, null));
+      for (int i = 0; i < 2; i++) {
+        new PdfCanvas(pdfDoc.addNewPage(PageSize.A4)).addXObjectFittedIntoRectangle(image, new Rectangle(100, 400, 200, 200));
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bos.toByteArray();
+  }
+
+  private static int countPages(final byte[] document) throws IOException {
+    try (final PdfDocument pdfDoc = new PdfDocument(new PdfReader(new ByteArrayInputStream(document)))) {
+      return pdfDoc.getNumberOfPages();
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests caching, storage and download sharing of {@link AssetCache}, against a plain HTTP server standing in for the asset host.
+ */
+class AssetCacheTest {
+
+  private static final byte[] SCRIPT = "console.log('map');".getBytes();
+  private static final byte[] TILE = new byte[10 * 1024];
+
+  private HttpServer upstream;
+  private final Map<String, AtomicInteger> downloads = new ConcurrentHashMap<>();
+
+  @BeforeEach
+  void setUp() throws IOException {
+    upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    serve("/app.js", "max-age=60", SCRIPT);
+    serve("/live.js", "no-store", SCRIPT);
+    serve("/tile.png", "public, max-age=600", TILE);
+    serve("/account.js", 401, Map.of("Cache-Control", "max-age=60"), SCRIPT);
+    serve("/localized.js", 200, Map.of("Cache-Control", "max-age=60", "Vary", "Accept-Language"), SCRIPT);
+    serve("/compressible.js", 200, Map.of("Cache-Control", "max-age=60", "Vary", "Accept-Encoding"), SCRIPT);
+    upstream.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    upstream.stop(0);
+  }
+
+  @Test
+  void cachesAccordingToCacheControl() {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*"))) {
+      assertTrue(cache.matches(url("/app.js")));
+      assertFalse(cache.matches("http://elsewhere/app.js"));
+
+      final AssetCache.Response first = cache.get(url("/app.js"), Map.of()).join();
+      final AssetCache.Response second = cache.get(url("/app.js"), Map.of()).join();
+      cache.get(url("/live.js"), Map.of()).join();
+      cache.get(url("/live.js"), Map.of()).join();
+
+      assertArrayEquals(SCRIPT, Base64.getDecoder().decode(second.body()));
+      assertEquals(first, second);
+      assertTrue(second.headers().contains(Map.of("name", "content-type", "value", "application/javascript")), "Content type should be kept");
+      assertTrue(second.headers().stream().noneMatch(header -> header.get("name").equalsIgnoreCase("Content-Length")));
+      assertEquals(1, downloads.get("/app.js").get(), "Cacheable asset should be downloaded once");
+      assertEquals(2, downloads.get("/live.js").get(), "Asset that may not be stored should be downloaded every time");
+      assertEquals(1, cache.hits());
+      assertEquals(3, cache.misses());
+    }
+  }
+
+  @Test
+  void leavesResponseThatMayNotBeStoredToPage() {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*"))) {
+      assertNull(cache.get(url("/live.js"), Map.of()).join(), "No-store response should be loaded by the page itself");
+      assertNull(cache.get(url("/live.js"), Map.of()).join());
+      assertEquals(2, downloads.get("/live.js").get());
+      assertEquals(0, cache.hits());
+    }
+  }
+
+  @Test
+  void leavesErrorResponseToPage() {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*"))) {
+      assertNull(cache.get(url("/account.js"), Map.of()).join(), "Page should load the asset with its own cookies");
+      assertNull(cache.get(url("/account.js"), Map.of()).join());
+      assertEquals(0, cache.hits(), "Error response should not be cached");
+    }
+  }
+
+  @Test
+  void leavesResponseVaryingOnRequestHeadersToPage() {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*"))) {
+      assertNull(cache.get(url("/localized.js"), Map.of("Accept-Language", "nl")).join());
+      assertNull(cache.get(url("/localized.js"), Map.of("Accept-Language", "en")).join());
+      assertEquals(0, cache.hits(), "Response varying on request headers should not be cached");
+
+      // The cache asks for an uncompressed body, which applies to any request
+      assertNotNull(cache.get(url("/compressible.js"), Map.of()).join());
+      assertNotNull(cache.get(url("/compressible.js"), Map.of()).join());
+      assertEquals(1, cache.hits());
+    }
+  }
+
+  @Test
+  void servesLargeAssetsFromDisk(@TempDir final Path directory) throws IOException {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*")).diskDirectory(directory).mappedThreshold(1024)) {
+      cache.get(url("/tile.png"), Map.of()).join();
+      try (final Stream<Path> files = Files.list(directory)) {
+        assertEquals(1, files.count(), "Large asset should be written to disk");
+      }
+
+      assertArrayEquals(TILE, Base64.getDecoder().decode(cache.get(url("/tile.png"), Map.of()).join().body()));
+      assertEquals(1, cache.hits());
+    }
+    try (final Stream<Path> files = Files.list(directory)) {
+      assertEquals(0, files.count(), "Assets should be removed when the cache is closed");
+    }
+  }
+
+  @Test
+  void failsResponseWhenFileIsGone(@TempDir final Path directory) throws IOException {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*")).diskDirectory(directory).mappedThreshold(1024)) {
+      cache.get(url("/tile.png"), Map.of()).join();
+      try (final Stream<Path> files = Files.list(directory)) {
+        for (final Path file : files.toList()) {
+          Files.delete(file);
+        }
+      }
+
+      final CompletableFuture<AssetCache.Response> response = cache.get(url("/tile.png"), Map.of());
+      final CompletionException e = assertThrows(CompletionException.class, response::join);
+      assertInstanceOf(UncheckedIOException.class, e.getCause(), "Failure to read the asset should be reported through the response");
+    }
+  }
+
+  @Test
+  void sharesConcurrentDownloads() {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*"))) {
+      final CompletableFuture<AssetCache.Response> first = cache.get(url("/app.js"), Map.of());
+      final CompletableFuture<AssetCache.Response> second = cache.get(url("/app.js"), Map.of());
+
+      assertEquals(first.join(), second.join());
+      assertEquals(1, downloads.get("/app.js").get());
+    }
+  }
+
+  @Test
+  void doesNotShareDownloadsForDifferentRequestHeaders() {
+    try (final AssetCache cache = AssetCache.create().pattern(url("/*"))) {
+      final CompletableFuture<AssetCache.Response> first = cache.get(url("/live.js"), Map.of("Accept-Language", "nl"));
+      final CompletableFuture<AssetCache.Response> second = cache.get(url("/live.js"), Map.of("Accept-Language", "en"));
+
+      first.join();
+      second.join();
+      assertEquals(2, downloads.get("/live.js").get(), "Requests with different headers should be downloaded separately");
+    }
+  }
+
+  private String url(final String path) {
+    return "http://localhost:" + upstream.getAddress().getPort() + path;
+  }
+
+  private void serve(final String path, final String cacheControl, final byte[] body) {
+    serve(path, 200, Map.of("Cache-Control", cacheControl), body);
+  }
+
+  private void serve(final String path, final int status, final Map<String, String> headers, final byte[] body) {
+    downloads.put(path, new AtomicInteger());
+    upstream.createContext(path, exchange -> {
+      downloads.get(path).incrementAndGet();
+      try {
+        // Keep the download in flight for a while, so concurrent requests overlap
+        Thread.sleep(100);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.getResponseHeaders().add("Content-Type", "application/javascript");
+      headers.forEach(exchange.getResponseHeaders()::add);
+      exchange.sendResponseHeaders(status, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+  }
+}
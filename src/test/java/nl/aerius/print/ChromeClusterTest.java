@@ -0,0 +1,134 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import nl.aerius.pdf.ChromeUnavailableException;
+
+/**
+ * Tests host selection and quarantining of {@link ChromeCluster}, using plain HTTP servers standing in for the /json/version endpoint.
+ */
+class ChromeClusterTest {
+
+  private HttpServer first;
+  private HttpServer second;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    first = startVersionServer();
+    second = startVersionServer();
+  }
+
+  @AfterEach
+  void tearDown() {
+    first.stop(0);
+    second.stop(0);
+  }
+
+  @Test
+  void selectsLeastLoadedHost() {
+    try (final ChromeCluster cluster = createCluster(3)) {
+      final ChromeCluster.Node a = cluster.acquire();
+      final ChromeCluster.Node b = cluster.acquire();
+      assertNotEquals(a.port(), b.port(), "Second export should go to the idle host");
+
+      cluster.release(a, false);
+      final ChromeCluster.Node c = cluster.acquire();
+      assertEquals(a.port(), c.port(), "Export should go to the host that just became idle");
+
+      cluster.release(b, false);
+      cluster.release(c, false);
+      assertEquals(3, cluster.status().stream().mapToLong(ChromeCluster.HostStatus::served).sum());
+    }
+  }
+
+  @Test
+  void quarantinesFailingHost() {
+    try (final ChromeCluster cluster = createCluster(2)) {
+      final int failingPort = cluster.acquire().port();
+      cluster.release(findNode(cluster, failingPort), true);
+      cluster.release(findNode(cluster, failingPort), true);
+
+      for (int i = 0; i < 5; i++) {
+        final ChromeCluster.Node node = cluster.acquire();
+        assertNotEquals(failingPort, node.port(), "Quarantined host should not be selected");
+        cluster.release(node, false);
+      }
+      assertTrue(cluster.status().stream().anyMatch(ChromeCluster.HostStatus::quarantined));
+    }
+  }
+
+  @Test
+  void failsWhenNoHostIsHealthy() {
+    first.stop(0);
+    second.stop(0);
+    try (final ChromeCluster cluster = createCluster(3)) {
+      assertThrows(ChromeUnavailableException.class, cluster::acquire);
+      assertFalse(cluster.status().stream().anyMatch(ChromeCluster.HostStatus::healthy));
+    }
+  }
+
+  private ChromeCluster.Node findNode(final ChromeCluster cluster, final int port) {
+    // Acquire until the node with the given port is returned, keeping the others busy meanwhile
+    final List<ChromeCluster.Node> others = new ArrayList<>();
+    ChromeCluster.Node node;
+    while ((node = cluster.acquire()).port() != port) {
+      others.add(node);
+    }
+    others.forEach(other -> cluster.release(other, false));
+    return node;
+  }
+
+  private ChromeCluster createCluster(final int failureThreshold) {
+    return ChromeCluster.create()
+        .endpoint("localhost", first.getAddress().getPort())
+        .endpoint("localhost", second.getAddress().getPort())
+        .failureThreshold(failureThreshold)
+        .quarantineTime(Duration.ofMinutes(1))
+        .probeInterval(Duration.ofMinutes(1))
+        .start();
+  }
+
+  private static HttpServer startVersionServer() throws IOException {
+    final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/json/version", exchange -> {
+      final byte[] body = "{\"Browser\":\"HeadlessChrome\"}".getBytes();
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    server.start();
+    return server;
+  }
+}
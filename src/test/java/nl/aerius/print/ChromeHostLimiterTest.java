@@ -0,0 +1,118 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import nl.aerius.pdf.SlotTimeoutException;
+import nl.aerius.pdf.TimeoutException;
+
+/**
+ * Tests the per host slots handed out by {@link ChromeHostLimiter}. Each test uses its own host, as the limiter is process-wide.
+ */
+class ChromeHostLimiterTest {
+
+  @Test
+  void limitsSlotsPerHost() {
+    final String host = "limited:9222";
+    ChromeHostLimiter.limit(host, 2);
+
+    ChromeHostLimiter.acquire(host);
+    ChromeHostLimiter.acquire(host);
+    assertEquals(0, ChromeHostLimiter.available(host), "All slots should be taken");
+    assertEquals(ChromeHostLimiter.defaultLimit(), ChromeHostLimiter.available("other:9222"), "Other hosts should not be affected");
+
+    ChromeHostLimiter.release(host);
+    ChromeHostLimiter.release(host);
+    assertEquals(2, ChromeHostLimiter.available(host), "Released slots should be available again");
+  }
+
+  @Test
+  void waitsForReleasedSlot() throws Exception {
+    final String host = "waiting:9222";
+    ChromeHostLimiter.limit(host, 1);
+    ChromeHostLimiter.acquire(host);
+
+    final CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> ChromeHostLimiter.acquire(host));
+    Thread.sleep(100);
+    assertFalse(waiting.isDone(), "Export beyond the limit should wait for a slot");
+
+    ChromeHostLimiter.release(host);
+    waiting.get(5, TimeUnit.SECONDS);
+    ChromeHostLimiter.release(host);
+    assertEquals(1, ChromeHostLimiter.available(host));
+  }
+
+  @Test
+  void failsWithTimeoutWhenInterrupted() {
+    final String host = "interrupted:9222";
+    ChromeHostLimiter.limit(host, 1);
+    ChromeHostLimiter.acquire(host);
+
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(TimeoutException.class, () -> ChromeHostLimiter.acquire(host));
+      assertTrue(Thread.interrupted(), "Interrupt flag should have been restored");
+    } finally {
+      ChromeHostLimiter.release(host);
+    }
+  }
+
+  @Test
+  void failsWithSlotTimeoutWhenNoSlotFreesUp() {
+    final String host = "saturated:9222";
+    final Duration acquireTimeout = ChromeHostLimiter.acquireTimeout();
+    ChromeHostLimiter.limit(host, 1);
+    ChromeHostLimiter.acquire(host);
+    ChromeHostLimiter.acquireTimeout(Duration.ofMillis(100));
+
+    try {
+      assertThrows(SlotTimeoutException.class, () -> ChromeHostLimiter.acquire(host));
+      assertEquals(0, ChromeHostLimiter.available(host), "Timed out export should not have taken a slot");
+    } finally {
+      ChromeHostLimiter.acquireTimeout(acquireTimeout);
+      ChromeHostLimiter.release(host);
+    }
+  }
+
+  @Test
+  void takesHostWithoutPortToBeOnDefaultPort() {
+    final String host = "defaultport";
+    ChromeHostLimiter.limit(host, 3);
+
+    ChromeHostLimiter.acquire(host + ":9222");
+    assertEquals(2, ChromeHostLimiter.available(host), "Host with and without default port should share their slots");
+    assertEquals(host + ":9222", ChromeHostLimiter.address(host, Map.of()));
+    assertEquals(host + ":9333", ChromeHostLimiter.address(host, Map.of("port", 9333)));
+    ChromeHostLimiter.release(host);
+  }
+
+  @Test
+  void rejectsLimitBelowOne() {
+    assertThrows(IllegalArgumentException.class, () -> ChromeHostLimiter.limit("invalid:9222", 0));
+  }
+}
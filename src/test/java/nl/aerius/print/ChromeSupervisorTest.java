@@ -0,0 +1,117 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests recycling and restarting of processes by {@link ChromeSupervisor}, using {@link FakeChromeProcess} as Chromium executable.
+ */
+class ChromeSupervisorTest {
+
+  private static final String URL = "http://localhost/report";
+  private static final Duration AWAIT_TIMEOUT = Duration.ofSeconds(30);
+
+  @TempDir
+  Path workDirectory;
+
+  @Test
+  void recyclesProcessAfterMaxJobs() throws Exception {
+    try (final ChromeSupervisor supervisor = createSupervisor().maxJobs(2).start()) {
+      final long pid = supervisor.status().get(0).pid();
+      ExportJob.create(URL).chromeCluster(supervisor.cluster()).print();
+      ExportJob.create(URL).chromeCluster(supervisor.cluster()).print();
+
+      await(() -> supervisor.status().get(0).restarts() == 1);
+      final ChromeSupervisor.InstanceStatus status = supervisor.status().get(0);
+      assertTrue(status.alive(), "Process should be running again");
+      assertNotEquals(pid, status.pid(), "Process should have been replaced");
+      assertEquals(0, status.jobs(), "Job count should start over");
+      assertNotNull(ExportJob.create(URL).chromeCluster(supervisor.cluster()).print().result());
+    }
+  }
+
+  @Test
+  void restartsProcessThatExited() throws Exception {
+    try (final ChromeSupervisor supervisor = createSupervisor().start()) {
+      final long pid = supervisor.status().get(0).pid();
+      ProcessHandle.of(pid).ifPresent(ProcessHandle::destroyForcibly);
+
+      await(() -> supervisor.status().get(0).restarts() == 1);
+      assertNotEquals(pid, supervisor.status().get(0).pid(), "Process should have been replaced");
+      assertNotNull(ExportJob.create(URL).chromeCluster(supervisor.cluster()).print().result());
+    }
+  }
+
+  @Test
+  void removesTemporaryWorkDirectoryOnClose() throws Exception {
+    final Path root;
+    try (final ChromeSupervisor supervisor = createSupervisor(null).start()) {
+      root = supervisor.workDirectory();
+      assertTrue(Files.isDirectory(root), "Temporary work directory should be created");
+    }
+    assertFalse(Files.exists(root), "Temporary work directory should be removed");
+
+    try (final ChromeSupervisor supervisor = createSupervisor(workDirectory).start()) {
+      assertEquals(workDirectory, supervisor.workDirectory());
+    }
+    assertTrue(Files.isDirectory(workDirectory), "Configured work directory should be left in place");
+  }
+
+  private ChromeSupervisor createSupervisor() throws IOException {
+    return createSupervisor(workDirectory);
+  }
+
+  private static ChromeSupervisor createSupervisor(final Path workDirectory) throws IOException {
+    final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    return ChromeSupervisor.create()
+        .chromeCommand(java, "-cp", System.getProperty("java.class.path"), FakeChromeProcess.class.getName())
+        .instances(1)
+        .basePort(freePort())
+        .workDirectory(workDirectory)
+        .monitorInterval(Duration.ofMillis(100));
+  }
+
+  private static int freePort() throws IOException {
+    try (final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + AWAIT_TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() - deadline < 0, "Condition not met within " + AWAIT_TIMEOUT);
+      Thread.sleep(50);
+    }
+  }
+}
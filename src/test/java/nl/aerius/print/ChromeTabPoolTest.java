@@ -0,0 +1,125 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import nl.aerius.pdf.TimeoutException;
+
+/**
+ * Tests borrowing, health checking and eviction of pages by {@link ChromeTabPool}, against a {@link FakeDevToolsServer}.
+ */
+class ChromeTabPoolTest {
+
+  private static final Duration AWAIT_TIMEOUT = Duration.ofSeconds(10);
+
+  private FakeDevToolsServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = FakeDevToolsServer.create().start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+  }
+
+  @Test
+  void timesOutWhenAllPagesAreInUse() {
+    try (final ChromeTabPool pool = createPool().maxSize(1).borrowTimeout(Duration.ofMillis(200))) {
+      final QuittableChrome chrome = pool.borrow();
+      assertThrows(TimeoutException.class, pool::borrow);
+
+      pool.release(chrome, false);
+      final QuittableChrome again = pool.borrow();
+      assertEquals(chrome.getId(), again.getId(), "Released page should be handed out again");
+      pool.release(again, false);
+      assertEquals(1, server.pagesCreated());
+    }
+  }
+
+  @Test
+  void replacesIdlePageThatFailsHealthCheck() throws Exception {
+    try (final ChromeTabPool pool = createPool()) {
+      final QuittableChrome chrome = pool.borrow();
+      pool.release(chrome, false);
+      server.crashPages();
+      await(chrome::isCrashed);
+
+      final QuittableChrome replacement = pool.borrow();
+      assertNotEquals(chrome.getId(), replacement.getId(), "Crashed page should not be handed out");
+      assertEquals(1, server.pagesClosed(), "Crashed page should be closed");
+      pool.release(replacement, false);
+      assertEquals(1, pool.size());
+    }
+  }
+
+  @Test
+  void shrinksIdlePagesToMinSize() throws Exception {
+    try (final ChromeTabPool pool = createPool().minSize(1).maxSize(3).idleTimeout(Duration.ofMillis(100))
+        .evictionInterval(Duration.ofMillis(50))) {
+      final QuittableChrome first = pool.borrow();
+      final QuittableChrome second = pool.borrow();
+      final QuittableChrome third = pool.borrow();
+      pool.release(first, false);
+      pool.release(second, false);
+      pool.release(third, false);
+      assertEquals(pool.size(), pool.idleSize(), "All pages should be idle");
+
+      await(() -> server.openPages() == 1);
+      assertEquals(1, pool.size(), "Pool should keep its minimum size");
+    }
+  }
+
+  @Test
+  void closesPageReleasedAsBroken() {
+    try (final ChromeTabPool pool = createPool()) {
+      final QuittableChrome chrome = pool.borrow();
+      pool.release(chrome, true);
+
+      assertEquals(0, pool.size());
+      assertEquals(0, pool.idleSize());
+      assertEquals(0, server.openPages(), "Broken page should be closed");
+    }
+  }
+
+  private ChromeTabPool createPool() {
+    return ChromeTabPool.create("localhost")
+        .driverOptions(server.driverOptions())
+        .healthCheckTimeout(500);
+  }
+
+  private static void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + AWAIT_TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() - deadline < 0, "Condition not met within " + AWAIT_TIMEOUT);
+      Thread.sleep(20);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import nl.aerius.metrics.ExportPhase;
+import nl.aerius.pdf.CircuitOpenException;
+import nl.aerius.pdf.ExportAbortedException;
+import nl.aerius.pdf.FailureIndicatorException;
+import nl.aerius.pdf.PageCrashedException;
+import nl.aerius.pdf.SlotTimeoutException;
+
+/**
+ * Tests the state transitions of {@link CircuitBreaker}.
+ */
+class CircuitBreakerTest {
+
+  private static final String HOST = "chrome:9222";
+
+  @Test
+  void opensAfterFailuresInARow() {
+    final CircuitBreaker breaker = CircuitBreaker.create().failureThreshold(2).openTime(Duration.ofMinutes(1));
+
+    fail(breaker);
+    // Failures indicated by the page say nothing about the host, and break the row
+    breaker.release(HOST, breaker.acquire(HOST), new FailureIndicatorException());
+    fail(breaker);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state(HOST));
+
+    fail(breaker);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state(HOST));
+    assertThrows(CircuitOpenException.class, () -> breaker.acquire(HOST));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state("other:9222"), "Other hosts should not be affected");
+  }
+
+  @Test
+  void letsSingleProbeThroughOnceOpenTimeHasPassed() {
+    final CircuitBreaker breaker = CircuitBreaker.create().failureThreshold(1).openTime(Duration.ZERO);
+    fail(breaker);
+
+    assertTrue(breaker.acquire(HOST), "First export after the open time should be the probe");
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state(HOST));
+    assertThrows(CircuitOpenException.class, () -> breaker.acquire(HOST), "Others should fail fast while probing");
+
+    // A failing probe opens the circuit again
+    breaker.release(HOST, true, new PageCrashedException());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state(HOST));
+
+    assertTrue(breaker.acquire(HOST));
+    breaker.release(HOST, true, null);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state(HOST));
+    assertFalse(breaker.acquire(HOST));
+  }
+
+  @Test
+  void ignoresExportsThatGaveUpWaitingOrWereCancelled() {
+    final CircuitBreaker breaker = CircuitBreaker.create().failureThreshold(2).openTime(Duration.ofMinutes(1));
+
+    fail(breaker);
+    breaker.release(HOST, breaker.acquire(HOST), new SlotTimeoutException("No page available."));
+    breaker.release(HOST, breaker.acquire(HOST), new ExportAbortedException("Cancelled.", ExportPhase.OPEN_PAGE, true, null));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state(HOST), "Neither should count as a failure of the host");
+
+    fail(breaker);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state(HOST), "Neither should have broken the row of failures");
+  }
+
+  @Test
+  void letsNextExportProbeWhenProbeGaveUpWaiting() {
+    final CircuitBreaker breaker = CircuitBreaker.create().failureThreshold(1).openTime(Duration.ZERO);
+    fail(breaker);
+
+    assertTrue(breaker.acquire(HOST));
+    breaker.release(HOST, true, new SlotTimeoutException("Interrupted while waiting for an export slot."));
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state(HOST), "Circuit should stay open without a verdict");
+    assertTrue(breaker.acquire(HOST), "Next export should be the probe");
+  }
+
+  private static void fail(final CircuitBreaker breaker) {
+    breaker.release(HOST, breaker.acquire(HOST), new PageCrashedException());
+  }
+}
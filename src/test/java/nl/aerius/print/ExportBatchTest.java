@@ -0,0 +1,157 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.intuit.karate.driver.DevToolsDriver;
+
+/**
+ * Tests running a batch of exports with {@link ExportBatch}, against a {@link FakeDevToolsServer}.
+ */
+class ExportBatchTest {
+
+  private static final String URL = "http://localhost/report/";
+
+  private FakeDevToolsServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = FakeDevToolsServer.create().start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+  }
+
+  @Test
+  void runsNoMoreExportsThanConcurrency() {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final Consumer<DevToolsDriver> slowPage = d -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      sleep(100);
+      running.decrementAndGet();
+    };
+    final List<ExportSpec> specs = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      specs.add(new ExportSpec(URL + i, "document-" + i, null, slowPage));
+    }
+
+    try (final ChromeTabPool pool = createPool().maxSize(4)) {
+      final List<ExportOutcome> outcomes = ExportBatch.create()
+          .specs(specs)
+          .concurrency(2)
+          .tabPool(pool)
+          .run();
+
+      assertTrue(outcomes.stream().allMatch(ExportOutcome::succeeded), "All exports should have succeeded");
+      assertTrue(maxRunning.get() <= 2, "No more than 2 exports should have run at once, got: " + maxRunning.get());
+      assertTrue(pool.size() <= 2, "No more than 2 pages should have been needed, got: " + pool.size());
+    }
+  }
+
+  @Test
+  void reportsFailedExportWithoutAbortingBatch() {
+    final Consumer<DevToolsDriver> failingPage = d -> {
+      throw new IllegalStateException("Page never completed.");
+    };
+    final ExportSpec failing = new ExportSpec(URL + "failing", "failing", null, failingPage);
+    final Set<ExportSpec> completed = ConcurrentHashMap.newKeySet();
+
+    try (final ChromeTabPool pool = createPool()) {
+      final List<ExportOutcome> outcomes = ExportBatch.create()
+          .spec(ExportSpec.of(URL + "first", "first"))
+          .spec(failing)
+          .spec(ExportSpec.of(URL + "last", "last"))
+          .concurrency(1)
+          .tabPool(pool)
+          .onComplete(outcome -> completed.add(outcome.spec()))
+          .run();
+
+      assertEquals(3, outcomes.size());
+      assertTrue(outcomes.get(0).succeeded(), "Export before the failing one should have succeeded");
+      assertFalse(outcomes.get(1).succeeded(), "Failing export should be reported as failed");
+      assertInstanceOf(IllegalStateException.class, outcomes.get(1).failure());
+      assertTrue(outcomes.get(2).succeeded(), "Export after the failing one should still have run");
+      assertArrayEquals(server.pdf(), outcomes.get(2).job().result());
+      assertEquals(3, completed.size(), "Completion callback should have been called for every export");
+    }
+  }
+
+  @Test
+  void returnsOutcomesInSpecOrder() {
+    final List<ExportSpec> specs = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      // Earlier specs take longer, so they finish after later ones
+      final long delay = (5 - i) * 40L;
+      specs.add(new ExportSpec(URL + i, "document-" + i, null, d -> sleep(delay)));
+    }
+    final List<ExportSpec> completionOrder = new ArrayList<>();
+
+    try (final ChromeTabPool pool = createPool().maxSize(5)) {
+      final List<ExportOutcome> outcomes = ExportBatch.create()
+          .specs(specs)
+          .concurrency(5)
+          .tabPool(pool)
+          .onComplete(outcome -> {
+            synchronized (completionOrder) {
+              completionOrder.add(outcome.spec());
+            }
+          })
+          .run();
+
+      assertEquals(specs.size(), outcomes.size());
+      for (int i = 0; i < specs.size(); i++) {
+        assertSame(specs.get(i), outcomes.get(i).spec(), "Outcome " + i + " should belong to spec " + i);
+        assertTrue(outcomes.get(i).succeeded(), "Export " + i + " should have succeeded");
+      }
+      assertEquals(specs.size(), completionOrder.size());
+    }
+  }
+
+  private ChromeTabPool createPool() {
+    return ChromeTabPool.create("localhost")
+        .driverOptions(server.driverOptions());
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests keys, eviction and expiry of {@link ExportCache}.
+ */
+class ExportCacheTest {
+
+  private static final String URL = "http://localhost/report";
+
+  @Test
+  void keysIgnoreParameterOrder() {
+    final Map<String, Object> first = new LinkedHashMap<>();
+    first.put("printBackground", true);
+    first.put("margins", Map.of("top", 1, "bottom", 2));
+    final Map<String, Object> second = new LinkedHashMap<>();
+    second.put("margins", Map.of("bottom", 2, "top", 1));
+    second.put("printBackground", true);
+
+    assertEquals(ExportCache.key("pdf", URL, first, "v1"), ExportCache.key("pdf", URL, second, "v1"));
+    assertNotEquals(ExportCache.key("pdf", URL, first, "v1"), ExportCache.key("pdf", URL, first, "v2"));
+    assertNotEquals(ExportCache.key("pdf", URL, first, "v1"), ExportCache.key("png", URL, first, "v1"));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedFromMemory() {
+    final ExportCache cache = ExportCache.create().memoryBytes(250);
+    cache.put("a", new byte[100]);
+    cache.put("b", new byte[100]);
+    cache.get("a");
+    cache.put("c", new byte[100]);
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"), "Least recently used result should be evicted");
+    assertNotNull(cache.get("c"));
+
+    final ExportCache.Statistics statistics = cache.statistics();
+    assertEquals(3, statistics.memoryHits());
+    assertEquals(1, statistics.misses());
+    assertEquals(1, statistics.evictions());
+    assertEquals(200, statistics.memoryBytes());
+  }
+
+  @Test
+  void isNotAffectedByChangesToResultArrays() {
+    final ExportCache cache = ExportCache.create();
+    final byte[] result = {1, 2, 3};
+    cache.put("a", result);
+    result[0] = 9;
+
+    final byte[] cached = cache.get("a");
+    assertArrayEquals(new byte[] {1, 2, 3}, cached, "Changing the stored array should not change the cached result");
+    cached[1] = 9;
+    assertArrayEquals(new byte[] {1, 2, 3}, cache.get("a"), "Changing a returned array should not change the cached result");
+  }
+
+  @Test
+  void keepsResultsOnDiskAcrossInstances(@TempDir final Path directory) {
+    final byte[] result = {1, 2, 3};
+    ExportCache.create().memoryBytes(0).diskDirectory(directory).put("a", result);
+
+    final ExportCache reopened = ExportCache.create().memoryBytes(0).diskDirectory(directory);
+    assertArrayEquals(result, reopened.get("a"));
+    assertEquals(1, reopened.statistics().diskHits());
+    assertEquals(3, reopened.statistics().diskBytes());
+  }
+
+  @Test
+  void evictsFromDiskBeyondCap(@TempDir final Path directory) {
+    final ExportCache cache = ExportCache.create().memoryBytes(0).diskDirectory(directory).diskBytes(250);
+    for (final String key : List.of("a", "b", "c")) {
+      cache.put(key, new byte[100]);
+    }
+
+    assertNull(cache.get("a"));
+    assertNotNull(cache.get("c"));
+    assertEquals(200, cache.statistics().diskBytes());
+    assertEquals(1, cache.statistics().evictions());
+  }
+
+  @Test
+  void expiresResults(@TempDir final Path directory) {
+    final ExportCache cache = ExportCache.create().diskDirectory(directory).ttl(Duration.ofMillis(-1));
+    cache.put("a", new byte[10]);
+
+    assertNull(cache.get("a"));
+    assertEquals(2, cache.statistics().expirations(), "Result should expire from memory and disk");
+    assertEquals(0, cache.statistics().diskBytes());
+  }
+}
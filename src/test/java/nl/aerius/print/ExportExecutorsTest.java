@@ -0,0 +1,116 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import nl.aerius.pdf.ExportRejectedException;
+
+/**
+ * Tests the thread pool {@link ExportExecutors} falls back to on runtimes without virtual threads.
+ */
+class ExportExecutorsTest {
+
+  @Test
+  void runsNoMoreThreadsThanConfigured() throws InterruptedException {
+    final ExecutorService executor = ExportExecutors.createThreadPool(2, 10);
+    final Set<String> threads = ConcurrentHashMap.newKeySet();
+    final CountDownLatch done = new CountDownLatch(10);
+
+    try {
+      for (int i = 0; i < 10; i++) {
+        executor.execute(() -> {
+          threads.add(Thread.currentThread().getName());
+          sleep(10);
+          done.countDown();
+        });
+      }
+      assertTrue(done.await(5, TimeUnit.SECONDS), "All tasks should have run");
+      assertEquals(2, threads.size(), "Tasks should have been spread over exactly the configured threads");
+      assertTrue(threads.stream().allMatch(name -> name.startsWith("export-")), "Tasks should run on the export threads");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void rejectsTaskWhenQueueIsFull() throws InterruptedException {
+    final ExecutorService executor = ExportExecutors.createThreadPool(1, 1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+
+    try {
+      // Occupy the only thread, and fill the queue
+      executor.execute(() -> await(blocked));
+      executor.execute(() -> {});
+
+      assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}), "Task beyond the queue should be rejected");
+    } finally {
+      blocked.countDown();
+      executor.shutdown();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void failsAsyncExportWhenExecutorIsSaturated() throws InterruptedException {
+    final ExecutorService executor = ExportExecutors.createThreadPool(1, 1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+
+    try {
+      executor.execute(() -> await(blocked));
+      executor.execute(() -> {});
+
+      final CompletableFuture<PrintJob> future = ExportJob.create("http://localhost/").executor(executor).printAsync();
+      final ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+      assertInstanceOf(ExportRejectedException.class, e.getCause(), "Export should fail instead of running on the calling thread");
+    } finally {
+      blocked.countDown();
+      executor.shutdown();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
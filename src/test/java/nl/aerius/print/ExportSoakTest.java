@@ -0,0 +1,193 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load and soak test of the export path against a {@link FakeDevToolsServer}, reporting throughput, latency, thread counts and leaked
+ * pages over many exports.
+ *
+ * Excluded from the default build, run with: {@code mvn test -Psoak}. The load can be tuned with the system properties
+ * {@code soak.exports} (default 2000), {@code soak.concurrency} (default 8) and {@code soak.latency} (navigate and print latency in
+ * milliseconds, default 5).
+ */
+@Tag("soak")
+class ExportSoakTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExportSoakTest.class);
+
+  private static final String URL = "http://localhost/report";
+  private static final int EXPORTS = Integer.getInteger("soak.exports", 2000);
+  private static final int CONCURRENCY = Integer.getInteger("soak.concurrency", 8);
+  private static final Duration LATENCY = Duration.ofMillis(Integer.getInteger("soak.latency", 5));
+  // Threads that may remain after a run, e.g. shared client threads started lazily on the first export
+  private static final int THREAD_TOLERANCE = 8;
+  private static final Duration SETTLE_TIME = Duration.ofSeconds(10);
+
+  private record SoakResult(double jobsPerSecond, long p50Millis, long p99Millis, int failures, int peakThreads) {}
+
+  private FakeDevToolsServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = FakeDevToolsServer.create()
+        .navigateLatency(LATENCY)
+        .printLatency(LATENCY)
+        .start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+  }
+
+  @Test
+  void soakWithNewPagePerExport() throws Exception {
+    final int threadsBefore = threadCount();
+
+    final SoakResult result = run(() -> ExportJob.create(URL)
+        .chromeHost("localhost")
+        .driverOptions(server.driverOptions())
+        .print());
+
+    awaitSettled(threadsBefore);
+    report("new page per export", result, threadsBefore);
+    assertEquals(0, result.failures(), "All exports should succeed");
+    assertEquals(EXPORTS, server.pagesClosed(), "Every page should be closed");
+    assertNoLeaks(threadsBefore);
+  }
+
+  @Test
+  void soakWithTabPool() throws Exception {
+    final int threadsBefore = threadCount();
+
+    final SoakResult result;
+    try (final ChromeTabPool pool = ChromeTabPool.create("localhost").driverOptions(server.driverOptions()).maxSize(CONCURRENCY)) {
+      result = run(() -> ExportJob.create(URL).tabPool(pool).print());
+      assertTrue(server.pagesCreated() <= CONCURRENCY, "Pages should be reused, created: " + server.pagesCreated());
+    }
+
+    awaitSettled(threadsBefore);
+    report("tab pool", result, threadsBefore);
+    assertEquals(0, result.failures(), "All exports should succeed");
+    assertNoLeaks(threadsBefore);
+  }
+
+  private SoakResult run(final Runnable export) throws InterruptedException {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+
+    final List<Long> latencies = Collections.synchronizedList(new ArrayList<>(EXPORTS));
+    final AtomicInteger failures = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+    final ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+    progress.scheduleAtFixedRate(() -> LOG.info("Soak progress: {}/{} exports, {} open pages, {} threads", latencies.size(), EXPORTS,
+        server.openPages(), threads.getThreadCount()), 10, 10, TimeUnit.SECONDS);
+
+    final long start = System.nanoTime();
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < EXPORTS; i++) {
+        futures.add(executor.submit(() -> {
+          final long exportStart = System.nanoTime();
+          try {
+            export.run();
+          } catch (final RuntimeException e) {
+            failures.incrementAndGet();
+            LOG.warn("Export failed during soak.", e);
+          }
+          latencies.add(System.nanoTime() - exportStart);
+        }));
+      }
+      for (final Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (final Exception e) {
+          failures.incrementAndGet();
+        }
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+      progress.shutdownNow();
+    }
+    final double seconds = (System.nanoTime() - start) / 1e9;
+
+    final List<Long> sorted = new ArrayList<>(latencies);
+    Collections.sort(sorted);
+    return new SoakResult(EXPORTS / seconds, percentile(sorted, 0.50), percentile(sorted, 0.99), failures.get(),
+        threads.getPeakThreadCount());
+  }
+
+  private void report(final String scenario, final SoakResult result, final int threadsBefore) {
+    LOG.info("Soak [{}]: {} exports at concurrency {}: {} jobs/s, p50 {} ms, p99 {} ms, {} failures, threads {} before, {} peak, {} after,"
+        + " {} pages created, {} leaked",
+        scenario, EXPORTS, CONCURRENCY, String.format("%.1f", result.jobsPerSecond()), result.p50Millis(), result.p99Millis(),
+        result.failures(), threadsBefore, result.peakThreads(), threadCount(), server.pagesCreated(), server.openPages());
+  }
+
+  /**
+   * Gives closed pages and their connection threads some time to wind down.
+   */
+  private void awaitSettled(final int threadsBefore) throws InterruptedException {
+    final long deadline = System.nanoTime() + SETTLE_TIME.toNanos();
+    while ((server.openPages() > 0 || threadCount() > threadsBefore + THREAD_TOLERANCE) && System.nanoTime() < deadline) {
+      Thread.sleep(100);
+    }
+  }
+
+  private void assertNoLeaks(final int threadsBefore) {
+    assertEquals(0, server.openPages(), "Leaked pages");
+    assertTrue(threadCount() <= threadsBefore + THREAD_TOLERANCE,
+        "Leaked threads, before: " + threadsBefore + " after: " + threadCount());
+  }
+
+  private static int threadCount() {
+    return ManagementFactory.getThreadMXBean().getThreadCount();
+  }
+
+  private static long percentile(final List<Long> sorted, final double percentile) {
+    if (sorted.isEmpty()) {
+      return 0;
+    }
+    final int index = Math.min(sorted.size() - 1, (int) Math.ceil(percentile * sorted.size()) - 1);
+    return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, index)));
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+/**
+ * Stands in for a Chromium executable in tests of {@link ChromeSupervisor}: runs a {@link FakeDevToolsServer} on the port given by the
+ * --remote-debugging-port argument until the process is killed.
+ */
+public final class FakeChromeProcess {
+
+  private static final String PORT_ARGUMENT = "--remote-debugging-port=";
+
+  private FakeChromeProcess() {}
+
+  public static void main(final String[] args) throws Exception {
+    int port = 0;
+    for (final String arg : args) {
+      if (arg.startsWith(PORT_ARGUMENT)) {
+        port = Integer.parseInt(arg.substring(PORT_ARGUMENT.length()));
+      }
+    }
+    FakeDevToolsServer.create()
+        .port(port)
+        .start();
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+import nl.aerius.metrics.ExportPhase;
+import nl.aerius.metrics.HistogramExportMetrics;
+import nl.aerius.pdf.CircuitOpenException;
+import nl.aerius.pdf.ExportAbortedException;
+import nl.aerius.pdf.FailureIndicatorException;
+import nl.aerius.pdf.PageCrashedException;
+import nl.aerius.pdf.SlotTimeoutException;
+
+/**
+ * Runs exports end to end through {@link ExportJob} and {@link QuittableChrome} against a {@link FakeDevToolsServer}.
+ */
+class FakeDevToolsExportTest {
+
+  private static final String URL = "http://localhost/report";
+
+  private FakeDevToolsServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = FakeDevToolsServer.create()
+        .pdfSize(1024 * 1024)
+        .start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+  }
+
+  @Test
+  void printsAndClosesPage() {
+    final PrintJob job = createJob().print();
+
+    assertArrayEquals(server.pdf(), job.result());
+    assertEquals(0, server.openPages(), "Page should be closed after the export");
+  }
+
+  @Test
+  void streamsPrintInChunks() {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    createJob().print(target);
+
+    assertArrayEquals(server.pdf(), target.toByteArray());
+  }
+
+  @Test
+  void streamsPrintWithParamsInChunks() {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    final PrintJob job = createJob().print(Map.of("landscape", true), target);
+
+    assertArrayEquals(server.pdf(), target.toByteArray());
+    assertNull(job.result(), "Streamed document should not be held in memory");
+  }
+
+  @Test
+  void streamsPrintIntoChannel() throws IOException {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    try (final WritableByteChannel channel = Channels.newChannel(target)) {
+      createJob().print(ExportJob.defaultPrintParams(), channel);
+    }
+
+    assertArrayEquals(server.pdf(), target.toByteArray());
+  }
+
+  @Test
+  void streamsPrintIntoFile(@TempDir final Path destination) throws IOException {
+    final Path target = destination.resolve("report.pdf");
+    final PrintJob job = createJob().print(ExportJob.defaultPrintParams(), target);
+
+    assertArrayEquals(server.pdf(), Files.readAllBytes(target));
+    assertEquals(target.toString(), job.outputDocument(), "Streamed file should be the output document of the job");
+  }
+
+  @Test
+  void failsClearlyWhenPrintIsRefused(@TempDir final Path destination) {
+    server.failOnPrint(2);
+    final Path target = destination.resolve("report.pdf");
+
+    final IllegalStateException e = assertThrows(IllegalStateException.class, () -> createJob().print());
+    assertTrue(e.getMessage().contains("Page.printToPDF"), "Failure should name the refused command: " + e.getMessage());
+    assertThrows(IllegalStateException.class, () -> createJob().print(ExportJob.defaultPrintParams(), target));
+    assertFalse(Files.exists(target), "Incomplete document should be removed");
+  }
+
+  @Test
+  void takesSnapshot() {
+    final SnapshotJob job = createJob().snapshot();
+
+    assertArrayEquals(server.screenshot(), job.result());
+    assertEquals(0, server.openPages(), "Page should be closed after the export");
+  }
+
+  @Test
+  void passesSnapshotSpecToChrome(@TempDir final Path destination) {
+    createJob().snapshot(Map.of("x", 0, "y", 100, "width", 640, "height", 480));
+    assertEquals(Map.of("x", 0.0, "y", 100.0, "width", 640.0, "height", 480.0, "scale", 1.0), server.screenshotParams().get("clip"));
+    assertEquals("png", server.screenshotParams().get("format"));
+
+    final ExportJob element = createJob().destination(destination + "/");
+    element.snapshot(SnapshotSpec.create()
+        .selector("#map")
+        .format(SnapshotSpec.Format.JPEG)
+        .quality(70)
+        .scale(0.5));
+    assertEquals(Map.of("x", 10, "y", 20, "width", 300, "height", 200, "scale", 0.5), server.screenshotParams().get("clip"));
+    assertEquals("jpeg", server.screenshotParams().get("format"));
+    assertEquals(70, server.screenshotParams().get("quality"));
+    assertTrue(element.save().outputDocument().endsWith(".jpeg"), "File extension should follow the format");
+
+    createJob().snapshot(SnapshotSpec.create().format(SnapshotSpec.Format.WEBP).captureBeyondViewport(true).scale(0.25));
+    assertEquals(Map.of("x", 0, "y", 0, "width", 1280, "height", 4000, "scale", 0.25), server.screenshotParams().get("clip"));
+    assertEquals(true, server.screenshotParams().get("captureBeyondViewport"));
+  }
+
+  @Test
+  void completesViaPageScripts() {
+    assertArrayEquals(server.pdf(), createJob().completeViaReadyPromise(Duration.ofSeconds(5)).print().result());
+    assertArrayEquals(server.pdf(), createJob().completeOrFailViaIndicatorObserver(Duration.ofSeconds(5)).print().result());
+  }
+
+  @Test
+  void failsWhenReadyPromiseIsRejected() {
+    server.evaluateResult("window.exportReady",
+        Map.of("type", "object", "subtype", "error", "className", "Error", "description", "Error: data failed to load"));
+
+    assertThrows(FailureIndicatorException.class, () -> createJob().completeViaReadyPromise(Duration.ofSeconds(5)).print());
+    assertEquals(0, server.prints(), "Page that failed should not be printed");
+  }
+
+  @Test
+  void failsWhenObserverSeesFailureIndicator() {
+    server.evaluateResult("MutationObserver", Map.of("type", "boolean", "value", true));
+
+    assertThrows(FailureIndicatorException.class, () -> createJob().completeOrFailViaIndicatorObserver(Duration.ofSeconds(5)).print());
+    assertEquals(0, server.prints(), "Page that failed should not be printed");
+  }
+
+  @Test
+  void takesSeveralOutputsFromOnePageLoad() {
+    try (final ExportSession session = createJob().open()) {
+      assertArrayEquals(server.pdf(), session.pdf());
+      assertArrayEquals(server.screenshot(), session.snapshot(SnapshotSpec.create().selector("#chart")));
+      assertArrayEquals(server.screenshot(), session.snapshot(SnapshotSpec.create().clip(0, 0, 100, 100)));
+      assertTrue(session.html().contains("<body>report</body>"));
+    }
+
+    assertEquals(1, server.navigations(), "Page should be loaded once");
+    assertEquals(1, server.prints());
+    assertEquals(2, server.screenshots());
+    assertEquals(0, server.openPages(), "Page should be closed with the session");
+  }
+
+  @Test
+  void appliesRequestPolicy() {
+    server.subresource("https://www.google-analytics.com/analytics.js", "Script")
+        .subresource("https://fonts.example.com/noto.woff2", "Font")
+        .subresource("https://cdn.example.com/map.js", "Script")
+        .subresource("http://localhost/chat-widget.js", "Script")
+        .subresource("http://localhost/tiles/1.png", "Image");
+
+    createJob()
+        .requestPolicy(RequestPolicy.create()
+            .block("*://*.google-analytics.com/*")
+            .blockResourceType("Font")
+            .rewrite("https://cdn.example.com/", "http://cdn.internal/")
+            .stub("*/chat-widget.js", "application/javascript"))
+        .print();
+
+    assertEquals(Map.of(
+        "https://www.google-analytics.com/analytics.js", "Fetch.failRequest",
+        "https://fonts.example.com/noto.woff2", "Fetch.failRequest",
+        "https://cdn.example.com/map.js", "Fetch.continueRequest http://cdn.internal/map.js",
+        "http://localhost/chat-widget.js", "Fetch.fulfillRequest",
+        "http://localhost/tiles/1.png", "Fetch.continueRequest"), server.interceptions());
+  }
+
+  @Test
+  void continuesPausedRequestWhenPolicyFails() {
+    server.subresource("http://localhost/tiles/0.png", "Image");
+    final RequestPolicy policy = new RequestPolicy() {
+      @Override
+      public Decision decide(final String url, final String resourceType) {
+        throw new IllegalStateException("Broken rule.");
+      }
+    }.block("*/tiles/*");
+
+    assertArrayEquals(server.pdf(), createJob().requestPolicy(policy).print().result());
+    assertEquals(Map.of("http://localhost/tiles/0.png", "Fetch.continueRequest"), server.interceptions());
+  }
+
+  @Test
+  void answersAssetRequestsFromSharedCache() throws IOException {
+    final AtomicInteger downloads = new AtomicInteger();
+    final HttpServer upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    upstream.createContext("/bundle.js", exchange -> {
+      downloads.incrementAndGet();
+      exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+      exchange.sendResponseHeaders(200, 2);
+      exchange.getResponseBody().write("{}".getBytes());
+      exchange.close();
+    });
+    upstream.start();
+    final String bundle = "http://localhost:" + upstream.getAddress().getPort() + "/bundle.js";
+    server.subresource(bundle, "Script");
+
+    try (final AssetCache cache = AssetCache.create().pattern("*/bundle.js")) {
+      for (int i = 0; i < 3; i++) {
+        createJob().assetCache(cache).print();
+        assertEquals("Fetch.fulfillRequest", server.interceptions().remove(bundle));
+      }
+      assertEquals(1, downloads.get(), "Asset should be downloaded once for all jobs");
+      assertEquals(2, cache.hits());
+    } finally {
+      upstream.stop(0);
+    }
+  }
+
+  @Test
+  void leavesUncacheableAssetRequestsToPage() throws IOException {
+    final HttpServer upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    upstream.createContext("/account.js", exchange -> {
+      exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+      exchange.sendResponseHeaders(401, -1);
+      exchange.close();
+    });
+    upstream.start();
+    final String account = "http://localhost:" + upstream.getAddress().getPort() + "/account.js";
+    server.subresource(account, "Script");
+
+    try (final AssetCache cache = AssetCache.create().pattern("*/account.js")) {
+      createJob().assetCache(cache).print();
+      assertEquals("Fetch.continueRequest", server.interceptions().get(account), "Page should load the asset with its own cookies");
+    } finally {
+      upstream.stop(0);
+    }
+  }
+
+  @Test
+  void isolatesExportsInBrowserContexts() {
+    for (int i = 0; i < 3; i++) {
+      assertArrayEquals(server.pdf(), createJob().isolatedContext(true).print().result());
+    }
+    assertEquals(3, server.browserContextsCreated(), "Every export should get a browser context of its own");
+    assertEquals(0, server.openBrowserContexts(), "Browser contexts should be disposed");
+    assertEquals(0, server.openPages(), "Pages should be closed along with their context");
+  }
+
+  @Test
+  void multiplexesPagesOverBrowserConnection() throws Exception {
+    server.navigateLatency(Duration.ofSeconds(1));
+    final List<CompletableFuture<PrintJob>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      futures.add(createJob().sharedConnection(true).printAsync());
+    }
+    while (server.navigations() < 4) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, server.openWebSockets(), "Pages should only be talked to through the browser connection");
+    for (final CompletableFuture<PrintJob> future : futures) {
+      assertArrayEquals(server.pdf(), future.get(10, TimeUnit.SECONDS).result());
+    }
+    assertEquals(0, server.openPages(), "Pages should be closed after the exports");
+    assertEquals(0, server.pageWebSocketsOpened(), "No connection should ever have been opened to a page itself");
+  }
+
+  @Test
+  void closesBrowserConnectionWithCluster() throws InterruptedException {
+    try (final ChromeCluster cluster = ChromeCluster.create().endpoint("localhost", server.port()).start()) {
+      assertArrayEquals(server.pdf(), createJob().chromeCluster(cluster).sharedConnection(true).print().result());
+      assertEquals(1, server.openWebSockets(), "Browser connection should stay open for the next export");
+    }
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (server.openWebSockets() > 0) {
+      assertTrue(System.nanoTime() - deadline < 0, "Browser connection should be closed with the cluster");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void reusesPooledPages() {
+    try (final ChromeTabPool pool = ChromeTabPool.create("localhost").driverOptions(server.driverOptions()).maxSize(2)) {
+      for (int i = 0; i < 5; i++) {
+        ExportJob.create(URL).tabPool(pool).print();
+      }
+      assertTrue(server.pagesCreated() <= 2, "Pages should be reused, created: " + server.pagesCreated());
+    }
+    assertEquals(0, server.openPages(), "Pool should close its pages");
+  }
+
+  @Test
+  void reportsPhaseMetrics(@TempDir final Path destination) {
+    final HistogramExportMetrics metrics = new HistogramExportMetrics();
+    createJob()
+        .destination(destination + "/")
+        .metrics(metrics)
+        .print()
+        .save();
+
+    for (final ExportPhase phase : List.of(ExportPhase.ACQUIRE, ExportPhase.OPEN_PAGE, ExportPhase.NAVIGATE, ExportPhase.WAIT_FOR_COMPLETE,
+        ExportPhase.RENDER, ExportPhase.TRANSFER, ExportPhase.SAVE)) {
+      assertEquals(1, metrics.statistics(phase).count(), "Phase should be reported once: " + phase);
+    }
+    assertEquals(server.pdf().length, metrics.statistics(ExportPhase.TRANSFER).bytes());
+    assertEquals(server.pdf().length, metrics.statistics(ExportPhase.SAVE).bytes());
+  }
+
+  @Test
+  void answersRepeatedPrintFromCache() {
+    final ExportCache cache = ExportCache.create();
+    final PrintJob first = createJob().cache(cache, "v1").print();
+    final PrintJob second = createJob().cache(cache, "v1").print();
+    createJob().cache(cache, "v2").print();
+
+    assertArrayEquals(first.result(), second.result());
+    assertEquals(2, server.prints(), "Only the print with a new version should reach Chrome");
+    assertEquals(1, cache.statistics().hits());
+    assertEquals(2, cache.statistics().misses());
+  }
+
+  @Test
+  void retriesExportOnNewPageAfterCrash() {
+    server.crashOnPrint(1);
+    final PrintJob job = createJob()
+        .retryPolicy(RetryPolicy.create().initialBackoff(Duration.ofMillis(10)))
+        .print();
+
+    assertArrayEquals(server.pdf(), job.result());
+    assertEquals(2, server.pagesCreated(), "Crashed page should be replaced by a new one");
+    assertEquals(0, server.openPages());
+  }
+
+  @Test
+  void failsFastWhileCircuitIsOpen() {
+    final CircuitBreaker breaker = CircuitBreaker.create()
+        .failureThreshold(1)
+        .openTime(Duration.ofMinutes(1));
+    server.crashOnPrint(1);
+
+    assertThrows(PageCrashedException.class, () -> createJob().circuitBreaker(breaker).print());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state("localhost:" + server.port()));
+    assertThrows(CircuitOpenException.class, () -> createJob().circuitBreaker(breaker).print());
+    assertEquals(1, server.pagesCreated(), "No page should be opened while the circuit is open");
+  }
+
+  @Test
+  void doesNotQuarantineHostWhenPoolIsExhausted() {
+    try (final ChromeCluster cluster = ChromeCluster.create()
+        .endpoint("localhost", server.port())
+        .failureThreshold(1)
+        .tabPools(pool -> pool.maxSize(1).borrowTimeout(Duration.ofMillis(200)))
+        .start();
+        final ExportSession session = createJob().chromeCluster(cluster).open()) {
+      final String address = "localhost:" + server.port();
+      assertEquals(ChromeHostLimiter.defaultLimit() - 1, ChromeHostLimiter.available(address),
+          "Session should hold a slot under the same address as the cluster host");
+
+      assertThrows(SlotTimeoutException.class, () -> createJob().chromeCluster(cluster).print());
+      assertFalse(cluster.status().get(0).quarantined(), "Waiting for a page should not count as a failure of the host");
+    }
+  }
+
+  @Test
+  void passesTabPoolDriverOptionsToClusterPages() {
+    try (final ChromeCluster cluster = ChromeCluster.create()
+        .endpoint("localhost", server.port())
+        .tabPools(pool -> pool.driverOptions(Map.of("timeout", 12_345)))
+        .start()) {
+      final ChromeCluster.Node node = cluster.acquire();
+      try {
+        final QuittableChrome chrome = node.tabPool().borrow();
+        assertEquals(12_345, chrome.getOptions().timeout, "Driver option configured for the pools should reach the page");
+        assertEquals(server.port(), chrome.getOptions().port, "Page should be opened on the port of the cluster host");
+        node.tabPool().release(chrome, false);
+      } finally {
+        cluster.release(node, false);
+      }
+    }
+  }
+
+  @Test
+  void abortsExportPastDeadlineAndFreesPage() {
+    server.navigateLatency(Duration.ofSeconds(10));
+    try (final ChromeTabPool pool = ChromeTabPool.create("localhost")
+        .driverOptions(server.driverOptions())
+        .maxSize(1)
+        .borrowTimeout(Duration.ofSeconds(2))) {
+      final long start = System.nanoTime();
+      final ExportAbortedException e = assertThrows(ExportAbortedException.class,
+          () -> createJob().tabPool(pool).deadline(Duration.ofMillis(500)).print());
+
+      assertEquals(ExportPhase.NAVIGATE, e.phase());
+      assertFalse(e.cancelled());
+      assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 5000, "Export should be aborted well before the page loads");
+      assertFalse(Thread.currentThread().isInterrupted(), "Interrupt used to abort the export should be cleared");
+      assertEquals(0, server.openPages(), "Aborted page should be closed");
+
+      server.navigateLatency(Duration.ZERO);
+      assertArrayEquals(server.pdf(), createJob().tabPool(pool).print().result(), "Page slot should be released for the next export");
+    }
+  }
+
+  @Test
+  void cancelsRunningExport() throws InterruptedException {
+    server.navigateLatency(Duration.ofSeconds(10));
+    final ExportJob job = createJob();
+    final CompletableFuture<PrintJob> future = job.printAsync();
+    while (server.navigations() == 0) {
+      Thread.sleep(10);
+    }
+
+    assertTrue(job.cancel());
+    final ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    final ExportAbortedException aborted = assertInstanceOf(ExportAbortedException.class, e.getCause());
+    assertTrue(aborted.cancelled());
+    assertEquals(ExportPhase.NAVIGATE, aborted.phase());
+    assertFalse(job.cancel(), "Export should only be cancelled once");
+  }
+
+  @Test
+  void marksJobExportedBeforeRunningAsynchronously() throws Exception {
+    final ExportJob job = createJob();
+    final CompletableFuture<PrintJob> future = job.printAsync();
+
+    assertThrows(IllegalStateException.class, job::printAsync, "Job should not be exported twice");
+    assertThrows(IllegalStateException.class, () -> job.handle("other"), "Job should not be mutated while it is exported");
+    assertArrayEquals(server.pdf(), future.get(5, TimeUnit.SECONDS).result());
+  }
+
+  @Test
+  void runsAsyncExportOffCallingThread() throws Exception {
+    final List<Thread> exportThreads = new ArrayList<>();
+    final ExecutorService executor = ExportExecutors.createThreadPool(1, 1);
+
+    try {
+      createJob().completeHook((driver, url, phase, cause) -> exportThreads.add(Thread.currentThread())).printAsync()
+          .get(5, TimeUnit.SECONDS);
+      createJob().executor(executor).completeHook((driver, url, phase, cause) -> exportThreads.add(Thread.currentThread())).printAsync()
+          .get(5, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, exportThreads.size());
+    assertTrue(exportThreads.stream().noneMatch(Thread.currentThread()::equals), "Export should not run on the calling thread");
+  }
+
+  private ExportJob createJob() {
+    return ExportJob.create(URL)
+        .chromeHost("localhost")
+        .driverOptions(server.driverOptions());
+  }
+}
@@ -0,0 +1,838 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.intuit.karate.JsonUtils;
+
+/**
+ * In-process stand-in for the DevTools HTTP and websocket endpoints of a headless Chrome, for tests that exercise the export path
+ * without a browser.
+ *
+ * It implements /json/version, /json/new, /json/list and /json/close over HTTP, and answers DevTools commands on the page websockets.
+ * Page.navigate is followed by the page, frame and lifecycle events Chrome sends while loading a document, Page.printToPDF (in both
+ * transfer modes, with IO.read and IO.close) and Page.captureScreenshot return a payload of the configured size, after the configured
+ * latency. Runtime.evaluate returns the configured result for expressions containing a configured fragment. Otherwise it returns false
+ * for expressions that refer to a failure and true otherwise, so the complete indicator is always found, a fixed rectangle for element
+ * bounding boxes and a fixed document for the page HTML. Page.getLayoutMetrics describes a 1280 by 720 viewport on a 1280 by 4000 page. While the Fetch domain is enabled, loading a document pauses each configured subresource with Fetch.requestPaused, and the
+ * way it was continued is recorded. Any other command is answered with an empty result.
+ *
+ * The browser endpoint advertised by /json/version takes the Target commands to create pages and browser contexts, to close and dispose
+ * them, and to attach to pages in flat mode, after which the messages of those pages go over the browser socket.
+ *
+ * The payloads are opaque bytes with the right magic numbers, they are not valid documents or images.
+ */
+final class FakeDevToolsServer implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(FakeDevToolsServer.class);
+
+  private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+  private static final byte[] PDF_MAGIC = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+  private static final int OPCODE_CONTINUATION = 0x0;
+  private static final int OPCODE_TEXT = 0x1;
+  private static final int OPCODE_CLOSE = 0x8;
+  private static final int OPCODE_PING = 0x9;
+  private static final int OPCODE_PONG = 0xA;
+
+  private Duration navigateLatency = Duration.ZERO;
+  private Duration printLatency = Duration.ZERO;
+  private Duration screenshotLatency = Duration.ZERO;
+  private int pdfSize = 64 * 1024;
+  private int screenshotSize = 16 * 1024;
+  private int fixedPort;
+  private final Map<String, String> subresources = new LinkedHashMap<>();
+  private final Map<String, String> interceptions = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Object>> evaluateResults = new ConcurrentHashMap<>();
+
+  private final Map<String, Page> pages = new ConcurrentHashMap<>();
+  private final AtomicInteger pageCounter = new AtomicInteger();
+  private final AtomicInteger streamCounter = new AtomicInteger();
+  private final AtomicLong pagesCreated = new AtomicLong();
+  private final AtomicLong pagesClosed = new AtomicLong();
+  private final AtomicLong navigations = new AtomicLong();
+  private final AtomicLong prints = new AtomicLong();
+  private final AtomicLong screenshots = new AtomicLong();
+  private final AtomicInteger crashingPrints = new AtomicInteger();
+  private final AtomicInteger failingPrints = new AtomicInteger();
+  private final AtomicInteger contextCounter = new AtomicInteger();
+  private final Set<String> browserContexts = ConcurrentHashMap.newKeySet();
+  private final Set<Socket> browserSockets = ConcurrentHashMap.newKeySet();
+  private final Map<String, Page> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger openWebSockets = new AtomicInteger();
+  private final AtomicInteger pageWebSocketsOpened = new AtomicInteger();
+
+  private ServerSocket serverSocket;
+  private byte[] pdf;
+  private byte[] screenshot;
+  private volatile Map<String, Object> screenshotParams;
+  private volatile boolean closed;
+
+  private static final class Page {
+    private final String id;
+    private final Map<String, byte[]> streams = new ConcurrentHashMap<>();
+    private final Map<String, Integer> streamPositions = new ConcurrentHashMap<>();
+    private final AtomicInteger contextCounter = new AtomicInteger();
+    private volatile String url = "about:blank";
+    private volatile String browserContextId;
+    // Set for the browser endpoint, and for pages attached through it in flat mode, whose messages then go over the browser socket
+    private volatile boolean browser;
+    private volatile String sessionId;
+    private ExecutorService inbox;
+    private volatile Socket socket;
+    private volatile boolean networkEnabled;
+    private volatile boolean fetchEnabled;
+    private final Map<String, String> pausedRequests = new ConcurrentHashMap<>();
+
+    private Page(final String id) {
+      this.id = id;
+    }
+  }
+
+  static FakeDevToolsServer create() {
+    return new FakeDevToolsServer();
+  }
+
+  FakeDevToolsServer navigateLatency(final Duration navigateLatency) {
+    this.navigateLatency = navigateLatency;
+    return this;
+  }
+
+  FakeDevToolsServer printLatency(final Duration printLatency) {
+    this.printLatency = printLatency;
+    return this;
+  }
+
+  FakeDevToolsServer screenshotLatency(final Duration screenshotLatency) {
+    this.screenshotLatency = screenshotLatency;
+    return this;
+  }
+
+  /**
+   * @param pdfSize size in bytes of the document returned by Page.printToPDF
+   */
+  FakeDevToolsServer pdfSize(final int pdfSize) {
+    this.pdfSize = pdfSize;
+    return this;
+  }
+
+  /**
+   * @param screenshotSize size in bytes of the image returned by Page.captureScreenshot
+   */
+  FakeDevToolsServer screenshotSize(final int screenshotSize) {
+    this.screenshotSize = screenshotSize;
+    return this;
+  }
+
+  /**
+   * @param url URL of a subresource the document loads
+   * @param resourceType resource type of the subresource, such as Script or Font
+   */
+  FakeDevToolsServer subresource(final String url, final String resourceType) {
+    subresources.put(url, resourceType);
+    return this;
+  }
+
+  /**
+   * @param fragment part of the expression to answer for
+   * @param result remote object Runtime.evaluate returns for expressions containing the fragment; a result of subtype error is reported
+   *          as a thrown exception
+   */
+  FakeDevToolsServer evaluateResult(final String fragment, final Map<String, Object> result) {
+    evaluateResults.put(fragment, result);
+    return this;
+  }
+
+  /**
+   * @param count number of Page.printToPDF commands, from now on, on which the page crashes instead of printing
+   */
+  FakeDevToolsServer crashOnPrint(final int count) {
+    crashingPrints.set(count);
+    return this;
+  }
+
+  /**
+   * @param count number of Page.printToPDF commands, from now on, that are answered with an error instead of a document
+   */
+  FakeDevToolsServer failOnPrint(final int count) {
+    failingPrints.set(count);
+    return this;
+  }
+
+  /**
+   * @param port port to listen on, by default a free port is picked
+   */
+  FakeDevToolsServer port(final int port) {
+    this.fixedPort = port;
+    return this;
+  }
+
+  /**
+   * Crashes all open pages, as if their renderers went away.
+   */
+  void crashPages() throws IOException {
+    for (final Page page : pages.values()) {
+      event(page, "Inspector.targetCrashed", Map.of());
+    }
+  }
+
+  FakeDevToolsServer start() throws IOException {
+    pdf = payload(PDF_MAGIC, pdfSize);
+    screenshot = payload(PNG_MAGIC, screenshotSize);
+    serverSocket = new ServerSocket(fixedPort, 200, InetAddress.getLoopbackAddress());
+    startThread("fake-devtools-acceptor", this::accept);
+    return this;
+  }
+
+  int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return driver options pointing an export at this server
+   */
+  Map<String, Object> driverOptions() {
+    return Map.of("port", port());
+  }
+
+  /**
+   * @return the number of websocket connections currently open, to pages or to the browser
+   */
+  int openWebSockets() {
+    return openWebSockets.get();
+  }
+
+  /**
+   * @return the number of websocket connections ever opened to a page rather than to the browser
+   */
+  int pageWebSocketsOpened() {
+    return pageWebSocketsOpened.get();
+  }
+
+  int openPages() {
+    return pages.size();
+  }
+
+  long pagesCreated() {
+    return pagesCreated.get();
+  }
+
+  long pagesClosed() {
+    return pagesClosed.get();
+  }
+
+  long navigations() {
+    return navigations.get();
+  }
+
+  long prints() {
+    return prints.get();
+  }
+
+  long screenshots() {
+    return screenshots.get();
+  }
+
+  /**
+   * @return the number of browser contexts that were created and not disposed yet
+   */
+  int openBrowserContexts() {
+    return browserContexts.size();
+  }
+
+  long browserContextsCreated() {
+    return contextCounter.get();
+  }
+
+  byte[] pdf() {
+    return pdf;
+  }
+
+  byte[] screenshot() {
+    return screenshot;
+  }
+
+  /**
+   * @return for each paused subresource, how it was continued: the Fetch command, followed by the new URL for a rewrite
+   */
+  Map<String, String> interceptions() {
+    return interceptions;
+  }
+
+  /**
+   * @return the parameters of the last Page.captureScreenshot command
+   */
+  Map<String, Object> screenshotParams() {
+    return screenshotParams;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    closeQuietly(serverSocket);
+    pages.values().forEach(page -> closeQuietly(page.socket));
+    browserSockets.forEach(FakeDevToolsServer::closeQuietly);
+  }
+
+  private void accept() {
+    while (!closed) {
+      try {
+        final Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        startThread("fake-devtools-connection", () -> handle(socket));
+      } catch (final IOException e) {
+        if (!closed) {
+          LOG.warn("Failure accepting connection.", e);
+        }
+      }
+    }
+  }
+
+  private void handle(final Socket socket) {
+    try {
+      final InputStream in = new BufferedInputStream(socket.getInputStream());
+      final String requestLine = readLine(in);
+      if (requestLine == null) {
+        socket.close();
+        return;
+      }
+      final Map<String, String> headers = new HashMap<>();
+      String line;
+      while ((line = readLine(in)) != null && !line.isEmpty()) {
+        final int colon = line.indexOf(':');
+        if (colon > 0) {
+          headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+      }
+
+      final String path = requestLine.split(" ")[1];
+      if ("websocket".equalsIgnoreCase(headers.get("upgrade")) && path.startsWith("/devtools/page/")) {
+        final Page page = pages.get(path.substring(path.lastIndexOf('/') + 1));
+        if (page == null) {
+          respond(socket, 404, "No such target id");
+        } else {
+          pageWebSocketsOpened.incrementAndGet();
+          upgrade(socket, in, headers.get("sec-websocket-key"), page);
+        }
+      } else if ("websocket".equalsIgnoreCase(headers.get("upgrade")) && path.startsWith("/devtools/browser/")) {
+        // The browser endpoint only takes Target commands, so it is modelled as a page that is not listed
+        browserSockets.add(socket);
+        final Page browser = new Page("browser");
+        browser.browser = true;
+        upgrade(socket, in, headers.get("sec-websocket-key"), browser);
+      } else {
+        respondHttp(socket, path);
+      }
+    } catch (final IOException e) {
+      LOG.trace("Connection ended: {}", e.getMessage());
+      closeQuietly(socket);
+    }
+  }
+
+  private void respondHttp(final Socket socket, final String path) throws IOException {
+    if (path.startsWith("/json/new")) {
+      final Page page = new Page(String.format("%032X", pageCounter.incrementAndGet()));
+      pages.put(page.id, page);
+      pagesCreated.incrementAndGet();
+      respond(socket, 200, JsonUtils.toJson(describe(page)));
+    } else if (path.startsWith("/json/close/")) {
+      final Page page = pages.remove(path.substring("/json/close/".length()));
+      if (page == null) {
+        respond(socket, 404, "No such target id");
+      } else {
+        closePage(page);
+        respond(socket, 200, "Target is closing");
+      }
+    } else if (path.startsWith("/json/version")) {
+      respond(socket, 200, JsonUtils.toJson(Map.of("Browser", "HeadlessChrome/Fake", "Protocol-Version", "1.3",
+          "webSocketDebuggerUrl", "ws://localhost:" + port() + "/devtools/browser/fake")));
+    } else if (path.startsWith("/json")) {
+      respond(socket, 200, JsonUtils.toJson(pages.values().stream().map(this::describe).toList()));
+    } else {
+      respond(socket, 200, "");
+    }
+  }
+
+  private Map<String, Object> describe(final Page page) {
+    final Map<String, Object> description = new LinkedHashMap<>();
+    description.put("id", page.id);
+    description.put("type", "page");
+    description.put("title", page.url);
+    description.put("url", page.url);
+    description.put("webSocketDebuggerUrl", "ws://localhost:" + port() + "/devtools/page/" + page.id);
+    return description;
+  }
+
+  private static void respond(final Socket socket, final int status, final String body) throws IOException {
+    final byte[] content = body.getBytes(StandardCharsets.UTF_8);
+    final String head = "HTTP/1.1 " + status + (status == 200 ? " OK" : " Not Found") + "\r\n"
+        + "Content-Type: " + (body.startsWith("{") || body.startsWith("[") ? "application/json" : "text/plain") + "; charset=UTF-8\r\n"
+        + "Content-Length: " + content.length + "\r\n"
+        + "Connection: close\r\n\r\n";
+    final OutputStream out = socket.getOutputStream();
+    out.write(head.getBytes(StandardCharsets.US_ASCII));
+    out.write(content);
+    out.flush();
+    socket.close();
+  }
+
+  private void upgrade(final Socket socket, final InputStream in, final String key, final Page page) throws IOException {
+    final String accept;
+    try {
+      accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+          .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    final OutputStream out = socket.getOutputStream();
+    out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    out.flush();
+    page.socket = socket;
+    openWebSockets.incrementAndGet();
+
+    final DataInputStream data = new DataInputStream(in);
+    final ByteArrayOutputStream message = new ByteArrayOutputStream();
+    try {
+      while (!closed) {
+        final int first = data.readUnsignedByte();
+        final int second = data.readUnsignedByte();
+        final boolean fin = (first & 0x80) != 0;
+        final int opcode = first & 0x0F;
+        long length = second & 0x7F;
+        if (length == 126) {
+          length = data.readUnsignedShort();
+        } else if (length == 127) {
+          length = data.readLong();
+        }
+        final byte[] mask = new byte[4];
+        if ((second & 0x80) != 0) {
+          data.readFully(mask);
+        }
+        final byte[] payload = new byte[(int) length];
+        data.readFully(payload);
+        for (int i = 0; i < payload.length; i++) {
+          payload[i] ^= mask[i % 4];
+        }
+
+        if (opcode == OPCODE_CLOSE) {
+          writeFrame(socket, OPCODE_CLOSE, payload);
+          break;
+        } else if (opcode == OPCODE_PING) {
+          writeFrame(socket, OPCODE_PONG, payload);
+        } else if (opcode == OPCODE_TEXT || opcode == OPCODE_CONTINUATION) {
+          message.write(payload);
+          if (fin) {
+            onMessage(page, message.toString(StandardCharsets.UTF_8));
+            message.reset();
+          }
+        }
+      }
+    } catch (final EOFException | SocketException e) {
+      LOG.trace("Websocket of page {} ended: {}", page.id, e.getMessage());
+    } finally {
+      openWebSockets.decrementAndGet();
+      closeQuietly(socket);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void onMessage(final Page connection, final String text) throws IOException {
+    final Map<String, Object> message = (Map<String, Object>) JsonUtils.fromJson(text);
+    final Page attached = connection.browser && message.get("sessionId") instanceof final String sessionId ? sessions.get(sessionId) : null;
+    if (attached == null) {
+      handle(connection, message);
+    } else {
+      // Like Chrome, pages attached through the browser connection handle their commands independently of each other
+      attached.inbox.execute(() -> {
+        try {
+          handle(attached, message);
+        } catch (final IOException e) {
+          LOG.trace("Could not answer session of page {}: {}", attached.id, e.getMessage());
+        }
+      });
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void handle(final Page page, final Map<String, Object> message) throws IOException {
+    final Object id = message.get("id");
+    final String method = (String) message.get("method");
+    final Map<String, Object> params = message.get("params") instanceof final Map<?, ?> map ? (Map<String, Object>) map : Map.of();
+    final String sessionId = (String) message.get("sessionId");
+
+    switch (method) {
+    case "Page.navigate" -> navigate(page, id, sessionId, (String) params.get("url"));
+    case "Page.printToPDF" -> print(page, id, sessionId, params);
+    case "Page.captureScreenshot" -> {
+      sleep(screenshotLatency);
+      screenshots.incrementAndGet();
+      screenshotParams = params;
+      reply(page, id, sessionId, Map.of("data", Base64.getEncoder().encodeToString(screenshot)));
+    }
+    case "IO.read" -> read(page, id, sessionId, (String) params.get("handle"), params.get("size"));
+    case "IO.close" -> {
+      page.streams.remove(params.get("handle"));
+      page.streamPositions.remove(params.get("handle"));
+      reply(page, id, sessionId, Map.of());
+    }
+    case "Runtime.evaluate" -> reply(page, id, sessionId, evaluate((String) params.get("expression")));
+    case "Target.attachToTarget" -> {
+      final Page target = page.browser ? pages.get(params.get("targetId")) : null;
+      if (target == null) {
+        reply(page, id, sessionId, Map.of("sessionId", "SESSION-" + page.id));
+      } else {
+        target.inbox = Executors.newSingleThreadExecutor(runnable -> {
+          final Thread thread = new Thread(runnable, "fake-devtools-session");
+          thread.setDaemon(true);
+          return thread;
+        });
+        target.socket = page.socket;
+        target.sessionId = "FLAT-" + target.id;
+        sessions.put(target.sessionId, target);
+        reply(page, id, sessionId, Map.of("sessionId", target.sessionId));
+      }
+    }
+    case "Target.closeTarget" -> {
+      final Page target = pages.remove(params.get("targetId"));
+      if (target != null) {
+        closePage(target);
+      }
+      reply(page, id, sessionId, Map.of("success", target != null));
+    }
+    case "Network.enable" -> {
+      page.networkEnabled = true;
+      reply(page, id, sessionId, Map.of());
+    }
+    case "Page.getLayoutMetrics" -> reply(page, id, sessionId, Map.of(
+        "cssLayoutViewport", Map.of("pageX", 0, "pageY", 0, "clientWidth", 1280, "clientHeight", 720),
+        "cssContentSize", Map.of("x", 0, "y", 0, "width", 1280, "height", 4000)));
+    case "Fetch.enable", "Fetch.disable" -> {
+      page.fetchEnabled = "Fetch.enable".equals(method);
+      reply(page, id, sessionId, Map.of());
+    }
+    case "Fetch.continueRequest", "Fetch.failRequest", "Fetch.fulfillRequest" -> {
+      final String url = page.pausedRequests.remove(params.get("requestId"));
+      interceptions.put(url, params.containsKey("url") ? method + " " + params.get("url") : method);
+      reply(page, id, sessionId, Map.of());
+    }
+    case "Target.createBrowserContext" -> {
+      final String browserContextId = "CONTEXT-" + contextCounter.incrementAndGet();
+      browserContexts.add(browserContextId);
+      reply(page, id, sessionId, Map.of("browserContextId", browserContextId));
+    }
+    case "Target.createTarget" -> {
+      final Page target = new Page(String.format("%032X", pageCounter.incrementAndGet()));
+      target.browserContextId = (String) params.get("browserContextId");
+      pages.put(target.id, target);
+      pagesCreated.incrementAndGet();
+      reply(page, id, sessionId, Map.of("targetId", target.id));
+    }
+    case "Target.disposeBrowserContext" -> {
+      final String browserContextId = (String) params.get("browserContextId");
+      if (browserContexts.remove(browserContextId)) {
+        for (final Page target : pages.values()) {
+          if (browserContextId.equals(target.browserContextId) && pages.remove(target.id, target)) {
+            closePage(target);
+          }
+        }
+        reply(page, id, sessionId, Map.of());
+      } else {
+        error(page, id, sessionId, "Failed to find context with id " + browserContextId);
+      }
+    }
+    case "Network.getResponseBody" -> reply(page, id, sessionId, Map.of("body", "", "base64Encoded", false));
+    default -> reply(page, id, sessionId, Map.of());
+    }
+  }
+
+  private void navigate(final Page page, final Object id, final String sessionId, final String url) throws IOException {
+    navigations.incrementAndGet();
+    final String loaderId = "LOADER-" + navigations.get();
+    reply(page, id, sessionId, Map.of("frameId", page.id, "loaderId", loaderId));
+    sleep(navigateLatency);
+
+    page.url = url;
+    final int contextId = page.contextCounter.incrementAndGet();
+    event(page, "Page.frameStartedLoading", Map.of("frameId", page.id));
+    lifecycle(page, loaderId, "init");
+    event(page, "Runtime.executionContextsCleared", Map.of());
+    event(page, "Page.frameNavigated", Map.of("frame", Map.of("id", page.id, "loaderId", loaderId, "url", url, "name", "",
+        "securityOrigin", url, "mimeType", "text/html")));
+    event(page, "Runtime.executionContextCreated", Map.of("context", Map.of("id", contextId, "origin", url, "name", "",
+        "auxData", Map.of("isDefault", true, "type", "default", "frameId", page.id))));
+    if (page.networkEnabled) {
+      final String requestId = loaderId;
+      event(page, "Network.requestWillBeSent", Map.of("requestId", requestId, "loaderId", loaderId, "documentURL", url,
+          "request", Map.of("url", url, "method", "GET", "headers", Map.of()), "type", "Document"));
+      event(page, "Network.responseReceived", Map.of("requestId", requestId, "loaderId", loaderId, "type", "Document",
+          "response", Map.of("url", url, "status", 200, "headers", Map.of(), "mimeType", "text/html")));
+      event(page, "Network.loadingFinished", Map.of("requestId", requestId, "encodedDataLength", 0));
+    }
+    if (page.fetchEnabled && !subresources.isEmpty()) {
+      int index = 0;
+      for (final Map.Entry<String, String> subresource : subresources.entrySet()) {
+        final String requestId = "interception-" + loaderId + "-" + index++;
+        page.pausedRequests.put(requestId, subresource.getKey());
+        event(page, "Fetch.requestPaused", Map.of("requestId", requestId, "frameId", page.id, "resourceType", subresource.getValue(),
+            "request", Map.of("url", subresource.getKey(), "method", "GET", "headers", Map.of())));
+      }
+      // Like Chrome, the document only finishes loading once its paused requests are continued, which arrive on this thread
+      startThread("fake-devtools-loader", () -> {
+        try {
+          for (int i = 0; i < 500 && !page.pausedRequests.isEmpty(); i++) {
+            sleep(Duration.ofMillis(10));
+          }
+          finishLoading(page, loaderId);
+        } catch (final IOException e) {
+          LOG.trace("Could not finish loading page {}: {}", page.id, e.getMessage());
+        }
+      });
+    } else {
+      finishLoading(page, loaderId);
+    }
+  }
+
+  private void finishLoading(final Page page, final String loaderId) throws IOException {
+    lifecycle(page, loaderId, "DOMContentLoaded");
+    event(page, "Page.domContentEventFired", Map.of("timestamp", timestamp()));
+    lifecycle(page, loaderId, "load");
+    event(page, "Page.loadEventFired", Map.of("timestamp", timestamp()));
+    event(page, "Page.frameStoppedLoading", Map.of("frameId", page.id));
+    lifecycle(page, loaderId, "networkAlmostIdle");
+    lifecycle(page, loaderId, "networkIdle");
+  }
+
+  private void print(final Page page, final Object id, final String sessionId, final Map<String, Object> params) throws IOException {
+    if (crashingPrints.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+      event(page, "Inspector.targetCrashed", Map.of());
+      error(page, id, sessionId, "Target crashed");
+      return;
+    }
+    if (failingPrints.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+      error(page, id, sessionId, "Printing failed");
+      return;
+    }
+    sleep(printLatency);
+    prints.incrementAndGet();
+    if ("ReturnAsStream".equals(params.get("transferMode"))) {
+      final String handle = String.valueOf(streamCounter.incrementAndGet());
+      page.streams.put(handle, pdf);
+      page.streamPositions.put(handle, 0);
+      reply(page, id, sessionId, Map.of("data", "", "stream", handle));
+    } else {
+      reply(page, id, sessionId, Map.of("data", Base64.getEncoder().encodeToString(pdf)));
+    }
+  }
+
+  private void read(final Page page, final Object id, final String sessionId, final String handle, final Object size) throws IOException {
+    final byte[] stream = page.streams.get(handle);
+    if (stream == null) {
+      writeText(page, JsonUtils.toJson(Map.of("id", id, "error", Map.of("code", -32000, "message", "Invalid stream handle"))));
+      return;
+    }
+    final int position = page.streamPositions.get(handle);
+    final int end = Math.min(stream.length, position + (size instanceof final Number n ? n.intValue() : stream.length));
+    page.streamPositions.put(handle, end);
+    reply(page, id, sessionId, Map.of("base64Encoded", true, "eof", end >= stream.length,
+        "data", Base64.getEncoder().encodeToString(Arrays.copyOfRange(stream, position, end))));
+  }
+
+  private Map<String, Object> evaluate(final String expression) {
+    if (expression != null) {
+      for (final Map.Entry<String, Map<String, Object>> entry : evaluateResults.entrySet()) {
+        if (expression.contains(entry.getKey())) {
+          final Map<String, Object> result = entry.getValue();
+          return "error".equals(result.get("subtype"))
+              ? Map.of("result", result, "exceptionDetails", Map.of("exceptionId", 1, "text", "Uncaught (in promise)", "exception", result))
+              : Map.of("result", result);
+        }
+      }
+    }
+    return Map.of("result", evaluateDefault(expression));
+  }
+
+  private static Map<String, Object> evaluateDefault(final String expression) {
+    if (expression != null && expression.trim().equals("1")) {
+      return Map.of("type", "number", "value", 1);
+    }
+    if (expression != null && expression.contains("outerHTML")) {
+      return Map.of("type", "string", "value", "<!DOCTYPE html><html><body>report</body></html>");
+    }
+    if (expression != null && expression.contains("getBoundingClientRect")) {
+      return Map.of("type", "object", "value", Map.of("x", 10, "y", 20, "width", 300, "height", 200));
+    }
+    final boolean value = expression == null || !expression.contains("failure");
+    return Map.of("type", "boolean", "value", value);
+  }
+
+  private void lifecycle(final Page page, final String loaderId, final String name) throws IOException {
+    event(page, "Page.lifecycleEvent", Map.of("frameId", page.id, "loaderId", loaderId, "name", name, "timestamp", timestamp()));
+  }
+
+  private void closePage(final Page page) throws IOException {
+    pagesClosed.incrementAndGet();
+    if (page.sessionId == null) {
+      closeQuietly(page.socket);
+    } else {
+      // Only the session ends, the browser connection stays open
+      sessions.remove(page.sessionId);
+      page.inbox.shutdown();
+      writeText(page, JsonUtils.toJson(Map.of("method", "Target.detachedFromTarget",
+          "params", Map.of("sessionId", page.sessionId, "targetId", page.id))));
+    }
+  }
+
+  private void reply(final Page page, final Object id, final String sessionId, final Map<String, Object> result) throws IOException {
+    final Map<String, Object> message = new LinkedHashMap<>();
+    message.put("id", id);
+    message.put("result", result);
+    if (sessionId != null) {
+      message.put("sessionId", sessionId);
+    }
+    writeText(page, JsonUtils.toJson(message));
+  }
+
+  private void error(final Page page, final Object id, final String sessionId, final String errorMessage) throws IOException {
+    final Map<String, Object> message = new LinkedHashMap<>();
+    message.put("id", id);
+    message.put("error", Map.of("code", -32000, "message", errorMessage));
+    if (sessionId != null) {
+      message.put("sessionId", sessionId);
+    }
+    writeText(page, JsonUtils.toJson(message));
+  }
+
+  private void event(final Page page, final String method, final Map<String, Object> params) throws IOException {
+    final Map<String, Object> message = new LinkedHashMap<>();
+    message.put("method", method);
+    message.put("params", params);
+    if (page.sessionId != null) {
+      message.put("sessionId", page.sessionId);
+    }
+    writeText(page, JsonUtils.toJson(message));
+  }
+
+  private void writeText(final Page page, final String text) throws IOException {
+    writeFrame(page.socket, OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeFrame(final Socket socket, final int opcode, final byte[] payload) throws IOException {
+    // Pages attached in flat mode share the socket of the browser connection
+    synchronized (socket) {
+      final OutputStream out = socket.getOutputStream();
+      out.write(0x80 | opcode);
+      if (payload.length < 126) {
+        out.write(payload.length);
+      } else if (payload.length <= 0xFFFF) {
+        out.write(126);
+        out.write(payload.length >>> 8);
+        out.write(payload.length & 0xFF);
+      } else {
+        out.write(127);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          out.write((int) (((long) payload.length >>> shift) & 0xFF));
+        }
+      }
+      out.write(payload);
+      out.flush();
+    }
+  }
+
+  private static String readLine(final InputStream in) throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != -1) {
+      if (b == '\n') {
+        return line.toString(StandardCharsets.US_ASCII).stripTrailing();
+      }
+      line.write(b);
+    }
+    return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] payload(final byte[] magic, final int size) {
+    final byte[] payload = new byte[Math.max(size, magic.length)];
+    for (int i = magic.length; i < payload.length; i++) {
+      payload[i] = (byte) ('a' + i % 26);
+    }
+    System.arraycopy(magic, 0, payload, 0, magic.length);
+    return payload;
+  }
+
+  private static double timestamp() {
+    return System.nanoTime() / 1e9;
+  }
+
+  private static void sleep(final Duration duration) {
+    if (!duration.isZero()) {
+      try {
+        Thread.sleep(duration.toMillis());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static void startThread(final String name, final Runnable runnable) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void closeQuietly(final AutoCloseable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (final Exception e) {
+        // Closing anyway
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the bookkeeping, retention and response body fetching of {@link NetworkFailureTracker}.
+ */
+class NetworkFailureTrackerTest {
+
+  private static final String URL = "http://localhost/tiles/";
+
+  @Test
+  void forgetsFinishedRequests() {
+    final NetworkFailureTracker tracker = new NetworkFailureTracker();
+    for (int i = 0; i < 1000; i++) {
+      tracker.onRequest("r" + i, URL + i, "GET", null);
+      tracker.onResponse("r" + i, i == 10 ? 404 : 200);
+      tracker.onLoadingFinished("r" + i);
+    }
+    tracker.onRequest("pending", URL, "GET", null);
+
+    assertEquals(1, tracker.getRequestsInFlight(), "Only the pending request should be tracked");
+    final List<NetworkFailure> failures = tracker.getFailures(requestId -> CompletableFuture.completedFuture(null));
+    assertEquals(1, failures.size());
+    assertEquals(URL + 10, failures.get(0).url());
+    assertEquals(404, failures.get(0).responseStatus());
+  }
+
+  @Test
+  void reportsHttpErrorFollowedByLoadingFailureOnce() {
+    final NetworkFailureTracker tracker = new NetworkFailureTracker();
+    tracker.onRequest("r1", URL, "GET", null);
+    tracker.onResponse("r1", 500);
+    tracker.onLoadingFailed("r1", "net::ERR_ABORTED", "Fetch", false);
+
+    final List<NetworkFailure> failures = tracker.getFailures(requestId -> CompletableFuture.completedFuture(null));
+    assertEquals(1, failures.size());
+    assertEquals(500, failures.get(0).responseStatus());
+    assertEquals("net::ERR_ABORTED", failures.get(0).errorText());
+  }
+
+  @Test
+  void capsRetainedFailures() {
+    final NetworkFailureTracker tracker = new NetworkFailureTracker(3, 1024, Duration.ofSeconds(1));
+    for (int i = 0; i < 5; i++) {
+      tracker.onRequest("r" + i, URL + i, "GET", null);
+      tracker.onLoadingFailed("r" + i, "net::ERR_FAILED", "Image", false);
+    }
+
+    assertEquals(3, tracker.getFailures(requestId -> CompletableFuture.completedFuture(null)).size());
+    assertEquals(2, tracker.getDroppedFailures());
+  }
+
+  @Test
+  void fetchesBodiesWithinBudget() {
+    final NetworkFailureTracker tracker = new NetworkFailureTracker(10, 16, Duration.ofMillis(200));
+    for (final String requestId : List.of("long", "slow", "failing")) {
+      tracker.onRequest(requestId, URL + requestId, "GET", null);
+      tracker.onResponse(requestId, 500);
+    }
+    final Map<String, CompletableFuture<String>> bodies = Map.of(
+        "long", CompletableFuture.completedFuture("x".repeat(1000)),
+        "slow", new CompletableFuture<>(),
+        "failing", CompletableFuture.failedFuture(new IllegalStateException("No resource")));
+
+    final long start = System.nanoTime();
+    final List<NetworkFailure> failures = tracker.getFailures(bodies::get);
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000, "Fetching should stop at the budget");
+
+    assertEquals("x".repeat(16) + "... (truncated)", failures.get(0).responseBody());
+    assertNull(failures.get(1).responseBody(), "Body that did not arrive in time should be left out");
+    assertNull(failures.get(2).responseBody());
+    assertTrue(bodies.get("slow").isCancelled(), "Fetch still running after the budget should be cancelled");
+  }
+}
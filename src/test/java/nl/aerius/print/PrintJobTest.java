@@ -0,0 +1,71 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+
+/**
+ * Tests handing a printed document to the post-processor with {@link PrintJob}.
+ */
+class PrintJobTest {
+
+  @Test
+  void processesPrintedDocumentFromMemory() throws IOException {
+    final byte[] printed = createDocument(2);
+    final ExportJob job = new ExportJob() {
+      @Override
+      public byte[] result() {
+        return printed;
+      }
+    };
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+    new PrintJob(job).toProcessor()
+        .target(target)
+        .font(StandardFonts.HELVETICA)
+        .pageNumbers()
+        .process();
+
+    assertNull(job.outputDocument(), "Document should not have been saved to disk");
+    try (final PdfDocument result = new PdfDocument(new PdfReader(new ByteArrayInputStream(target.toByteArray())))) {
+      assertEquals(2, result.getNumberOfPages());
+    }
+  }
+
+  private static byte[] createDocument(final int pages) {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final PdfDocument pdfDoc = new PdfDocument(new PdfWriter(bos))) {
+      for (int i = 0; i < pages; i++) {
+        pdfDoc.addNewPage(PageSize.A4);
+      }
+    }
+    return bos.toByteArray();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests rule matching of {@link RequestPolicy}.
+ */
+class RequestPolicyTest {
+
+  private final RequestPolicy policy = RequestPolicy.create()
+      .stub("*://*.example.com/widget?.js", "application/javascript")
+      .block("*://*.example.com/*")
+      .blockResourceType("Font")
+      .rewrite("https://cdn.example.org/", "http://cdn.internal/");
+
+  @Test
+  void appliesFirstMatchingRule() {
+    assertEquals(new RequestPolicy.Decision(RequestPolicy.Action.STUB, "application/javascript"),
+        policy.decide("https://chat.example.com/widget2.js", "Script"));
+    assertEquals(RequestPolicy.Action.BLOCK, policy.decide("https://chat.example.com/widget.js", "Script").action());
+    assertEquals(RequestPolicy.Action.BLOCK, policy.decide("https://fonts.example.org/noto.woff2", "Font").action());
+    assertEquals(new RequestPolicy.Decision(RequestPolicy.Action.REWRITE, "http://cdn.internal/lib/map.js"),
+        policy.decide("https://cdn.example.org/lib/map.js", "Script"));
+    assertEquals(RequestPolicy.Decision.CONTINUE, policy.decide("http://localhost/report", "Document"));
+  }
+
+  @Test
+  void onlyPausesRequestsRulesMayApplyTo() {
+    assertEquals(List.of(
+        Map.of("urlPattern", "*://*.example.com/widget?.js", "requestStage", "Request"),
+        Map.of("urlPattern", "*://*.example.com/*", "requestStage", "Request"),
+        Map.of("urlPattern", "*", "resourceType", "Font", "requestStage", "Request"),
+        Map.of("urlPattern", "https://cdn.example.org/*", "requestStage", "Request")), policy.fetchPatterns());
+  }
+}
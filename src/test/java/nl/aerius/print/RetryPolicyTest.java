@@ -0,0 +1,82 @@
+/*
+ * Copyright the State of the Netherlands
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package nl.aerius.print;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import nl.aerius.pdf.CircuitOpenException;
+import nl.aerius.pdf.FailureIndicatorException;
+import nl.aerius.pdf.PageCrashedException;
+import nl.aerius.pdf.TimeoutException;
+
+/**
+ * Tests failure classification and backoff of {@link RetryPolicy}.
+ */
+class RetryPolicyTest {
+
+  @Test
+  void classifiesFailuresByCause() {
+    assertEquals(RetryPolicy.FailureType.CONNECTION,
+        RetryPolicy.classify(new RuntimeException("http call failed", new ConnectException("Connection refused"))));
+    assertEquals(RetryPolicy.FailureType.PAGE_CRASH, RetryPolicy.classify(new PageCrashedException("crashed", new NullPointerException())));
+    assertEquals(RetryPolicy.FailureType.TIMEOUT, RetryPolicy.classify(new TimeoutException("Page did not settle")));
+    assertEquals(RetryPolicy.FailureType.UNAVAILABLE, RetryPolicy.classify(new CircuitOpenException("open")));
+    assertEquals(RetryPolicy.FailureType.PAGE_FAILURE,
+        RetryPolicy.classify(new FailureIndicatorException("rejected", new TimeoutException("timed out"))));
+    assertEquals(RetryPolicy.FailureType.OTHER, RetryPolicy.classify(new IllegalArgumentException("bad")));
+  }
+
+  @Test
+  void retriesHostFailuresOnly() {
+    final RetryPolicy policy = RetryPolicy.create().maxAttempts(3);
+
+    assertTrue(policy.shouldRetry(new PageCrashedException(), 1));
+    assertTrue(policy.shouldRetry(new PageCrashedException(), 2));
+    assertFalse(policy.shouldRetry(new PageCrashedException(), 3), "Should give up after the last attempt");
+    assertFalse(policy.shouldRetry(new FailureIndicatorException(), 1));
+    assertFalse(policy.shouldRetry(new CircuitOpenException(), 1));
+    assertTrue(RetryPolicy.create().retryOn(RetryPolicy.FailureType.UNAVAILABLE).shouldRetry(new CircuitOpenException(), 1));
+  }
+
+  @Test
+  void growsBackoffExponentiallyWithJitter() {
+    final RetryPolicy policy = RetryPolicy.create()
+        .initialBackoff(Duration.ofMillis(100))
+        .maxBackoff(Duration.ofMillis(1000))
+        .jitter(0.5);
+
+    for (int i = 0; i < 100; i++) {
+      assertBetween(50, 100, policy.backoff(1));
+      assertBetween(100, 200, policy.backoff(2));
+      assertBetween(400, 800, policy.backoff(4));
+      assertBetween(500, 1000, policy.backoff(10));
+    }
+    assertEquals(Duration.ofMillis(400), RetryPolicy.create().initialBackoff(Duration.ofMillis(100)).jitter(0).backoff(3));
+  }
+
+  private static void assertBetween(final long minMillis, final long maxMillis, final Duration actual) {
+    assertTrue(actual.toMillis() >= minMillis && actual.toMillis() <= maxMillis,
+        "Backoff " + actual.toMillis() + " ms expected between " + minMillis + " and " + maxMillis);
+  }
+}